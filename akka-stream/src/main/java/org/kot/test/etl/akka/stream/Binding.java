@@ -1,14 +1,14 @@
 package org.kot.test.etl.akka.stream;
 
 import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
 
 import java.math.BigDecimal;
-import java.text.ParsePosition;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.ResolverStyle;
-import java.time.temporal.TemporalAccessor;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -24,6 +24,9 @@ public class Binding {
 
 	public static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("d/M/uuuu").withResolverStyle(ResolverStyle.STRICT);
 
+	/* decoders are stateful, so one per thread */
+	private static final ThreadLocal<ByteDecoder> decoders = ThreadLocal.withInitial(ByteDecoder::new);
+
 	private static final List<Mapping<ByteString, ?>> inMappings = csv2java().collect(Collectors.toList());
 
 	private static final List<Mapping<?, ByteString>> errorMappings = error2csv().collect(Collectors.toList());
@@ -44,41 +47,14 @@ public class Binding {
 
 	private static Stream<Mapping<ByteString, ?>> csv2java() {
 		Function<ByteString, LocalDate> toDate = v -> {
-			if (null == v) {
-				return null;
-			}
-			ParsePosition pos = new ParsePosition(0);
-			TemporalAccessor value = DATE.parseUnresolved(v.utf8String(), pos);
-			if (null == value) {
-				return null;
-			}
-			try {
-				return LocalDate.parse(v.utf8String(), DATE);
-			} catch (Exception e) {
-				return null;
-			}
+			ByteDecoder decoder = decoders.get();
+			return (ByteDecoder.OK == decoder.decodeDate(v))? LocalDate.ofEpochDay(decoder.value()): null;
 		};
 		Function<ByteString, Integer> toPositiveInt = v -> {
-			if (null == v || v.isEmpty()) {
-				return null;
-			}
-			try {
-				int result = Integer.parseInt(v.utf8String());
-				return (0 > result)? null : result;
-			} catch (NumberFormatException e) {
-				return null;
-			}
-		};
-		Function<ByteString, Integer> toInt = v -> {
-			if (null == v || v.isEmpty()) {
-				return null;
-			}
-			try {
-				return Integer.parseInt(v.utf8String());
-			} catch (NumberFormatException e) {
-				return null;
-			}
+			Integer result = toInt(v);
+			return (null == result || 0 > result)? null : result;
 		};
+		Function<ByteString, Integer> toInt = Binding::toInt;
 		Function<ByteString, String> toString = v -> {
 			if (null == v) {
 				return null;
@@ -86,98 +62,132 @@ public class Binding {
 			return v.utf8String();
 		};
 		Function<ByteString, BigDecimal> toDecimal = v -> {
-			if (null == v || v.isEmpty()) {
-				return null;
-			}
-			try {
-				return new BigDecimal(v.utf8String());
-			} catch (Exception e) {
-				return null;
+			ByteDecoder decoder = decoders.get();
+			switch (decoder.decodeDecimal(v)) {
+				case ByteDecoder.OK:
+					return BigDecimal.valueOf(decoder.value(), decoder.scale());
+				case ByteDecoder.OUT_OF_RANGE:
+				case ByteDecoder.NON_ASCII:
+					try {
+						return new BigDecimal(v.utf8String());
+					} catch (Exception e) {
+						return null;
+					}
+				default:
+					return null;
 			}
 		};
 		return Stream.of(
-				required("id", "id", toPositiveInt, v -> "Unable interpret '" + v + "' as ID"),
-				mapping("col1", "col1", toString),
-				required("col2","col2",  toDate, v -> "Unable interpret '" + v + "' as date for col2"),
-				mapping("col3","col3",  toDecimal),
-				mapping("col4","col4",  toInt)
+				required("id", "id", Integer.class, toPositiveInt, v -> "Unable interpret '" + v + "' as ID"),
+				mapping("col1", "col1", String.class, toString),
+				required("col2","col2", LocalDate.class, toDate, v -> "Unable interpret '" + v + "' as date for col2"),
+				mapping("col3","col3", BigDecimal.class, toDecimal),
+				mapping("col4","col4", Integer.class, toInt)
 		);
 	}
 
+	private static Integer toInt(ByteString v) {
+		ByteDecoder decoder = decoders.get();
+		switch (decoder.decodeInt(v)) {
+			case ByteDecoder.OK:
+				return (int) decoder.value();
+			case ByteDecoder.NON_ASCII:
+				try {
+					return Integer.parseInt(v.utf8String());
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			default:
+				return null;
+		}
+	}
+
 	private static Stream<Mapping<?, ByteString>> java2csv() {
 
-		Function<LocalDate, ByteString> fromDate = v -> {
-			if (null == v) {
-				return ByteString.empty();
+		BiConsumer<LocalDate, ByteStringBuilder> fromDate = (v, out) -> {
+			if (null != v) {
+				ByteEncoder.putDate(out, v);
 			}
-			return ByteString.fromString(DATE.format(v));
 		};
-		Function<Integer, ByteString> fromPositiveInt = v -> {
-			if (null == v) {
-				return ByteString.empty();
+		BiConsumer<Integer, ByteStringBuilder> fromPositiveInt = (v, out) -> {
+			if (null != v) {
+				ByteEncoder.putLong(out, v);
 			}
-			return ByteString.fromString(Integer.toString(v));
 		};
-		Function<Integer, ByteString> fromInt = v -> {
-			if (null == v) {
-				return ByteString.empty();
+		BiConsumer<Integer, ByteStringBuilder> fromInt = (v, out) -> {
+			if (null != v) {
+				ByteEncoder.putLong(out, v);
 			}
-			return ByteString.fromString(Integer.toString(v));
 		};
-		Function<String, ByteString> fromString = v -> {
-			if (null == v) {
-				return ByteString.empty();
+		BiConsumer<String, ByteStringBuilder> fromString = (v, out) -> {
+			if (null != v) {
+				ByteEncoder.putString(out, v);
 			}
-			return ByteString.fromString(v);
 		};
-		Function<BigDecimal, ByteString> fromDecimal = v -> {
-			if (null == v) {
-				return ByteString.empty();
+		BiConsumer<BigDecimal, ByteStringBuilder> fromDecimal = (v, out) -> {
+			if (null != v) {
+				ByteEncoder.putString(out, v.toString());
 			}
-			return ByteString.fromString(v.toString());
 		};
 		return Stream.of(
-				mapping("id", "id", fromPositiveInt),
-				mapping("col1", "col1", fromString),
-				mapping("col2","col2",  fromDate),
-				mapping("col3","col3",  fromDecimal),
-				mapping("col4","col4",  fromInt)
+				encoding("id", "id", fromPositiveInt),
+				encoding("col1", "col1", fromString),
+				encoding("col2", "col2", fromDate),
+				encoding("col3", "col3", fromDecimal),
+				encoding("col4", "col4", fromInt)
 		);
 	}
 
 	private static Stream<Mapping<?, ByteString>> error2csv() {
-		Function<String, ByteString> fromString = v -> {
-			if (null == v) {
-				return ByteString.empty();
+		// failed record keeps the raw cells as they were parsed, the one failed after binding (duplicate) keeps the bound values
+		BiConsumer<Object, ByteStringBuilder> fromRaw = (v, out) -> {
+			if (v instanceof ByteString) {
+				out.append((ByteString) v);
+			} else if (v instanceof LocalDate) {
+				ByteEncoder.putDate(out, (LocalDate) v);
+			} else if (null != v) {
+				ByteEncoder.putString(out, v.toString());
 			}
-			return ByteString.fromString(v);
 		};
-		Function<List<String>, ByteString> fromList = (List<String> v) -> {
+		BiConsumer<List<String>, ByteStringBuilder> fromList = (v, out) -> {
 			if (null == v || v.isEmpty()) {
-				return ByteString.empty();
+				return;
 			}
-
-			String result = v.stream()
-					.map(e -> e.replaceAll("\"", "\\\\\""))
-					.collect(Collectors.joining(",", "\"", "\""));
-			return ByteString.fromString(result);
+			out.putByte((byte) '"');
+			for (int i = 0; i < v.size(); i++) {
+				if (0 < i) {
+					out.putByte((byte) ',');
+				}
+				String e = v.get(i);
+				int from = 0;
+				for (int j = e.indexOf('"'); 0 <= j; j = e.indexOf('"', from)) {
+					ByteEncoder.putString(out, e.substring(from, j)).putByte((byte) '\\').putByte((byte) '"');
+					from = j + 1;
+				}
+				ByteEncoder.putString(out, e.substring(from));
+			}
+			out.putByte((byte) '"');
 		};
 		return Stream.of(
-				mapping("id", "id", fromString),
-				mapping("col1", "col1", fromString),
-				mapping("col2","col2",  fromString),
-				mapping("col3","col3",  fromString),
-				mapping("col4","col4",  fromString),
-				mapping("failures", "failures", fromList)
+				encoding("id", "id", fromRaw),
+				encoding("col1", "col1", fromRaw),
+				encoding("col2", "col2", fromRaw),
+				encoding("col3", "col3", fromRaw),
+				encoding("col4", "col4", fromRaw),
+				encoding("failures", "failures", fromList)
 		);
 	}
 
-	private static <I, O> Mapping mapping(String from, String to, Function<I, O> adapter) {
-		return new Mapping<>(from, to, adapter);
+	private static <I, O> Mapping mapping(String from, String to, Class<O> type, Function<I, O> adapter) {
+		return new Mapping<>(from, to, type, adapter);
+	}
+
+	private static <I> Mapping encoding(String from, String to, BiConsumer<I, ByteStringBuilder> encoder) {
+		return new EncodingMapping<>(from, to, encoder);
 	}
 
-	private static <I, O> Mapping required(String from, String to, Function<I, O> adapter, Function<I, String> errorReporter) {
-		return new RequiredMapping<>(from, to, adapter, errorReporter);
+	private static <I, O> Mapping required(String from, String to, Class<O> type, Function<I, O> adapter, Function<I, String> errorReporter) {
+		return new RequiredMapping<>(from, to, type, adapter, errorReporter);
 	}
 
 	public static class Mapping<I, O> {
@@ -186,11 +196,14 @@ public class Binding {
 
 		private final String toName;
 
+		private final Class<O> type;
+
 		private final Function<I, O> adapter;
 
-		Mapping(String fromName, String toName, Function<I, O> adapter) {
+		Mapping(String fromName, String toName, Class<O> type, Function<I, O> adapter) {
 			this.fromName = fromName;
 			this.toName = toName;
+			this.type = type;
 			this.adapter = adapter;
 		}
 
@@ -202,10 +215,34 @@ public class Binding {
 			return toName;
 		}
 
-		public O apply(I data, List<String> mismatch) {
+		/**
+		 * @return The type of value the mapping results in
+		 */
+		public Class<O> type() {
+			return type;
+		}
+
+		public O apply(I data) {
 			return adapter.apply(data);
 		}
 
+		/**
+		 * Checks the result of mapping.
+		 * @return The description of failure or {@code null} if the result is acceptable
+		 */
+		public String failure(I data, O result) {
+			return null;
+		}
+
+		public O apply(I data, List<String> mismatch) {
+			O result = apply(data);
+			String failure = failure(data, result);
+			if (null != failure) {
+				mismatch.add(failure);
+			}
+			return result;
+		}
+
 		@Override
 		public String toString() {
 			return "Mapping " + fromName + " -> " + toName;
@@ -216,18 +253,38 @@ public class Binding {
 
 		private final Function<I, String> error;
 
-		RequiredMapping(String fromName, String toName, Function<I, O> adapter, Function<I, String> error) {
-			super(fromName, toName, adapter);
+		RequiredMapping(String fromName, String toName, Class<O> type, Function<I, O> adapter, Function<I, String> error) {
+			super(fromName, toName, type, adapter);
 			this.error = error;
 		}
 
 		@Override
-		public O apply(I data, List<String> mismatch) {
-			O result = super.apply(data, mismatch);
-			if (null == result) {
-				mismatch.add(error.apply(data));
-			}
-			return result;
+		public String failure(I data, O result) {
+			return (null == result)? error.apply(data): null;
+		}
+	}
+
+	/**
+	 * Mapping into CSV cell, which is able to write its result straight into the output.
+	 */
+	public static class EncodingMapping<I> extends Mapping<I, ByteString> {
+
+		private final BiConsumer<I, ByteStringBuilder> encoder;
+
+		EncodingMapping(String fromName, String toName, BiConsumer<I, ByteStringBuilder> encoder) {
+			super(fromName, toName, ByteString.class, v -> {
+				ByteStringBuilder out = ByteString.createBuilder();
+				encoder.accept(v, out);
+				return out.result();
+			});
+			this.encoder = encoder;
+		}
+
+		/**
+		 * Writes the result of mapping into the builder.
+		 */
+		public void encode(I data, ByteStringBuilder out) {
+			encoder.accept(data, out);
 		}
 	}
 }
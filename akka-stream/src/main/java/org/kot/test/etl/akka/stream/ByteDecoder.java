@@ -0,0 +1,276 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+
+/**
+ * Decoder of primitive values straight from the bytes of CSV cell.
+ * <p>
+ * Outcome of decoding is reported by return code instead of exception, the decoded value is kept by decoder until the next decoding, so decoder
+ * is reusable but not thread safe. Accepted syntax is the one of {@link Integer#parseInt(String)}, {@link Long#parseLong(String)},
+ * {@link java.math.BigDecimal#BigDecimal(String)} and {@link Binding#DATE}, except that non ASCII digits (numbers parsing of JDK accepts any
+ * Unicode digit) are not decoded but reported by {@link #NON_ASCII}, so caller may fall back to the string based parsing.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-02-23 10:40
+ */
+public final class ByteDecoder {
+
+	/** The value is decoded */
+	public static final int OK = 0;
+
+	/** There is no value, cell is {@code null} or empty */
+	public static final int EMPTY = 1;
+
+	/** Cell doesn't match the syntax */
+	public static final int MALFORMED = 2;
+
+	/** Cell matches the syntax, but the value is out of range of the type (or not a valid date) */
+	public static final int OUT_OF_RANGE = 3;
+
+	/** Cell has non ASCII character where a digit may be */
+	public static final int NON_ASCII = 4;
+
+	private static final int MAX_EXPONENT_DIGITS = 9;
+
+	private static final int MAX_DATE_FIELD_DIGITS = 19;
+
+	private static final long MAX_YEAR = 999_999_999L;
+
+	private static final long DAYS_0000_TO_1970 = 719_528L;
+
+	private long value;
+
+	private int scale;
+
+	/**
+	 * @return The last decoded value: integral value, unscaled value of decimal or epoch day of date
+	 */
+	public long value() {
+		return value;
+	}
+
+	/**
+	 * @return The scale of the last decoded decimal
+	 */
+	public int scale() {
+		return scale;
+	}
+
+	/**
+	 * Decodes {@code int} value, optionally signed.
+	 */
+	public int decodeInt(ByteString cell) {
+		return decodeIntegral(cell, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Decodes {@code long} value, optionally signed.
+	 */
+	public int decodeLong(ByteString cell) {
+		return decodeIntegral(cell, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Decodes fixed point decimal into unscaled {@link #value()} and {@link #scale()}. Value with more significant digits than {@code long} can
+	 * hold or with exponent of more than 9 digits is reported as {@link #OUT_OF_RANGE}.
+	 */
+	public int decodeDecimal(ByteString cell) {
+		if (null == cell || cell.isEmpty()) {
+			return EMPTY;
+		}
+		int n = cell.size(), i = 0;
+		byte c = cell.apply(0);
+		boolean negative = '-' == c;
+		if (negative || '+' == c) {
+			i++;
+		}
+		long unscaled = 0;
+		int digits = 0, fraction = -1;
+		boolean overflow = false;
+		for (; i < n; i++) {
+			c = cell.apply(i);
+			if ('0' <= c && '9' >= c) {
+				int digit = c - '0';
+				if (unscaled > (Long.MAX_VALUE - digit) / 10) {
+					overflow = true;
+				} else {
+					unscaled = unscaled * 10 + digit;
+				}
+				digits++;
+				if (0 <= fraction) {
+					fraction++;
+				}
+			} else if ('.' == c && 0 > fraction) {
+				fraction = 0;
+			} else {
+				break;
+			}
+		}
+		if (0 == digits) {
+			return (i < n && 0 > c)? NON_ASCII: MALFORMED;
+		}
+		long exponent = 0;
+		if (i < n) {
+			if ('e' != c && 'E' != c) {
+				return (0 > c)? NON_ASCII: MALFORMED;
+			}
+			if (++i < n && ('-' == cell.apply(i) || '+' == cell.apply(i))) {
+				i++;
+			}
+			boolean negativeExponent = '-' == cell.apply(i - 1);
+			int start = i;
+			for (; i < n; i++) {
+				c = cell.apply(i);
+				if ('0' > c || '9' < c) {
+					return (0 > c)? NON_ASCII: MALFORMED;
+				}
+				exponent = exponent * 10 + (c - '0');
+				if (MAX_EXPONENT_DIGITS < i - start + 1) {
+					overflow = true;
+				}
+			}
+			if (start == i) {
+				return MALFORMED;
+			}
+			if (negativeExponent) {
+				exponent = -exponent;
+			}
+		}
+		long s = Math.max(fraction, 0) - exponent;
+		if (overflow || Integer.MIN_VALUE > s || Integer.MAX_VALUE < s) {
+			return OUT_OF_RANGE;
+		}
+		value = negative? -unscaled: unscaled;
+		scale = (int) s;
+		return OK;
+	}
+
+	/**
+	 * Decodes the date of {@link Binding#DATE d/M/uuuu} format into epoch day.
+	 */
+	public int decodeDate(ByteString cell) {
+		if (null == cell || cell.isEmpty()) {
+			return EMPTY;
+		}
+		int n = cell.size();
+		int i = 0, start = i;
+		long day = 0;
+		for (; i < n && MAX_DATE_FIELD_DIGITS > i - start && isDigit(cell.apply(i)); i++) {
+			day = Math.min(day * 10 + cell.apply(i) - '0', MAX_YEAR + 1);
+		}
+		if (start == i || n <= i || '/' != cell.apply(i)) {
+			return MALFORMED;
+		}
+		start = ++i;
+		long month = 0;
+		for (; i < n && MAX_DATE_FIELD_DIGITS > i - start && isDigit(cell.apply(i)); i++) {
+			month = Math.min(month * 10 + cell.apply(i) - '0', MAX_YEAR + 1);
+		}
+		if (start == i || n <= i || '/' != cell.apply(i)) {
+			return MALFORMED;
+		}
+		if (n <= ++i) {
+			return MALFORMED;
+		}
+		byte sign = cell.apply(i);
+		if ('-' == sign || '+' == sign) {
+			i++;
+		}
+		start = i;
+		long year = 0;
+		for (; i < n && MAX_DATE_FIELD_DIGITS > i - start && isDigit(cell.apply(i)); i++) {
+			year = Math.min(year * 10 + cell.apply(i) - '0', MAX_YEAR + 1);
+		}
+		int width = i - start;
+		if (n != i || 4 > width) {
+			return MALFORMED;
+		}
+		if (('+' == sign && 4 == width) || ('-' == sign && 0 == year) || ('-' != sign && '+' != sign && 4 < width)) {
+			return MALFORMED; // sign is required if and only if year exceeds 4 digits, no negative zero
+		}
+		if ('-' == sign) {
+			year = -year;
+		}
+		if (MAX_YEAR < Math.abs(year) || 1 > month || 12 < month || 1 > day || lengthOfMonth(year, (int) month) < day) {
+			return OUT_OF_RANGE;
+		}
+		value = toEpochDay(year, month, day);
+		return OK;
+	}
+
+	private int decodeIntegral(ByteString cell, long max) {
+		if (null == cell || cell.isEmpty()) {
+			return EMPTY;
+		}
+		int n = cell.size(), i = 0;
+		byte c = cell.apply(0);
+		boolean negative = '-' == c;
+		if (negative || '+' == c) {
+			if (1 == n) {
+				return MALFORMED;
+			}
+			i++;
+		}
+		// accumulated negatively, as the range of negative values is wider
+		long limit = negative? -max - 1: -max;
+		long multiplicationLimit = limit / 10;
+		long result = 0;
+		for (; i < n; i++) {
+			c = cell.apply(i);
+			if ('0' > c || '9' < c) {
+				return (0 > c)? NON_ASCII: MALFORMED;
+			}
+			int digit = c - '0';
+			if (multiplicationLimit > result) {
+				return OUT_OF_RANGE;
+			}
+			result *= 10;
+			if (limit + digit > result) {
+				return OUT_OF_RANGE;
+			}
+			result -= digit;
+		}
+		value = negative? result: -result;
+		return OK;
+	}
+
+	private static boolean isDigit(byte c) {
+		return '0' <= c && '9' >= c;
+	}
+
+	private static boolean isLeap(long year) {
+		return 0 == (year & 3) && (0 != year % 100 || 0 == year % 400);
+	}
+
+	private static int lengthOfMonth(long year, int month) {
+		switch (month) {
+			case 2:
+				return isLeap(year)? 29: 28;
+			case 4:
+			case 6:
+			case 9:
+			case 11:
+				return 30;
+			default:
+				return 31;
+		}
+	}
+
+	/* the same as java.time.LocalDate#toEpochDay() */
+	private static long toEpochDay(long year, long month, long day) {
+		long total = 365 * year;
+		if (0 <= year) {
+			total += (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+		} else {
+			total -= year / -4 - year / -100 + year / -400;
+		}
+		total += (367 * month - 362) / 12;
+		total += day - 1;
+		if (2 < month) {
+			total--;
+			if (!isLeap(year)) {
+				total--;
+			}
+		}
+		return total - DAYS_0000_TO_1970;
+	}
+}
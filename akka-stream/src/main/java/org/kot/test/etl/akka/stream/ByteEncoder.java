@@ -0,0 +1,74 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+
+import java.time.LocalDate;
+
+/**
+ * Encoder of values straight into the bytes of CSV output, counterpart of {@link ByteDecoder}.
+ * <p>
+ * Values are written into the builder byte by byte, with no intermediate {@link String} or {@link ByteString}, except for text with non ASCII
+ * characters, which is encoded in UTF-8 by {@link ByteString#fromString(String)}. The output is the same as of {@link Long#toString(long)} and
+ * {@link Binding#DATE}.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-03-02 11:15
+ */
+public final class ByteEncoder {
+
+	private ByteEncoder() {
+	}
+
+	/**
+	 * Writes decimal representation of the value.
+	 */
+	public static ByteStringBuilder putLong(ByteStringBuilder out, long value) {
+		// processed negatively, as the range of negative values is wider
+		long v = value;
+		if (0 > v) {
+			out.putByte((byte) '-');
+		} else {
+			v = -v;
+		}
+		long power = 1;
+		while (-10 >= v / power) {
+			power *= 10;
+		}
+		for (; 0 < power; power /= 10) {
+			out.putByte((byte) ('0' - (v / power) % 10));
+		}
+		return out;
+	}
+
+	/**
+	 * Writes the date in {@link Binding#DATE d/M/uuuu} format.
+	 */
+	public static ByteStringBuilder putDate(ByteStringBuilder out, LocalDate value) {
+		putLong(out, value.getDayOfMonth()).putByte((byte) '/');
+		putLong(out, value.getMonthValue()).putByte((byte) '/');
+		int year = value.getYear();
+		if (0 > year) {
+			out.putByte((byte) '-');
+		} else if (9999 < year) {
+			out.putByte((byte) '+');
+		}
+		for (int pad = Math.abs(year), width = 1; 1000 > pad && 4 > width; pad *= 10, width++) {
+			out.putByte((byte) '0');
+		}
+		return putLong(out, Math.abs((long) year));
+	}
+
+	/**
+	 * Writes the text in UTF-8.
+	 */
+	public static ByteStringBuilder putString(ByteStringBuilder out, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (0x80 <= c) {
+				return out.append(ByteString.fromString(value.substring(i)));
+			}
+			out.putByte((byte) c);
+		}
+		return out;
+	}
+}
@@ -1,10 +1,12 @@
 package org.kot.test.etl.akka.stream;
 
+import akka.NotUsed;
 import akka.stream.Attributes;
 import akka.stream.FlowShape;
 import akka.stream.Inlet;
 import akka.stream.Outlet;
 import akka.stream.Shape;
+import akka.stream.javadsl.Flow;
 import akka.stream.stage.AbstractInHandler;
 import akka.stream.stage.AbstractOutHandler;
 import akka.stream.stage.GraphStage;
@@ -13,45 +15,131 @@ import akka.stream.stage.InHandler;
 import akka.util.ByteString;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 /**
  * Graph stage in flow shape to do a binding from CSV to Java.
+ * <p>
+ * Rows are bound either into {@link #toMappings(List) maps} or into {@link #toRows(List) rows} of fixed schema.
  * @author <a href=mailto:striped@gmail.com>striped</a>
  * @created 2018-12-16 16:20
  */
-public class CSV2JavaStage extends GraphStage<FlowShape<List<ByteString>, Map<String, ?>>> {
+public class CSV2JavaStage<T> extends GraphStage<FlowShape<List<ByteString>, T>> {
 
 	private final Inlet<List<ByteString>> in;
 
-	private final Outlet<Map<String, ?>> out;
+	private final Outlet<T> out;
 
-	private final FlowShape<List<ByteString>, Map<String, ?>> shape;
+	private final FlowShape<List<ByteString>, T> shape;
 
 	private final List<ByteString> header;
 
-	private final List<Binding.Mapping<ByteString, ?>> adapters;
+	private final CellBinder binder;
 
-	private CSV2JavaStage(List<Binding.Mapping<ByteString, ?>> mappings) {
+	private final List<Binding.Mapping<ByteString, ?>> mappings;
+
+	private final Record<T> record;
+
+	private CSV2JavaStage(List<Binding.Mapping<ByteString, ?>> mappings, CellBinder binder, Record<T> record) {
 		in = Inlet.create("CSV2Java.in");
 		out = Outlet.create("CSV2Java.out");
 		shape = FlowShape.of(in, out);
 		header = mappings.stream().map(Binding.Mapping::fromName).map(ByteString::fromString).collect(Collectors.toList());
-		adapters = mappings;
+		this.binder = binder;
+		this.mappings = mappings;
+		this.record = record;
+	}
+
+	@SuppressWarnings("WeakerAccess")
+	public static CSV2JavaStage<Map<String, ?>> toMappings(List<Binding.Mapping<ByteString, ?>> mappings) {
+		String[] names = mappings.stream().map(Binding.Mapping::toName).toArray(String[]::new);
+		return new CSV2JavaStage<>(mappings, CellBinder.of(mappings), new Record<Map<String, ?>>() {
+			@Override
+			public Map<String, ?> create() {
+				return new HashMap<>();
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public void set(Map<String, ?> record, int index, Object value) {
+				if (null != value) {
+					((Map<String, Object>) record).put(names[index], value);
+				}
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public Map<String, ?> fail(Map<String, ?> record, List<ByteString> cells, List<String> failures) {
+				Map<String, Object> result = (Map<String, Object>) record;
+				for (int i = 0; i < names.length; i++) {
+					ByteString cell = CellBinder.cell(cells, i);
+					if (null != cell) {
+						result.put(names[i], cell);
+					}
+				}
+				result.put("failures", failures);
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Constructs stage binding into rows of {@link Row.Schema#of(List) schema of the mappings}.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static CSV2JavaStage<Row> toRows(List<Binding.Mapping<ByteString, ?>> mappings) {
+		Row.Schema schema = Row.Schema.of(mappings);
+		return new CSV2JavaStage<>(mappings, CellBinder.of(mappings), new Record<Row>() {
+			@Override
+			public Row create() {
+				return new Row(schema);
+			}
+
+			@Override
+			public void set(Row record, int index, Object value) {
+				record.set(index, value);
+			}
+
+			@Override
+			public Row fail(Row record, List<ByteString> cells, List<String> failures) {
+				for (int i = 0; i < schema.size(); i++) {
+					record.raw(i, CellBinder.cell(cells, i));
+				}
+				return record.fail(failures);
+			}
+		});
 	}
 
+	/**
+	 * Flow doing the same binding over batches of rows, rows before header are skipped as well. Batch of no rows bound is dropped.
+	 * @see CSVParsingStage#batched(int, java.time.Duration)
+	 */
 	@SuppressWarnings("WeakerAccess")
-	public static CSV2JavaStage toMappings(List<Binding.Mapping<ByteString, ?>> mappings) {
-		return new CSV2JavaStage(mappings);
+	public Flow<List<List<ByteString>>, List<T>, NotUsed> batched() {
+		return Flow.<List<List<ByteString>>>create()
+				.statefulMapConcat(() -> {
+					boolean[] started = {false};
+					return batch -> {
+						List<T> result = new ArrayList<>(batch.size());
+						for (List<ByteString> row : batch) {
+							if (started[0]) {
+								result.add(bind(row));
+							} else {
+								started[0] = header.equals(row);
+							}
+						}
+						return result.isEmpty()? Collections.emptyList(): Collections.singletonList(result);
+					};
+				});
 	}
 
 	@Override
-	public FlowShape<List<ByteString>, Map<String, ?>> shape() {
+	public FlowShape<List<ByteString>, T> shape() {
 		return shape;
 	}
 
@@ -60,16 +148,106 @@ public class CSV2JavaStage extends GraphStage<FlowShape<List<ByteString>, Map<St
 		return new Logic(shape);
 	}
 
-	private Map<String, Object> toMap(Iterator<ByteString> cells, BiFunction<Binding.Mapping<ByteString, ?>, ByteString, Object> converter) {
-		Map<String, Object> map = new HashMap<>();
-		adapters.forEach(a -> {
-			ByteString value = cells.hasNext()? cells.next(): null;
-			Object result = converter.apply(a, value);
-			if (null != result) {
-				map.put(a.toName(), result);
-			}
-		});
-		return map;
+	/**
+	 * @return Whether the row is the header of mappings, which the rows bound follow
+	 */
+	boolean isHeader(List<ByteString> row) {
+		return header.equals(row);
+	}
+
+	/**
+	 * Resolves the header into the indexes of mappings by the names, the same way {@link CSVParser#project(List) projection} does.
+	 * @return The index of mapping per column of row or {@code -1} for column of no mapping, {@code null} if the row is not the header
+	 */
+	int[] positions(List<ByteString> row) {
+		if (!row.containsAll(header)) {
+			return null;
+		}
+		int[] result = new int[row.size()];
+		for (int i = 0; i < result.length; i++) {
+			int position = header.indexOf(row.get(i));
+			result[i] = (0 <= position && row.indexOf(row.get(i)) == i)? position: -1;
+		}
+		return result;
+	}
+
+	/**
+	 * @return New binder of rows cell by cell, which is not thread safe
+	 */
+	Cells cells() {
+		return new Cells();
+	}
+
+	/**
+	 * Binds the row of cells by the mappings in a single pass, failed row keeps the raw cells with list of failures instead.
+	 */
+	T bind(List<ByteString> row) {
+		return bind(row, new Object[mappings.size()]);
+	}
+
+	private T bind(List<ByteString> row, Object[] values) {
+		List<String> errors = binder.bind(row, values);
+		T result = record.create();
+		if (null != errors) {
+			return record.fail(result, row, errors);
+		}
+		for (int i = 0; i < values.length; i++) {
+			record.set(result, i, values[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Marks map bound by {@link #toMappings(List)} as failed after binding, it keeps the values bound then.
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, ?> fail(Map<String, ?> record, List<String> failures) {
+		((Map<String, Object>) record).put("failures", failures);
+		return record;
+	}
+
+	/**
+	 * Representation of record the values are bound into.
+	 */
+	private interface Record<T> {
+
+		T create();
+
+		void set(T record, int index, Object value);
+
+		/**
+		 * Sets the raw cells as the values of record, the ones missing are {@code null}, and marks it failed.
+		 */
+		T fail(T record, List<ByteString> cells, List<String> failures);
+	}
+
+	/**
+	 * Binder of a row collected cell by cell, as soon as the cells are parsed, with no list of the whole row. The cells of the current row only
+	 * are kept and bound in order of mappings, so failures are reported the same way as the ones of the row bound at once.
+	 */
+	final class Cells {
+
+		private final ByteString[] cells = new ByteString[mappings.size()];
+
+		private final List<ByteString> row = Arrays.asList(cells);
+
+		private final Object[] values = new Object[mappings.size()];
+
+		/**
+		 * Keeps the cell of mapping for the current row.
+		 */
+		void set(int index, ByteString cell) {
+			cells[index] = cell;
+		}
+
+		/**
+		 * Binds the cells in order of mappings, the missing ones as {@code null}, and completes the current row, the next cell set starts a new one.
+		 */
+		T complete() {
+			T completed = bind(row, values);
+			Arrays.fill(cells, null);
+			return completed;
+		}
 	}
 
 	private class Logic extends GraphStageLogic {
@@ -78,16 +256,7 @@ public class CSV2JavaStage extends GraphStage<FlowShape<List<ByteString>, Map<St
 			@Override
 			public void onPush() {
 				List<ByteString> row = grab(in);
-
-				List<String> errors = new ArrayList<>();
-				Map<String, Object> result = toMap(row.iterator(), (a, v) -> a.apply(v, errors));
-
-				if (!errors.isEmpty()) {
-					result = toMap(row.iterator(), (a, v) -> v.utf8String());
-					result.put("failures", errors);
-				}
-
-				push(out, result);
+				push(out, bind(row));
 			}
 		};
 
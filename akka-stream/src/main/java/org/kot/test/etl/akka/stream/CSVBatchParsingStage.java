@@ -0,0 +1,209 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.stream.Attributes;
+import akka.stream.FlowShape;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+import akka.stream.stage.InHandler;
+import akka.stream.stage.OutHandler;
+import akka.stream.stage.TimerGraphStageLogic;
+import akka.util.ByteString;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing stage which passes parsed rows downstream in batches, so the cost of passing element from stage to stage is paid per batch instead of
+ * per row.
+ * <p>
+ * Every incoming chunk is parsed completely, a batch is passed downstream as soon as it has the given number of rows. Incomplete batch is
+ * passed once the first row of it has waited for more rows longer than the deadline or upstream is finished. With batch size of {@code 0} all
+ * the rows parsed from an incoming chunk make a batch.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-02-16 12:30
+ */
+public class CSVBatchParsingStage extends GraphStage<FlowShape<ByteString, List<List<ByteString>>>> {
+
+	private static final String FLUSH = "flush";
+
+	private final CSVParsingStage parsing;
+
+	private final int size;
+
+	private final FiniteDuration flushAfter;
+
+	private final Inlet<ByteString> in;
+	private final Outlet<List<List<ByteString>>> out;
+	private final FlowShape<ByteString, List<List<ByteString>>> shape;
+
+	CSVBatchParsingStage(CSVParsingStage parsing, int size, Duration flushAfter) {
+		this.parsing = parsing;
+		this.size = size;
+		this.flushAfter = FiniteDuration.create(flushAfter.toNanos(), TimeUnit.NANOSECONDS);
+		in = Inlet.create("CSVBatchParsingStage.in");
+		out = Outlet.create("CSVBatchParsingStage.out");
+		shape = FlowShape.of(in, out);
+	}
+
+	@Override
+	public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+		return new Logic(shape);
+	}
+
+	@Override
+	public FlowShape<ByteString, List<List<ByteString>>> shape() {
+		return shape;
+	}
+
+	/**
+	 * @return New batches of rows parsed, which are not thread safe
+	 */
+	Batches batches() {
+		return new Batches(parsing.parser(), size);
+	}
+
+	private class Logic extends TimerGraphStageLogic implements InHandler, OutHandler {
+
+		private final Batches batches;
+
+		Logic(FlowShape<ByteString, List<List<ByteString>>> shape) {
+			super(shape);
+			batches = batches();
+			setHandlers(in, out, this);
+		}
+
+		@Override
+		public void onPush() throws IOException {
+			if (batches.offer(grab(in))) {
+				cancelTimer(FLUSH);
+			}
+			if (batches.pending() && !isTimerActive(FLUSH)) {
+				scheduleOnce(FLUSH, flushAfter);
+			}
+			tryPush();
+		}
+
+		@Override
+		public void onPull() {
+			tryPush();
+		}
+
+		@Override
+		public void onTimer(Object timerKey) {
+			batches.flush();
+			tryPush();
+		}
+
+		@Override
+		public void onUpstreamFinish() {
+			cancelTimer(FLUSH);
+			batches.finish();
+			for (List<List<ByteString>> batch = batches.poll(); null != batch; batch = batches.poll()) {
+				emit(out, batch);
+			}
+			completeStage();
+		}
+
+		private void tryPush() {
+			if (!isAvailable(out)) {
+				return;
+			}
+			List<List<ByteString>> batch = batches.poll();
+			if (null != batch) {
+				push(out, batch);
+			} else if (!hasBeenPulled(in) && !isClosed(in)) {
+				pull(in);
+			}
+		}
+	}
+
+	/**
+	 * Rows parsed, collected into batches; the ones completed wait in order to be passed downstream.
+	 */
+	static final class Batches {
+
+		private final CSVParser parser;
+
+		private final int size;
+
+		private final Queue<List<List<ByteString>>> ready = new ArrayDeque<>();
+
+		private List<List<ByteString>> batch;
+
+		Batches(CSVParser parser, int size) {
+			this.parser = parser;
+			this.size = size;
+			this.batch = newBatch();
+		}
+
+		/**
+		 * Parses the chunk completely, with batch size of {@code 0} the rows parsed make a batch.
+		 * @return Whether a batch is completed
+		 */
+		boolean offer(ByteString chunk) throws IOException {
+			int completed = ready.size();
+			parser.offer(chunk);
+			for (List<ByteString> line = parser.poll(true); null != line; line = parser.poll(true)) {
+				add(line);
+			}
+			if (0 >= size) {
+				flush();
+			}
+			return completed < ready.size();
+		}
+
+		/**
+		 * @return Whether the incomplete batch has rows, which wait for more
+		 */
+		boolean pending() {
+			return !batch.isEmpty();
+		}
+
+		/**
+		 * Completes the incomplete batch, if it has rows.
+		 */
+		void flush() {
+			if (!batch.isEmpty()) {
+				ready.add(batch);
+				batch = newBatch();
+			}
+		}
+
+		/**
+		 * Adds the last row, which may lack line feed, and completes the incomplete batch.
+		 */
+		void finish() {
+			for (List<ByteString> line = parser.poll(false); null != line; line = parser.poll(false)) {
+				add(line);
+			}
+			flush();
+		}
+
+		/**
+		 * @return The next batch completed or {@code null} if there is none
+		 */
+		List<List<ByteString>> poll() {
+			return ready.poll();
+		}
+
+		private void add(List<ByteString> line) {
+			batch.add(line);
+			if (batch.size() == size) {
+				ready.add(batch);
+				batch = newBatch();
+			}
+		}
+
+		private List<List<ByteString>> newBatch() {
+			return new ArrayList<>((0 < size)? size: 16);
+		}
+	}
+}
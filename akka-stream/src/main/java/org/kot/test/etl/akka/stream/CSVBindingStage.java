@@ -0,0 +1,177 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.stream.Attributes;
+import akka.stream.FlowShape;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+import akka.stream.stage.InHandler;
+import akka.stream.stage.OutHandler;
+import akka.util.ByteString;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsing and binding stage in one: every field is bound into the record by its mapping as soon as the parser finds it, so no row of cells is
+ * collected in between, unlike {@link CSVParsingStage} followed by {@link CSV2JavaStage}.
+ * <p>
+ * Rows before the header are skipped, the header is resolved into the columns of mappings by names the same way {@link CSVParser#project(List)
+ * projection} does, the fields of the other columns are skipped with no slicing. Backpressure and completion are the same as the ones of the
+ * parsing stage: a record is passed per row, the last row with no line feed is passed once upstream is finished.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-01 10:40
+ */
+public class CSVBindingStage<T> extends GraphStage<FlowShape<ByteString, T>> {
+
+	private final CSVParsingStage parsing;
+
+	private final CSV2JavaStage<T> binding;
+
+	private final Inlet<ByteString> in;
+	private final Outlet<T> out;
+	private final FlowShape<ByteString, T> shape;
+
+	CSVBindingStage(CSVParsingStage parsing, CSV2JavaStage<T> binding) {
+		this.parsing = parsing;
+		this.binding = binding;
+		in = Inlet.create("CSVBindingStage.in");
+		out = Outlet.create("CSVBindingStage.out");
+		shape = FlowShape.of(in, out);
+	}
+
+	@Override
+	public FlowShape<ByteString, T> shape() {
+		return shape;
+	}
+
+	@Override
+	public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+		return new Logic(shape);
+	}
+
+	/**
+	 * @return New binder of the rows of data offered, which is not thread safe
+	 */
+	Binder<T> binder() {
+		return new Binder<>(parsing.parser().streaming(), binding.cells(), binding);
+	}
+
+	/**
+	 * Parser of the data offered into records, field by field.
+	 */
+	static final class Binder<T> implements CSVParser.Fields {
+
+		private final CSVParser parser;
+
+		private final CSV2JavaStage<T>.Cells cells;
+
+		private final CSV2JavaStage<T> binding;
+
+		/* the fields of row before the header is found */
+		private final List<ByteString> row = new ArrayList<>();
+
+		/* the index of mapping per column, once the header is found */
+		private int[] positions;
+
+		private T record;
+
+		private Binder(CSVParser parser, CSV2JavaStage<T>.Cells cells, CSV2JavaStage<T> binding) {
+			this.parser = parser;
+			this.cells = cells;
+			this.binding = binding;
+		}
+
+		void offer(ByteString part) throws IOException {
+			parser.offer(part);
+		}
+
+		/**
+		 * Parses rows until the one bound, the header and the rows before it give no record.
+		 * @param requireLineFeed Whether the row has to end by line feed, otherwise the rest of data is the last row
+		 * @return The record or {@code null}, if more data is needed
+		 */
+		T poll(boolean requireLineFeed) {
+			while (parser.next(this, requireLineFeed)) {
+				if (null != record) {
+					T result = record;
+					record = null;
+					return result;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public boolean isBound(int column) {
+			return null == positions || column < positions.length && 0 <= positions[column];
+		}
+
+		@Override
+		public void field(int column, ByteString value) {
+			if (null == positions) {
+				row.add(value);
+			} else {
+				cells.set(positions[column], value);
+			}
+		}
+
+		@Override
+		public void endOfRow() {
+			if (null != positions) {
+				record = cells.complete();
+			} else {
+				positions = binding.positions(row);
+				row.clear();
+			}
+		}
+	}
+
+	private class Logic extends GraphStageLogic implements InHandler, OutHandler {
+
+		private final Binder<T> binder;
+
+		Logic(FlowShape<ByteString, T> shape) {
+			super(shape);
+			binder = binder();
+			setHandlers(in, out, this);
+		}
+
+		@Override
+		public void onPush() throws IOException {
+			binder.offer(grab(in));
+			tryPoll();
+		}
+
+		@Override
+		public void onPull() {
+			tryPoll();
+		}
+
+		@Override
+		public void onUpstreamFinish() {
+			emitRemaining();
+			completeStage();
+		}
+
+		private void tryPoll() {
+			T next = binder.poll(true);
+			if (null != next) {
+				push(out, next);
+			} else if (!isClosed(in)) {
+				pull(in);
+			} else {
+				emitRemaining();
+				completeStage();
+			}
+		}
+
+		private void emitRemaining() {
+			for (T next = binder.poll(false); null != next; next = binder.poll(false)) {
+				emit(out, next);
+			}
+		}
+	}
+}
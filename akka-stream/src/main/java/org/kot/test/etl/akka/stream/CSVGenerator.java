@@ -2,11 +2,8 @@ package org.kot.test.etl.akka.stream;
 
 import akka.actor.ActorSystem;
 import akka.stream.ActorMaterializer;
-import akka.stream.IOResult;
+import akka.stream.Materializer;
 import akka.stream.javadsl.FileIO;
-import akka.stream.javadsl.Flow;
-import akka.stream.javadsl.Keep;
-import akka.stream.javadsl.Sink;
 import akka.stream.javadsl.Source;
 import akka.util.ByteString;
 import com.typesafe.config.Config;
@@ -15,49 +12,78 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
-import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * CSV Generator.
+ * <p>
+ * Every file is generated by a stream of its own, up to the configured number of files at once, from its own split of the seeded random, so
+ * the files differ from each other and the same seed gives the same files on every run. Rows are encoded straight into the chunks written,
+ * file ends with the number of rows or the size given, whichever comes first.
  * @author <a href=mailto:striped@gmail.com>striped</a>
  * @created 2018-12-15 21:03
  */
-public class CSVGenerator implements Grapher {
+public class CSVGenerator {
 
 	private static final Logger logger = LoggerFactory.getLogger(CSVGenerator.class);
 
-	private static final char[] textAlphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
-
 	private final ActorSystem system;
 
 	private final Config config;
 
-	private final double invalidLineProbability;
+	private final int numberOfFiles;
 
-	private final Random random;
+	private final long numberOfRecords;
 
-	private final int numberOfFiles;
+	private final long fileSize;
 
-	private final int numberOfRecords;
+	private final int parallelism;
+
+	private final long seed;
+
+	private final int chunkSize;
+
+	private final double invalidLineProbability;
+
+	private final int maxTextLength;
+
+	private final Map<String, Column> columns = new HashMap<>();
 
 	@SuppressWarnings("WeakerAccess")
 	public CSVGenerator(Config config, ActorSystem system) {
 		this.config = config;
 		this.system = system;
 		numberOfFiles = config.getInt("generator.number-of-files");
-		numberOfRecords = config.getInt("generator.number-of-records");
+		numberOfRecords = config.getLong("generator.number-of-records");
+		fileSize = config.getBytes("generator.file-size");
+		if (0 >= numberOfRecords && 0 >= fileSize) {
+			throw new IllegalArgumentException("Either number of records or size of file is expected to bound the files");
+		}
+		parallelism = config.getInt("generator.parallelism");
+		seed = config.getLong("generator.seed");
+		chunkSize = config.getBytes("generator.chunk-size").intValue();
 		invalidLineProbability = config.getDouble("generator.invalid-line-probability");
-		random = new Random();
+		maxTextLength = config.getInt("generator.max-text-length");
+		Config columns = config.getConfig("generator.columns");
+		for (String name : columns.root().keySet()) {
+			this.columns.put(name, Column.of(columns.getLong(name + ".cardinality"), columns.getDouble(name + ".skew")));
+		}
 	}
 
 	public static void main(String[] args) throws IOException {
@@ -65,90 +91,341 @@ public class CSVGenerator implements Grapher {
 		ActorSystem system = ActorSystem.create("data-generator");
 		new CSVGenerator(config, system)
 				.generate(args)
-				.thenAccept(d -> system.terminate());
+				.whenComplete((d, e) -> {
+					if (null != e) {
+						logger.error("Generation failed", e);
+					}
+					system.terminate();
+				});
 	}
 
-	private String screw(String value, Binding.Mapping<ByteString, ?> b) {
-		if (random.nextDouble() < invalidLineProbability) {
-			switch (b.fromName()) {
-				case "id":
-					return "a" + value;
-				case "col1":
-					return "";
-				case "col2":
-					return "a-" + value;
-				case "col3":
-					return "a" + value;
-				case "col4":
-					return "e" + random.nextInt();
-				default:
-					throw new UnsupportedOperationException("Field '" + b.fromName() + "' is not supported");
-			}
+	private CompletionStage<Long> generate(String[] args) throws IOException {
+		logger.info("Starting generation");
+
+		Path folder = Paths.get((0 < args.length)? args[0] : config.getString("importer.folder"));
+		Files.createDirectories(folder);
+
+		// the files take the splits in order, so every file gets the same random on every run whatever the order they are written
+		SplittableRandom random = new SplittableRandom(seed);
+		List<Rows> files = new ArrayList<>(numberOfFiles);
+		for (int i = 0; i < numberOfFiles; i++) {
+			files.add(new Rows(random.split(), invalidLineProbability, maxTextLength, columns, i, numberOfFiles));
 		}
-		return value;
+
+		Materializer materializer = ActorMaterializer.create(system);
+		long time = System.nanoTime();
+		return Source.range(0, numberOfFiles - 1)
+				.mapAsyncUnordered(parallelism, i -> Source.fromIterator(() -> files.get(i).chunks(numberOfRecords, fileSize, chunkSize))
+						.runWith(FileIO.toPath(folder.resolve(String.format("part-%05d.csv", i))), materializer))
+				.runFold(0L, (size, r) -> {
+					if (!r.wasSuccessful()) {
+						throw new CompletionException(r.getError());
+					}
+					return size + r.count();
+				}, materializer)
+				.thenApply(size -> {
+					logger.info("Generation of {} files, {} bytes finished in {} ms", numberOfFiles, size,
+							TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time));
+					return size;
+				});
 	}
 
-	private String generateBy(int pos, Binding.Mapping<ByteString, ?> b) {
-		switch (b.fromName()) {
-			case "id":
-				return Integer.toString(pos);
-			case "col1":
-				int length = random.nextInt(100);
-				return IntStream.range(0, length)
-						.mapToObj(i -> textAlphabet[random.nextInt(textAlphabet.length)])
-						.collect(StringBuilder::new, StringBuilder::append, StringBuilder::append).toString();
-			case "col2":
-				int year = random.nextInt(10000);
-				int month = 1 + random.nextInt(12);
-				int dayOfMonth = 1 + random.nextInt(28);
-				return Binding.DATE.format(LocalDate.of(year, month, dayOfMonth));
-			case "col3":
-				length = 1 + random.nextInt(15);
-				return IntStream.range(0, length)
-						.mapToObj(i -> '0' + random.nextInt(10))
-						.collect(StringBuilder::new, StringBuilder::append, StringBuilder::append).toString();
-			case "col4":
-				return "" + random.nextInt();
-			default:
-				throw new UnsupportedOperationException("Field '" + b.fromName() + "' is not supported");
+	/**
+	 * Distribution of values of column: either every value drawn anew or one of the fixed number of distinct values, which are drawn
+	 * uniformly or by the Zipf law, where value of rank {@code k} is drawn with the probability proportional to {@code 1 / k^skew}.
+	 */
+	public static final class Column {
+
+		static final Column UNBOUNDED = new Column(0, 0);
+
+		private final long cardinality;
+
+		private final double skew;
+
+		/* the upper bound of integral of density, which the uniform random is scaled to */
+		private final double upper;
+
+		private Column(long cardinality, double skew) {
+			this.cardinality = cardinality;
+			this.skew = skew;
+			this.upper = integral(cardinality + 1);
+		}
+
+		/**
+		 * @param cardinality The number of distinct values, {@code 0} to draw every value anew
+		 * @param skew The exponent of Zipf law, {@code 0} to draw the values uniformly
+		 */
+		@SuppressWarnings("WeakerAccess")
+		public static Column of(long cardinality, double skew) {
+			if (0 > cardinality || 0 > skew) {
+				throw new IllegalArgumentException("Cardinality " + cardinality + " and skew " + skew + " are expected to be non negative");
+			}
+			return (0 == cardinality)? UNBOUNDED: new Column(cardinality, skew);
+		}
+
+		/**
+		 * Draws the value.
+		 * @return The index of value in order of decreasing probability or {@code -1} if the value is to be drawn anew
+		 */
+		long draw(SplittableRandom random) {
+			if (0 == cardinality) {
+				return -1;
+			}
+			if (0 == skew) {
+				return random.nextLong(cardinality);
+			}
+			// inversion of the continuous density, which rank is the integral part of
+			return Math.max(1, Math.min(cardinality, (long) inverse(random.nextDouble() * upper))) - 1;
+		}
+
+		private double integral(double x) {
+			return (1 == skew)? Math.log(x): (Math.pow(x, 1 - skew) - 1) / (1 - skew);
+		}
+
+		private double inverse(double y) {
+			return (1 == skew)? Math.exp(y): Math.pow(1 + y * (1 - skew), 1 / (1 - skew));
 		}
 	}
 
-	private Sink<Integer, CompletionStage<IOResult>> toTail(Path file) {
-		List<Binding.Mapping<ByteString, ?>> mappings = Binding.inMappings();
-		List<String> header = mappings.stream().map(Binding.Mapping::fromName).collect(Collectors.toList());
-		return Flow.of(Integer.class)
-				.map(i -> {
-					if (0 == i) {
-						return String.join(",", header) + "\n";
+	/**
+	 * Rows generator.
+	 * <p>
+	 * Generates rows by {@link Binding#inMappings() binding rules}, some cells are screwed with given probability to be rejected on import. Rows
+	 * are encoded into a byte buffer with no intermediate object per cell. The value of column of bounded {@link Column cardinality} is
+	 * generated by a random seeded by the index of value, so the same index gives the same value in every file. Ids of unbounded column are
+	 * unique across the files of the same generation: the row {@code n} of file {@code i} of {@code k} files gets id {@code (n - 1) * k + i + 1}.
+	 * The sequence of rows is reproducible for the same seed of random.
+	 */
+	public static class Rows {
+
+		private static final byte[] textAlphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".getBytes(StandardCharsets.US_ASCII);
+
+		private static final int ID = 0, TEXT = 1, DATE = 2, DECIMAL = 3, INT = 4;
+
+		/* salts the index of value, so columns of the same index get different values */
+		private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+		private final SplittableRandom random;
+
+		private final double invalidLineProbability;
+
+		private final int maxTextLength;
+
+		private final ByteString header;
+
+		private final int[] kinds;
+
+		private final Column[] columns;
+
+		private final int file;
+
+		private final int files;
+
+		private byte[] buffer = new byte[1024];
+
+		private int length;
+
+		/**
+		 * Constructs the generator of rows of a single file, values of every column are drawn anew.
+		 * @param random The source of randomness
+		 * @param invalidLineProbability The probability of cell to be invalid
+		 * @param maxTextLength The upper bound (exclusive) of text column length
+		 */
+		@SuppressWarnings("WeakerAccess")
+		public Rows(SplittableRandom random, double invalidLineProbability, int maxTextLength) {
+			this(random, invalidLineProbability, maxTextLength, Collections.emptyMap(), 0, 1);
+		}
+
+		/**
+		 * Constructs the generator of rows of the file {@code file} of {@code files}.
+		 * @param columns The distributions of columns by name, column not there is unbounded
+		 */
+		@SuppressWarnings("WeakerAccess")
+		public Rows(SplittableRandom random, double invalidLineProbability, int maxTextLength, Map<String, Column> columns, int file, int files) {
+			List<Binding.Mapping<ByteString, ?>> mappings = Binding.inMappings();
+			this.random = random;
+			this.invalidLineProbability = invalidLineProbability;
+			this.maxTextLength = maxTextLength;
+			this.header = ByteString.fromString(mappings.stream().map(Binding.Mapping::fromName).collect(Collectors.joining(",")) + "\n");
+			this.kinds = mappings.stream().mapToInt(b -> kindOf(b.fromName())).toArray();
+			this.columns = mappings.stream().map(b -> columns.getOrDefault(b.fromName(), Column.UNBOUNDED)).toArray(Column[]::new);
+			this.file = file;
+			this.files = files;
+		}
+
+		@SuppressWarnings("WeakerAccess")
+		public ByteString header() {
+			return header;
+		}
+
+		/**
+		 * @param pos The position of row in file, starting from {@code 1}
+		 * @return The row terminated by LF
+		 */
+		@SuppressWarnings("WeakerAccess")
+		public ByteString row(long pos) {
+			int start = length;
+			write(pos);
+			ByteString result = ByteString.fromArray(buffer, start, length - start);
+			length = start;
+			return result;
+		}
+
+		/**
+		 * Chunks of file: the header followed by the rows up to the number or the size of file given, whichever comes first. Every chunk is
+		 * of the size given or a bit larger, as it ends with the end of row, except the last one; chunk is passed on without copying.
+		 * @param rows The number of rows, {@code 0} for unbounded
+		 * @param size The size of file, the last row reaches it or a bit more; {@code 0} for unbounded
+		 * @param chunkSize The size of chunk
+		 */
+		@SuppressWarnings("WeakerAccess")
+		public Iterator<ByteString> chunks(long rows, long size, int chunkSize) {
+			return new Iterator<ByteString>() {
+
+				private long pos = 0;
+
+				private long written = 0;
+
+				private boolean done = false;
+
+				@Override
+				public boolean hasNext() {
+					return !done;
+				}
+
+				@Override
+				public ByteString next() {
+					if (done) {
+						throw new NoSuchElementException();
 					}
-					return mappings.stream()
-							.map(b -> screw(generateBy(i, b), b))
-							.collect(Collectors.joining(",")) + "\n";
-				})
-				.map(ByteString::fromString)
-				.toMat(FileIO.toPath(file), Keep.right());
-	}
+					if (0 == pos) {
+						put(header);
+						pos = 1;
+					}
+					while (length < chunkSize && !isOver()) {
+						write(pos++);
+					}
+					done = isOver();
+					written += length;
+					ByteString result = ByteString.fromArrayUnsafe(buffer, 0, length);
+					buffer = new byte[buffer.length];
+					length = 0;
+					return result;
+				}
 
-	private CompletionStage<Void> generate(String[] args) throws IOException {
-		logger.info("Starting generation");
+				private boolean isOver() {
+					return (0 < rows && rows < pos) || (0 < size && size <= written + length);
+				}
+			};
+		}
 
-		Path folder = Paths.get((0 < args.length)? args[0] : config.getString("importer.folder"));
-		Files.createDirectories(folder);
+		private void write(long pos) {
+			for (int i = 0; i < kinds.length; i++) {
+				if (0 < i) {
+					put((byte) ',');
+				}
+				long index = columns[i].draw(random);
+				SplittableRandom values = (0 > index)? random: new SplittableRandom((i + 1) * GOLDEN_GAMMA ^ index);
+				boolean screw = random.nextDouble() < invalidLineProbability;
+				switch (kinds[i]) {
+					case ID:
+						if (screw) {
+							put((byte) 'a');
+						}
+						putLong((0 > index)? (pos - 1) * files + file + 1: index + 1);
+						break;
+					case TEXT:
+						if (!screw) {
+							for (int n = values.nextInt(maxTextLength); 0 < n; n--) {
+								put(textAlphabet[values.nextInt(textAlphabet.length)]);
+							}
+						}
+						break;
+					case DATE:
+						if (screw) {
+							put((byte) 'a');
+							put((byte) '-');
+						}
+						int year = values.nextInt(10000), month = 1 + values.nextInt(12), dayOfMonth = 1 + values.nextInt(28);
+						putLong(dayOfMonth);
+						put((byte) '/');
+						putLong(month);
+						put((byte) '/');
+						for (int pad = year, width = 1; 1000 > pad && 4 > width; pad *= 10, width++) {
+							put((byte) '0');
+						}
+						putLong(year);
+						break;
+					case DECIMAL:
+						if (screw) {
+							put((byte) 'a');
+						}
+						for (int n = 1 + values.nextInt(15); 0 < n; n--) {
+							put((byte) ('0' + values.nextInt(10)));
+						}
+						break;
+					case INT:
+						if (screw) {
+							put((byte) 'e');
+							putLong(random.nextInt());
+						} else {
+							putLong(values.nextInt());
+						}
+						break;
+					default:
+						throw new IllegalStateException("Unknown kind of column " + kinds[i]);
+				}
+			}
+			put((byte) '\n');
+		}
 
-		List<Sink<Integer, CompletionStage<IOResult>>> tails = IntStream.range(0, numberOfFiles)
-				.mapToObj(i -> UUID.randomUUID().toString() + ".csv")
-				.map(f -> toTail(folder.resolve(f))).collect(Collectors.toList());
+		private static int kindOf(String name) {
+			switch (name) {
+				case "id":
+					return ID;
+				case "col1":
+					return TEXT;
+				case "col2":
+					return DATE;
+				case "col3":
+					return DECIMAL;
+				case "col4":
+					return INT;
+				default:
+					throw new UnsupportedOperationException("Field '" + name + "' is not supported");
+			}
+		}
 
-		List<CompletionStage<IOResult>> result = Source.range(0, numberOfRecords)
-				.runWith(sinkTo(tails), ActorMaterializer.create(system));
+		private void put(byte value) {
+			if (length == buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length << 1);
+			}
+			buffer[length++] = value;
+		}
 
-		return CompletableFuture.allOf(result.stream()
-				.map(CompletionStage::toCompletableFuture)
-				.toArray(CompletableFuture[]::new))
-				.thenAccept(d -> {
-					logger.info("Generation finished");
-					system.terminate();
-				});
+		private void put(ByteString value) {
+			for (int i = 0; i < value.size(); i++) {
+				put(value.apply(i));
+			}
+		}
+
+		/* the same as Long.toString(value), digits are written from the last one */
+		private void putLong(long value) {
+			if (0 > value) {
+				put((byte) '-');
+			}
+			int digits = 1;
+			for (long v = value / 10; 0 != v; v /= 10) {
+				digits++;
+			}
+			if (buffer.length < length + digits) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, length + digits));
+			}
+			long v = value;
+			for (int i = length + digits - 1; i >= length; i--, v /= 10) {
+				buffer[i] = (byte) ('0' + Math.abs(v % 10));
+			}
+			length += digits;
+		}
 	}
 }
@@ -1,9 +1,18 @@
 package org.kot.test.etl.akka.stream;
 
+import akka.Done;
 import akka.NotUsed;
 import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.japi.Pair;
+import akka.stream.ActorAttributes;
 import akka.stream.ActorMaterializer;
+import akka.stream.ActorMaterializerSettings;
+import akka.stream.FlowShape;
+import akka.stream.Graph;
 import akka.stream.IOResult;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
 import akka.stream.javadsl.FileIO;
 import akka.stream.javadsl.Flow;
 import akka.stream.javadsl.Keep;
@@ -16,18 +25,31 @@ import com.typesafe.config.ConfigFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.FileSystems;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
 
 /**
  * CSV Importer.
@@ -38,79 +60,656 @@ public class CSVImport implements Grapher {
 
 	private static final Logger logger = LoggerFactory.getLogger(CSVImport.class);
 
+	/** The same as default chunk size of {@link StreamConverters#fromInputStream} */
+	private static final int CHUNK_SIZE = 8192;
+
+	private static final String DECOMPRESSION_DISPATCHER = "importer.decompression.dispatcher";
+
 	private final ActorSystem system;
 
-	private final Path importDirectory;
+	private final ImportSettings settings;
+
+	private final Executor decompressionExecutor;
 
-	private final int concurrentFiles;
+	private final CSVSplitter splitter = new CSVSplitter(',', '"', '\\');
 
-	private final Path errorDirectory;
+	private final Materializer materializer;
 
-	private final Path outDirectory;
+	private final Metrics metrics;
 
-	private final String filePattern;
+	private final Executor blockingExecutor;
 
 	private CSVImport(Config config, ActorSystem system) {
 		this.system = system;
-		this.importDirectory = Paths.get(config.getString("importer.folder"));
-		this.filePattern = config.getString("importer.file-pattern");
-		this.errorDirectory = Paths.get(config.getString("importer.folder-failed"));
-		this.outDirectory = Paths.get(config.getString("importer.folder-processed"));
-		this.concurrentFiles = config.getInt("importer.concurrency");
+		this.settings = ImportSettings.of(config);
+		this.decompressionExecutor = system.dispatchers().lookup(DECOMPRESSION_DISPATCHER);
+		this.materializer = ActorMaterializer.create(ActorMaterializerSettings.create(system).withDispatcher(settings.cpuDispatcher), system);
+		this.metrics = settings.metering? Metrics.enabled(settings.histograms): Metrics.disabled();
+		this.blockingExecutor = system.dispatchers().lookup(settings.ioDispatcher);
 	}
 
-	private Flow<Path, Map<String, ?>, NotUsed> parseFile() {
-		List<Binding.Mapping<ByteString, ?>> mappings = Binding.inMappings();
+	/**
+	 * Workers taking files at once: the fixed number of them or the number adjusted at runtime by their throughput and backpressure, starting
+	 * from the configured concurrency.
+	 * @param rows The number of rows in element the worker passes
+	 */
+	private <E> Graph<FlowShape<Path, E>, ?> workers(Flow<Path, E, NotUsed> worker, ToLongFunction<E> rows) {
+		if (!settings.adaptiveConcurrency) {
+			return balance(settings.concurrentFiles, worker);
+		}
+		Config concurrencyLimit = settings.concurrencyLimit;
+		ConcurrencyLimit limit = ConcurrencyLimit.of(settings.concurrentFiles, concurrencyLimit.getInt("min"), concurrencyLimit.getInt("max"),
+				concurrencyLimit.getDuration("interval"), concurrencyLimit.getDouble("backpressure-threshold"),
+				concurrencyLimit.getDouble("idle-threshold"), concurrencyLimit.getDouble("min-gain"));
+		return balance(limit, worker, rows);
+	}
+
+	/**
+	 * @param dedup Deduplication of the records of file, which takes them in order of the file
+	 */
+	private <T> Flow<Path, T, NotUsed> parseFile(CSV2JavaStage<T> binding, Function<Path, UnaryOperator<T>> dedup) {
+		Flow<ByteString, T, NotUsed> parseAndBind = parseAndBind(binding);
+		return Flow.of(Path.class)
+				.flatMapConcat(file -> metrics.file(parseRanges(file, range -> range.via(parseAndBind)).map(dedup.apply(file)::apply)));
+	}
+
+	/**
+	 * Parsing and binding of file content, either by the stages of their own or by the fused one, which is metered as binding only.
+	 */
+	private <T> Flow<ByteString, T, NotUsed> parseAndBind(CSV2JavaStage<T> binding) {
+		CSVParsingStage parsing = settings.parsing(',', '"', '\\', 10240);
+		Flow<ByteString, ByteString, NotUsed> readMeter = metrics.meter("read", c -> 0, ByteString::size);
+		if (settings.fusedBinding) {
+			return boundary(readMeter.via(metrics.meter("binding", parsing.bind(binding), r -> 1, r -> 0)), "bind");
+		}
+		return boundary(readMeter.via(metrics.meter("parsing", parsing, r -> 1, CSVImport::size)), "parse")
+				.via(boundary(metrics.meter("binding", binding, r -> 1, r -> 0), "bind"));
+	}
+
+	private <T> Flow<Path, List<T>, NotUsed> parseFileInBatches(CSV2JavaStage<T> binding, Function<Path, UnaryOperator<T>> dedup) {
+		CSVBatchParsingStage parsing = settings.parsing(',', '"', '\\', 10240).batched(settings.batchSize, settings.flushAfter);
+		Flow<ByteString, ByteString, NotUsed> readMeter = metrics.meter("read", c -> 0, ByteString::size);
+		Flow<ByteString, List<List<ByteString>>, NotUsed> parse = boundary(readMeter.via(metrics.meter("parsing", parsing, List::size,
+				b -> b.stream().mapToLong(CSVImport::size).sum())), "parse");
+		Flow<List<List<ByteString>>, List<T>, NotUsed> bind = boundary(metrics.meter("binding", binding.batched(), List::size, b -> 0), "bind");
 		return Flow.of(Path.class)
 				.flatMapConcat(file -> {
-					InputStream inputStream = Files.newInputStream(file);
-					return StreamConverters.fromInputStream(() -> inputStream)
-							.via(CSVParsingStage.parse(',', '"', '\\', 10240))
-							.via(CSV2JavaStage.toMappings(mappings));
+					UnaryOperator<T> deduplication = dedup.apply(file);
+					return metrics.file(parseRanges(file, range -> range
+							.via(parse)
+							.via(bind))
+							.map(b -> {
+								b.replaceAll(deduplication);
+								return b;
+							}));
 				});
 	}
 
+	/**
+	 * The first pass of {@link Deduplication#LAST_WINS last-wins} deduplication, which parses and binds the files the same way the import does,
+	 * but passes the records to the index of deduplication only, with no metering.
+	 * @param files The files in order of their indexes
+	 */
+	private <T> CompletionStage<Done> index(List<Path> files, CSV2JavaStage<T> binding, Deduplication<T> dedup) {
+		Flow<ByteString, T, NotUsed> parseAndBind = boundary(Flow.fromGraph(settings.parsing(',', '"', '\\', 10240)), "parse")
+				.via(boundary(Flow.fromGraph(binding), "bind"));
+		long time = System.nanoTime();
+		return Source.range(0, files.size() - 1)
+				.flatMapMerge(settings.concurrentFiles, file -> parseRanges(files.get(file), range -> range.via(parseAndBind))
+						.map(dedup.index(file)::apply))
+				.runWith(Sink.ignore(), materializer)
+				.whenComplete((d, e) -> logger.info("Indexed {} ids of {} files in {} ms", dedup.size(), files.size(),
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time)));
+	}
+
+	/**
+	 * Parses the file by ranges concurrently, if splitting is enabled and file is larger than a range. Every range but the first one is prepended
+	 * with the first line of the file, so the header is detected in every range the same way it is in the whole file. Compressed file is never
+	 * split. In order the ranges ahead are started at once and parse into bounded buffers of their own, while their rows are passed on range by
+	 * range.
+	 * <p>
+	 * The layout of file and the cuts of ranges are read on the I/O dispatcher, as a cut is found by reading the range before it.
+	 */
+	private <E> Source<E, NotUsed> parseRanges(Path file, Function<Source<ByteString, ?>, Source<E, ?>> parse) {
+		return Source.fromCompletionStage(layout(file, settings.splitting? settings.rangeSize: Long.MAX_VALUE))
+				.flatMapConcat(layout -> parseRanges(file, layout, parse));
+	}
+
+	private <E> Source<E, ?> parseRanges(Path file, Layout layout, Function<Source<ByteString, ?>, Source<E, ?>> parse) throws IOException {
+		if (null == layout.header) {
+			return parse.apply(read(file, layout.compressed));
+		}
+		Source<Source<ByteString, ?>, NotUsed> ranges = Source.fromIterator(() -> splitter.split(file, settings.rangeSize))
+				.async(settings.ioDispatcher)
+				.map(r -> readRange(file, r, layout.header));
+		if (settings.orderedRanges) {
+			return ranges
+					.map(r -> parse.apply(r)
+							.buffer(settings.rangeBuffer, OverflowStrategy.backpressure())
+							.preMaterialize(materializer)
+							.second())
+					.buffer(Math.max(1, settings.rangeParallelism - 1), OverflowStrategy.backpressure())
+					.flatMapConcat(r -> r);
+		}
+		return ranges.flatMapMerge(settings.rangeParallelism, r -> parse.apply(r).async());
+	}
+
+	/**
+	 * Reads the size, compression and, if it is to be split, the header of file on the blocking executor.
+	 * @param splitAbove The size of uncompressed file it is split above, so its header is read
+	 */
+	private CompletionStage<Layout> layout(Path file, long splitAbove) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				long size = Files.size(file);
+				boolean compressed = GzipFlow.isCompressed(file);
+				return new Layout(size, compressed, (!compressed && splitAbove < size)? splitter.header(file): null);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, blockingExecutor);
+	}
+
+	private Source<ByteString, ?> readRange(Path file, CSVSplitter.Range range, ByteString header) {
+		Source<ByteString, NotUsed> result = reading(MappedFileSource.of(file, range.from(), range.to(), settings.mappedWindowSize,
+				CHUNK_SIZE));
+		return (0 == range.from())? result: Source.single(header).concat(result);
+	}
+
+	/**
+	 * Source of file content, gzip file is inflated on its own dispatcher behind an asynchronous boundary, so the parsing is never held by it.
+	 */
+	private Source<ByteString, ?> read(Path file, boolean compressed) throws IOException {
+		if (!compressed) {
+			return readFile(file);
+		}
+		return readFile(file)
+				.via(GzipFlow.decompress(file, settings.decompressionParallelism, decompressionExecutor))
+				.async(DECOMPRESSION_DISPATCHER);
+	}
+
+	private Source<ByteString, ?> readFile(Path file) throws IOException {
+		switch (settings.source) {
+			case "stream":
+				InputStream inputStream = Files.newInputStream(file);
+				return reading(StreamConverters.fromInputStream(() -> inputStream)
+						.withAttributes(ActorAttributes.dispatcher(settings.ioDispatcher)));
+			case "mapped":
+				return reading(MappedFileSource.of(file, settings.mappedWindowSize, CHUNK_SIZE));
+			default:
+				throw new IllegalArgumentException("Unknown source type '" + settings.source + "'");
+		}
+	}
+
 	private CompletionStage<IOResult> importFromFiles() throws IOException {
-		Files.createDirectories(outDirectory);
-		Files.createDirectories(errorDirectory);
+		switch (settings.record) {
+			case "map":
+				Predicate<Map<String, ?>> failed = m -> m.containsKey("failures");
+				return importFromFiles(CSV2JavaStage.toMappings(Binding.inMappings()), failed, m -> m.get("id"),
+						settings.deduplication(m -> ((Number) m.get("id")).longValue(), failed, CSV2JavaStage::fail),
+						Java2CSVStage.toMapping(Binding.outMappings()), Java2CSVStage.toMapping(Binding.errorMappings()),
+						file -> ParquetSink.toMapping(file, Binding.inMappings()));
+			case "row":
+				Row.Schema schema = Row.Schema.of(Binding.inMappings());
+				int id = schema.indexOf("id");
+				return importFromFiles(CSV2JavaStage.toRows(Binding.inMappings()), Row::isFailed, r -> r.get(id),
+						settings.deduplication(r -> r.getLong(id), Row::isFailed, Row::fail),
+						Java2CSVStage.toMapping(schema, Binding.outMappings()), Java2CSVStage.toMapping(schema, Binding.errorMappings()),
+						file -> ParquetSink.toMapping(file, schema, Binding.inMappings()));
+			default:
+				throw new IllegalArgumentException("Unknown record type '" + settings.record + "'");
+		}
+	}
+
+	/**
+	 * Imports the files routing every record once: the failed ones to the error file, the others to one of output files by hash of the key.
+	 * Duplicates are failed right after binding, so they are routed to the error file and counted as failed; last-wins deduplication indexes
+	 * all the files before the import. Output files are either CSV or Parquet ones of the typed values, the error file is always CSV of the raw
+	 * cells.
+	 * @param dedup Deduplication of records or {@code null}, if it is disabled
+	 */
+	private <T> CompletionStage<IOResult> importFromFiles(CSV2JavaStage<T> binding, Predicate<T> failed, Function<T, ?> key,
+	                                                      Deduplication<T> dedup, Java2CSVStage<T> out, Java2CSVStage<T> err,
+	                                                      Function<Path, ParquetSink<T>> parquet) throws IOException {
+		ToIntFunction<T> route = Grapher.byFailure(failed, Grapher.byHash(key, settings.outputFiles));
+		if (settings.checkpointing) {
+			if (settings.parquetOutput) {
+				throw new IllegalArgumentException("Parquet output can't be resumed from journal, as it is not appendable");
+			}
+			if (settings.deduplicating) {
+				throw new IllegalArgumentException("Deduplication can't be resumed from journal, as the ids seen are not journaled");
+			}
+			return importWithJournal(binding, route, out, err);
+		}
+		if (null == dedup) {
+			return importFromFiles(files(), binding, failed, file -> UnaryOperator.identity(), route, out, err, parquet);
+		}
+		if (!dedup.isIndexing()) {
+			return importFromFiles(files(), binding, failed, file -> dedup.of(0), route, out, err, parquet);
+		}
+		if (settings.watching) {
+			throw new IllegalArgumentException("Deduplication policy '" + settings.deduplicationPolicy + "' needs the whole input before the first "
+					+ "record is written, which watch mode never has");
+		}
+		if (settings.splitting && !settings.orderedRanges) {
+			throw new IllegalArgumentException("Deduplication policy '" + settings.deduplicationPolicy + "' needs the records of file in order, "
+					+ "which ranges split out of order do not give");
+		}
+		List<Path> files = listFiles();
+		Map<Path, Integer> indexes = new HashMap<>();
+		for (int i = 0; i < files.size(); i++) {
+			indexes.put(files.get(i), i);
+		}
+		return index(files, binding, dedup)
+				.thenCompose(d -> importFromFiles(Source.from(files), binding, failed, file -> dedup.of(indexes.get(file)), route, out, err,
+						parquet));
+	}
+
+	/**
+	 * Imports the files deduplicated by the operators of their own.
+	 */
+	private <T> CompletionStage<IOResult> importFromFiles(Source<Path, NotUsed> files, CSV2JavaStage<T> binding, Predicate<T> failed,
+	                                                      Function<Path, UnaryOperator<T>> dedup, ToIntFunction<T> route, Java2CSVStage<T> out,
+	                                                      Java2CSVStage<T> err, Function<Path, ParquetSink<T>> parquet) {
+		out = out.inBlocksOf(settings.compressOutput? settings.outputCompressionBlockSize: settings.outputBlockSize);
+		err = err.inBlocksOf(settings.compressErrors? settings.errorCompressionBlockSize: settings.outputBlockSize);
+		if (settings.batching) {
+			List<Sink<List<T>, CompletionStage<IOResult>>> sinks = new ArrayList<>();
+			for (int t = 0; t <= settings.outputFiles; t++) {
+				sinks.add(batchTail(t, out, err, parquet));
+			}
+			return importFromFiles(files, parseFileInBatches(binding, dedup)
+							.via(metrics.bound(List::size, b -> b.stream().filter(failed).count()))
+							.mapConcat(b -> Grapher.split(b, route, settings.outputFiles + 1)),
+					List::size, b -> route.applyAsInt(b.get(0)), sinks);
+		}
+		List<Sink<T, CompletionStage<IOResult>>> sinks = new ArrayList<>();
+		for (int t = 0; t <= settings.outputFiles; t++) {
+			sinks.add(tail(t, out, err, parquet));
+		}
+		return importFromFiles(files, parseFile(binding, dedup).via(metrics.bound(r -> 1, r -> failed.test(r)? 1: 0)), r -> 1, route, sinks);
+	}
+
+	/**
+	 * Sink of records routed to the tail, the tail {@code 0} writes the error file, the others write output files.
+	 */
+	private <T> Sink<T, CompletionStage<IOResult>> tail(int tail, Java2CSVStage<T> out, Java2CSVStage<T> err,
+	                                                    Function<Path, ParquetSink<T>> parquet) {
+		String kind = (0 == tail)? "err": "out";
+		Path file = settings.output(tail, settings.outputFiles + 1);
+		if (0 != tail && settings.parquetOutput) {
+			return Flow.<T>create()
+					.via(metrics.meter("routed-" + kind, r -> 1, r -> 0))
+					.toMat(parquet(parquet.apply(file)), Keep.right());
+		}
+		Java2CSVStage<T> serialization = (0 == tail)? err: out;
+		return Flow.<T>create()
+				.via(metrics.meter("routed-" + kind, r -> 1, r -> 0))
+				.via(boundary(metrics.meter("serialization-" + kind, serialization, c -> 0, ByteString::size), "serialize"))
+				.via(compression(0 != tail))
+				.toMat(write(file), Keep.right());
+	}
+
+	/**
+	 * Sink of batches routed to the tail, the same as {@link #tail(int, Java2CSVStage, Java2CSVStage, Function) the one of records}.
+	 */
+	private <T> Sink<List<T>, CompletionStage<IOResult>> batchTail(int tail, Java2CSVStage<T> out, Java2CSVStage<T> err,
+	                                                               Function<Path, ParquetSink<T>> parquet) {
+		String kind = (0 == tail)? "err": "out";
+		Path file = settings.output(tail, settings.outputFiles + 1);
+		if (0 != tail && settings.parquetOutput) {
+			return Flow.<List<T>>create()
+					.via(metrics.meter("routed-" + kind, List::size, b -> 0))
+					.mapConcat(b -> b)
+					.toMat(parquet(parquet.apply(file)), Keep.right());
+		}
+		Java2CSVStage<T> serialization = (0 == tail)? err: out;
+		return Flow.<List<T>>create()
+				.via(metrics.meter("routed-" + kind, List::size, b -> 0))
+				.via(boundary(metrics.meter("serialization-" + kind, serialization.batched(), c -> 0, ByteString::size), "serialize"))
+				.via(compression(0 != tail))
+				.toMat(write(file), Keep.right());
+	}
+
+	/**
+	 * @param rows The number of rows in element
+	 * @param route The index of sink for element, the sink {@code 0} writes the error file, the others write output files
+	 */
+	private <E> CompletionStage<IOResult> importFromFiles(Source<Path, NotUsed> files, Flow<Path, E, NotUsed> parseFile, ToLongFunction<E> rows,
+	                                                      ToIntFunction<E> route, List<Sink<E, CompletionStage<IOResult>>> sinks) {
+		long time = System.nanoTime();
 
-		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + filePattern);
-		List<Path> files = Files.list(importDirectory)
-				.filter(matcher::matches)
-				.collect(Collectors.toList());
-		logger.info("Starting import of {} files from {}", files.size(), importDirectory);
+		Cancellable reporter = reportMetrics();
+		return combine(files
+				.via(workers(parseFile, rows))
+				.runWith(routeTo(route, settings.outputBuffer, sinks), materializer))
+				.whenComplete(finished(time, reporter));
+	}
 
+	/**
+	 * Imports the files the same way, but by units committed to the journal, so the import may be resumed. Unit is a range of file or a group
+	 * of rows of compressed one, which is collected completely, routed and then appended to every output file. Once the unit is written to all of them, it is committed along with
+	 * the sizes of output files. Every output file is written in order of units, so the units committed are always a prefix of every output
+	 * file. Files done are skipped and the others are resumed from the end of their last unit committed; batching does not apply here, unit is
+	 * the batch. Units are committed one by one on the blocking executor, as every commit syncs the output files and stores the journal.
+	 */
+	private <T> CompletionStage<IOResult> importWithJournal(CSV2JavaStage<T> binding, ToIntFunction<T> route,
+	                                                        Java2CSVStage<T> out, Java2CSVStage<T> err) throws IOException {
+		out = out.inBlocksOf(settings.compressOutput? settings.outputCompressionBlockSize: settings.outputBlockSize);
+		err = err.inBlocksOf(settings.compressErrors? settings.errorCompressionBlockSize: settings.outputBlockSize);
+		Source<Path, NotUsed> files = files();
 		long time = System.nanoTime();
 
-		Sink<Map<String, ?>, CompletionStage<IOResult>> outSink = Flow.<Map<String, ?>>create()
-				.filter(m -> !m.containsKey("failures"))
-				.via(Java2CSVStage.toMapping(Binding.outMappings()))
-				.toMat(FileIO.toPath(outDirectory.resolve("success.csv")), Keep.right());
-
-		Sink<Map<String, ?>, CompletionStage<IOResult>> errSink = Flow.<Map<String, ?>>create()
-				.filter(m -> m.containsKey("failures"))
-				.via(Java2CSVStage.toMapping(Binding.errorMappings()))
-				.toMat(FileIO.toPath(errorDirectory.resolve("error.csv")), Keep.right());
-
-		return Source.from(files)
-				.via(balance(concurrentFiles, parseFile()))
-				.runWith(sinkTo(outSink, errSink), ActorMaterializer.create(system))
-				.whenComplete((d, e) -> {
-					if (d != null) {
-						logger.info("Import finished in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time));
-					} else {
-						logger.error("Import failed", e);
+		Journal journal = Journal.open(settings.journalFile, settings.journalInterval);
+		Journal.Output[] outputs = new Journal.Output[settings.outputFiles + 1];
+		List<Flow<Unit<T>, Unit<T>, NotUsed>> tails = new ArrayList<>();
+		try {
+			for (int t = 0; t < outputs.length; t++) {
+				outputs[t] = journal.output(settings.output(t, outputs.length));
+				tails.add(append(t, outputs[t], (0 == t)? err: out, 0 != t));
+			}
+		} catch (IOException e) {
+			journal.close();
+			throw e;
+		}
+
+		Cancellable reporter = reportMetrics();
+		return files
+				.filter(file -> !journal.progress(file).isDone())
+				.via(workers(units(binding, route, journal), unit -> unit.rows))
+				.runWith(broadcastTo(tails, settings.outputBuffer, Flow.<Unit<T>>create()
+						.filter(Unit::written)
+						.mapAsync(1, unit -> CompletableFuture.supplyAsync(() -> {
+							try {
+								journal.commit(unit.file, unit.end, unit.rows, unit.last, outputs, unit.sizes);
+								return unit;
+							} catch (IOException e) {
+								throw new UncheckedIOException(e);
+							}
+						}, blockingExecutor))
+						.toMat(Sink.ignore(), Keep.right())), materializer)
+				.handle((done, e) -> {
+					long count = Arrays.stream(outputs).mapToLong(Journal.Output::size).sum();
+					try {
+						journal.close();
+					} catch (IOException x) {
+						e = (null != e)? e: x;
 					}
-				});
+					if (null != e) {
+						throw new CompletionException(e);
+					}
+					return IOResult.createSuccessful(count);
+				})
+				.whenComplete(finished(time, reporter));
 	}
 
-	public static void main(String[] args) throws IOException {
-		Config config = ConfigFactory.load();
-		ActorSystem system = ActorSystem.create();
+	/**
+	 * Units of files, which records are partitioned by the route. Unit of plain file is a range of {@code importer.checkpoint.unit-size}
+	 * parsed and bound completely, ranges are parsed concurrently. Compressed file can't be read from an offset, so it is parsed as a whole and
+	 * its units are the groups of {@code importer.checkpoint.unit-rows} records, it is resumed by skipping the records of units committed; the
+	 * file is done by an empty unit following the last group.
+	 */
+	private <T> Flow<Path, Unit<T>, NotUsed> units(CSV2JavaStage<T> binding, ToIntFunction<T> route, Journal journal) {
+		Flow<ByteString, T, NotUsed> parseAndBind = parseAndBind(binding);
+		return Flow.of(Path.class)
+				.flatMapConcat(file -> metrics.file(Source.fromCompletionStage(layout(file, 0))
+						.flatMapConcat(layout -> units(file, layout, parseAndBind, route, journal.progress(file)))))
+				.via(metrics.bound(u -> u.rows, u -> u.parts.get(0).size()));
+	}
+
+	private <T> Source<Unit<T>, ?> units(Path file, Layout layout, Flow<ByteString, T, NotUsed> parseAndBind, ToIntFunction<T> route,
+	                                    Journal.Progress progress) throws IOException {
+		int routes = settings.outputFiles + 1;
+		if (layout.compressed) {
+			return read(file, true)
+					.via(parseAndBind)
+					.drop(progress.rows())
+					.grouped(settings.unitRows)
+					.map(records -> new Unit<>(file, 0, false, Grapher.partition(records, route, routes)))
+					.concat(Source.lazily(() -> Source.single(
+							new Unit<>(file, 0, true, Grapher.partition(Collections.<T>emptyList(), route, routes)))));
+		}
+		return Source.fromIterator(() -> splitter.split(file, progress.end(), settings.unitSize))
+				.async(settings.ioDispatcher)
+				.mapAsync(settings.rangeParallelism, range -> ((0 == range.from() && layout.size == range.to())?
+						read(file, false): readRange(file, range, layout.header))
+						.via(parseAndBind)
+						.runWith(Sink.seq(), materializer)
+						.thenApply(records -> new Unit<>(file, range.to(), layout.size <= range.to(), Grapher.partition(records, route, routes))));
+	}
 
-		new CSVImport(config, system)
-				.importFromFiles()
-				.thenAccept(d -> system.terminate());
+	/**
+	 * Flow appending the part of every unit to the output, unit is passed on once it is written.
+	 */
+	private <T> Flow<Unit<T>, Unit<T>, NotUsed> append(int tail, Journal.Output output, Java2CSVStage<T> serialization, boolean isOutput) {
+		boolean compress = isOutput? settings.compressOutput: settings.compressErrors;
+		int level = isOutput? settings.outputCompressionLevel: settings.errorCompressionLevel;
+		return Flow.<Unit<T>>create()
+				.map(unit -> {
+					List<T> part = unit.parts.get(tail);
+					return Pair.create(unit, serialization.toLines(part, output.header(!part.isEmpty())));
+				})
+				.mapAsync(compress? settings.compressionParallelism: 1, p -> (compress && p.second().nonEmpty())?
+						CompletableFuture.supplyAsync(() -> Pair.create(p.first(), GzipFlow.member(p.second(), level)), ForkJoinPool.commonPool()):
+						CompletableFuture.completedFuture(p))
+				.mapAsync(1, p -> CompletableFuture.supplyAsync(() -> {
+					try {
+						p.first().sizes[tail] = output.append(p.second());
+						return p.first();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}, blockingExecutor));
+	}
+
+	/**
+	 * Files to import: the ones in the import directory or, if it is watched, the ones arriving there endlessly, so the graph is materialized
+	 * once and is kept warm between arrivals.
+	 */
+	private Source<Path, NotUsed> files() throws IOException {
+		if (settings.watching) {
+			Files.createDirectories(settings.outDirectory);
+			Files.createDirectories(settings.errorDirectory);
+			logger.info("Starting import of files arriving into {}", settings.importDirectory);
+			return Source.fromGraph(DirectoryWatchSource.of(settings.importDirectory, settings.filePattern, settings.watchMarker,
+					settings.stableAfter, settings.pollInterval, settings.rescanInterval))
+					.async(settings.ioDispatcher);
+		}
+		return Source.from(listFiles());
+	}
+
+	private List<Path> listFiles() throws IOException {
+		List<Path> result = settings.files();
+		logger.info("Starting import of {} files from {}", result.size(), settings.importDirectory);
+		return result;
+	}
+
+	private <R> BiConsumer<R, Throwable> finished(long time, Cancellable reporter) {
+		return (d, e) -> {
+			if (null != reporter) {
+				reporter.cancel();
+				logger.info(metrics.report());
+				try {
+					metrics.unregister();
+				} catch (JMException x) {
+					logger.warn("Failed to unregister metrics MBeans", x);
+				}
+			}
+			if (d != null) {
+				logger.info("Import finished in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time));
+			} else {
+				logger.error("Import failed", e);
+			}
+		};
+	}
+
+	/**
+	 * Parquet output of the configured layout on the I/O dispatcher.
+	 */
+	private <T> Sink<T, CompletionStage<IOResult>> parquet(ParquetSink<T> sink) {
+		return Sink.fromGraph(sink
+				.withLayout(settings.rowGroupSize, settings.pageSize, settings.dictionaryPageSize)
+				.compressedBy(settings.parquetCodec)
+				.withDecimalScale(settings.decimalScale, settings.decimalRounding))
+				.async(settings.ioDispatcher);
+	}
+
+	/**
+	 * File output on the I/O dispatcher.
+	 */
+	private Sink<ByteString, CompletionStage<IOResult>> write(Path file) {
+		return FileIO.toPath(file).withAttributes(ActorAttributes.dispatcher(settings.ioDispatcher));
+	}
+
+	/**
+	 * Puts file reading behind an asynchronous boundary on the I/O dispatcher, if it is configured by the buffer size of {@code read} point.
+	 */
+	private <M> Source<ByteString, M> reading(Source<ByteString, M> source) {
+		int size = settings.boundaries.getInt("read");
+		return (0 < size)? source.async(settings.ioDispatcher, size): source;
+	}
+
+	/**
+	 * Puts the stages of point behind an asynchronous boundary on the CPU dispatcher, if it is configured by the buffer size of the point, then
+	 * they run concurrently with the next ones.
+	 */
+	private <I, O, M> Flow<I, O, M> boundary(Flow<I, O, M> stages, String point) {
+		int size = settings.boundaries.getInt(point);
+		return (0 < size)? stages.async(settings.cpuDispatcher, size): stages;
+	}
+
+	/**
+	 * Compression of serialized blocks on the common pool, which is out of the dispatcher running the streams.
+	 */
+	private Flow<ByteString, ByteString, NotUsed> compression(boolean output) {
+		if (output? !settings.compressOutput: !settings.compressErrors) {
+			return Flow.create();
+		}
+		String kind = output? "out": "err";
+		int level = output? settings.outputCompressionLevel: settings.errorCompressionLevel;
+		return metrics.meter("compression-" + kind, GzipFlow.compress(level, settings.compressionParallelism, ForkJoinPool.commonPool()), c -> 0,
+				ByteString::size);
+	}
+
+	/* sums up the counts of files written, the result is failed if any of them is */
+	private static CompletionStage<IOResult> combine(List<CompletionStage<IOResult>> results) {
+		CompletionStage<IOResult> result = CompletableFuture.completedFuture(IOResult.createSuccessful(0));
+		for (CompletionStage<IOResult> next : results) {
+			result = result.thenCombine(next, (a, b) -> {
+				long count = a.count() + b.count();
+				if (!a.wasSuccessful()) {
+					return IOResult.createFailed(count, a.getError());
+				}
+				return b.wasSuccessful()? IOResult.createSuccessful(count): IOResult.createFailed(count, b.getError());
+			});
+		}
+		return result;
+	}
+
+	private Cancellable reportMetrics() {
+		if (!metrics.isEnabled()) {
+			return null;
+		}
+		try {
+			metrics.register();
+		} catch (JMException e) {
+			logger.warn("Failed to register metrics MBeans", e);
+		}
+		return metrics.schedule(system, settings.metricsInterval, logger);
+	}
+
+	private static long size(List<ByteString> row) {
+		long result = 0;
+		for (ByteString cell : row) {
+			result += (null == cell)? 0: cell.size();
+		}
+		return result;
+	}
+
+	/**
+	 * Layout of file read before it is parsed.
+	 */
+	private static final class Layout {
+
+		private final long size;
+
+		private final boolean compressed;
+
+		/* the first line prepended to the ranges, null if file is not split */
+		private final ByteString header;
+
+		Layout(long size, boolean compressed, ByteString header) {
+			this.size = size;
+			this.compressed = compressed;
+			this.header = header;
+		}
+	}
+
+	/**
+	 * Range of file or group of rows bound and partitioned by the route, which is committed once all the parts are written.
+	 */
+	private static final class Unit<T> {
+
+		private final Path file;
+
+		private final long end;
+
+		private final boolean last;
+
+		private final List<List<T>> parts;
+
+		private final long rows;
+
+		private final long[] sizes;
+
+		/* touched by the commit only */
+		private int pending;
+
+		Unit(Path file, long end, boolean last, List<List<T>> parts) {
+			this.file = file;
+			this.end = end;
+			this.last = last;
+			this.parts = parts;
+			this.rows = parts.stream().mapToLong(List::size).sum();
+			this.sizes = new long[parts.size()];
+			this.pending = parts.size();
+		}
+
+		/**
+		 * Counts the part written, the sizes of output files after the part written are in {@link #sizes}.
+		 * @return Whether all the parts are written
+		 */
+		boolean written() {
+			return 0 == --pending;
+		}
+	}
+
+	/**
+	 * Imports the files by the engine of {@code importer.engine}: the graph run by Akka or the plain threads of {@link ThreadedImport}.
+	 * @return The number of bytes written to the output and error files
+	 */
+	static long importFromFiles(Config config) throws IOException, InterruptedException, ExecutionException {
+		String engine = config.getString("importer.engine");
+		switch (engine) {
+			case "threads":
+				return ThreadedImport.of(config).importFromFiles();
+			case "akka":
+				ActorSystem system = ActorSystem.create();
+				try {
+					return new CSVImport(config, system)
+							.importFromFiles()
+							.toCompletableFuture()
+							.get()
+							.getCount();
+				} finally {
+					system.terminate();
+				}
+			default:
+				throw new IllegalArgumentException("Unknown engine '" + engine + "'");
+		}
+	}
 
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+		importFromFiles(ConfigFactory.load());
 	}
 }
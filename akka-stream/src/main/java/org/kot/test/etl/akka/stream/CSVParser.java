@@ -3,13 +3,25 @@ package org.kot.test.etl.akka.stream;
 import akka.util.ByteString;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 /**
  * Transcription of Alpakka CSV parser.
  * <a href="https://github.com/akka/alpakka/blob/master/csv/src/main/scala/akka/stream/alpakka/csv/impl/CsvParser.scala">Alpakka CSV</a>.
+ * <p>
+ * By default offered parts are concatenated into a single {@link ByteString} rope, so every byte lookup walks over the rope segments. In
+ * {@link #CSVParser(char, char, char, int, boolean) in place} mode each part is scanned over its own backing buffer, only the unfinished tail of
+ * the previous parts is carried over and fields are sliced as views of the part they belong to (only a field crossing parts boundary is copied),
+ * so the cost per byte stays the same regardless of how the input is fragmented. With a {@link CSVScanner scanner} every part is scanned once for
+ * structural characters and field boundaries are looked up by walking the resulting bitmap.
+ * <p>
+ * Being {@link #project(List) projected}, parser resolves the header into the positions of columns once and skips the fields of the other columns.
  * @author <a href=mailto:striped@gmail.com>striped</a>
  * @created 2018-12-18 22:35
  */
@@ -21,7 +33,7 @@ public class CSVParser implements Iterator<List<ByteString>> {
 
 	private final char delimiter, quote, escape;
 
-	private ByteString buf = ByteString.empty();
+	private final Window buf;
 
 	private int line, a, b;
 
@@ -29,26 +41,117 @@ public class CSVParser implements Iterator<List<ByteString>> {
 
 	private char current;
 
+	private List<ByteString> columns;
+
+	private int[] positions;
+
+	private int column;
+
+	/* whether rows are passed field by field, so no row is collected on offer */
+	private boolean streaming;
+
 	@SuppressWarnings("WeakerAccess")
 	public CSVParser(char delimiter, char quoteChar, char escapeChar, int maximumLineLength) {
+		this(delimiter, quoteChar, escapeChar, maximumLineLength, false);
+	}
+
+	@SuppressWarnings("WeakerAccess")
+	public CSVParser(char delimiter, char quoteChar, char escapeChar, int maximumLineLength, boolean inPlace) {
+		this(delimiter, quoteChar, escapeChar, maximumLineLength, inPlace? new ChunkWindow(null): new RopeWindow());
+	}
+
+	/**
+	 * Constructs parser in place mode with lookup of field boundaries by the scanner.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public CSVParser(char delimiter, char quoteChar, char escapeChar, int maximumLineLength, CSVScanner scanner) {
+		this(delimiter, quoteChar, escapeChar, maximumLineLength, new ChunkWindow(scanner));
+	}
+
+	private CSVParser(char delimiter, char quoteChar, char escapeChar, int maximumLineLength, Window buf) {
 		this.delimiter = delimiter;
 		this.quote = quoteChar;
 		this.escape = escapeChar;
 		this.maxBufLength = maximumLineLength;
+		this.buf = buf;
 		line = 1;
 	}
 
 	@SuppressWarnings("WeakerAccess")
 	public void offer(ByteString part) throws IOException {
 		if (0 < a) {
-			buf = buf.slice(a, buf.size());
+			buf.drop(a);
 		}
 		a = 0;
 		if (maxBufLength < part.size() + buf.size()) {
 			throw new IOException("Buffer exceed the limit " + maxBufLength + " bytes");
 		}
-		buf = buf.concat(part);
-		next = calculateNext();
+		buf.append(part);
+		next = streaming? null: calculateNext();
+	}
+
+	/**
+	 * Makes parser to pass the fields of rows {@link #next(Fields, boolean) one by one} to the receiver instead of collecting them into rows.
+	 */
+	CSVParser streaming() {
+		streaming = true;
+		return this;
+	}
+
+	/**
+	 * Parses the next row passing its fields to the receiver as soon as they are found, the row is never collected. The row incomplete at the
+	 * end of the data offered is resumed by the next call, once more data is offered.
+	 * @param requireLineFeed Whether the row has to end by line feed, otherwise the rest of data is the last row
+	 * @return Whether a row is ended
+	 */
+	boolean next(Fields fields, boolean requireLineFeed) {
+		while (buf.size() > a) {
+			boolean bound = fields.isBound(column);
+			ByteString field = nextField(bound);
+			if (null == field) {
+				break;
+			}
+			if (bound) {
+				fields.field(column, field);
+			}
+			column++;
+			a = b + 1;
+			if (LF == current || CR == current) {
+				line++;
+				column = 0;
+				fields.endOfRow();
+				return true;
+			}
+			if (delimiter != current) {
+				throw new IndexOutOfBoundsException("[" + line + "," + a + "]: Expected '" + delimiter + "' but got '" + current + "'");
+			}
+		}
+		if (requireLineFeed || (0 == column && buf.size() <= a)) {
+			return false;
+		}
+		int end = buf.size();
+		if (end > a && CR == buf.byteAt(end - 1)) {
+			end--;
+		}
+		if (end > a && fields.isBound(column)) {
+			fields.field(column, buf.slice(a, end));
+		}
+		a = buf.size();
+		column = 0;
+		fields.endOfRow();
+		return true;
+	}
+
+	/**
+	 * Makes parser to project rows on the columns. Rows are passed as is until the header, the first row having all the columns in any order
+	 * among others. The header is passed as the columns and the following rows are passed with the cells of the columns in the same order, the
+	 * fields of other columns are skipped with no slicing. Cell of column missing in a row is {@code null}.
+	 * @param columns The names of columns
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public void project(List<ByteString> columns) {
+		this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+		this.positions = null;
 	}
 
 	@SuppressWarnings("WeakerAccess")
@@ -56,12 +159,17 @@ public class CSVParser implements Iterator<List<ByteString>> {
 		if (hasNext()) {
 			return next();
 		} else if (!requireLineFeed && null != rest) {
-			if (buf.size() > a) {
-				rest.add(buf.slice(a, buf.length()));
+			int end = buf.size();
+			if (end > a && CR == buf.byteAt(end - 1)) {
+				end--;
+			}
+			if (end > a) {
+				add(rest, isProjected(column)? buf.slice(a, end): ByteString.empty());
 			}
 			List<ByteString> result = rest;
 			rest = null;
-			return result;
+			column = 0;
+			return complete(result);
 		}
 		return null;
 	}
@@ -82,61 +190,353 @@ public class CSVParser implements Iterator<List<ByteString>> {
 		if (buf.size() <= a) {
 			return null;
 		}
-		List<ByteString> result = (null != rest)? rest: new ArrayList<>();
+		List<ByteString> result = (null != rest)? rest: newRow();
 		rest = null;
-		for (ByteString field = nextField(); null != field; field = nextField()) {
-			result.add(field);
+		for (ByteString field = nextField(isProjected(column)); null != field; field = nextField(isProjected(column))) {
+			add(result, field);
 			a = b + 1;
-			if (buf.size() <= a) {
-				break;
-			}
 			if (LF == current || CR == current) {
 				line++;
-				return result;
+				column = 0;
+				return complete(result);
 			}
 			if (delimiter != current) {
 				throw new IndexOutOfBoundsException("[" + line + "," + a + "]: Expected '" + delimiter + "' but got '" + current + "'");
 			}
+			if (buf.size() <= a) {
+				break;
+			}
 		}
 		rest = result;
 		return null; // failed find reasonable finish, may be need more data?
 	}
 
-	private ByteString nextField() {
-		if (quote == buf.apply(a)) { // check quoted
-			b = buf.indexOf(quote, a + 1);
-			while (0 < b && escape == buf.apply(b - 1)) {
-				b = buf.indexOf(quote, b + 1);
+	private List<ByteString> newRow() {
+		return (null != positions)? Arrays.asList(new ByteString[columns.size()]): new ArrayList<>();
+	}
+
+	private boolean isProjected(int column) {
+		return null == positions || column < positions.length && 0 <= positions[column];
+	}
+
+	private void add(List<ByteString> row, ByteString field) {
+		if (null == positions) {
+			row.add(field);
+		} else if (column < positions.length && 0 <= positions[column]) {
+			row.set(positions[column], field);
+		}
+		column++;
+	}
+
+	/* looks the header up, if the rows are to be projected */
+	private List<ByteString> complete(List<ByteString> row) {
+		if (null == columns || null != positions || !row.containsAll(columns)) {
+			return row;
+		}
+		positions = new int[row.size()];
+		for (int i = 0; i < positions.length; i++) {
+			int position = columns.indexOf(row.get(i));
+			positions[i] = (0 <= position && row.indexOf(row.get(i)) == i)? position: -1;
+		}
+		return columns;
+	}
+
+	/**
+	 * Looks up the end of the next field.
+	 * @param slice Whether the field is to be sliced, otherwise an empty one is returned in place of it
+	 * @return The field or {@code null} if there is not enough data to find its end
+	 */
+	private ByteString nextField(boolean slice) {
+		if (quote == buf.byteAt(a)) { // check quoted
+			b = buf.indexOf((byte) quote, a + 1);
+			while (0 < b && escape == buf.byteAt(b - 1)) {
+				b = buf.indexOf((byte) quote, b + 1);
 			}
 			if (0 > b || buf.size() <= b + 1) {
 				return null;
 			}
-			ByteString result = buf.slice(a, ++b);
-			current = (char) buf.apply(b);
+			b++;
+			ByteString result = slice? buf.slice(a, b): ByteString.empty();
+			current = (char) buf.byteAt(b);
 			return result;
 		}
-		b = findEdge(a);
-		if (0 > b || buf.size() <= b) {
+		b = buf.indexOfAny((byte) LF, (byte) delimiter, (byte) CR, a);
+		if (0 > b) {
 			return null; // fail to find end of field
 		}
-		current = (char) buf.apply(b);
+		current = (char) buf.byteAt(b);
 		if (CR == current) {
-			ByteString result = buf.slice(a, b);
-			if (buf.size() > b && LF == buf.apply(b + 1)) {
+			if (buf.size() <= b + 1) {
+				return null; // can't tell CR from CR LF yet
+			}
+			ByteString result = slice? buf.slice(a, b): ByteString.empty();
+			if (LF == buf.byteAt(b + 1)) {
 				b += 1;
 			}
 			return result;
 		}
-		return buf.slice(a, b);
+		return slice? buf.slice(a, b): ByteString.empty();
+	}
+
+	/**
+	 * Receiver of the fields of rows parsed {@link #streaming() field by field}.
+	 */
+	interface Fields {
+
+		/**
+		 * @return Whether the field of column is passed, otherwise it is skipped with no slicing
+		 */
+		boolean isBound(int column);
+
+		void field(int column, ByteString value);
+
+		void endOfRow();
+	}
+
+	/**
+	 * Bytes offered to the parser but not consumed yet, addressed from {@code 0} to {@link #size()}.
+	 */
+	private interface Window {
+
+		int size();
+
+		byte byteAt(int i);
+
+		int indexOf(byte value, int from);
+
+		int indexOfAny(byte x, byte y, byte z, int from);
+
+		ByteString slice(int from, int to);
+
+		void append(ByteString part);
+
+		void drop(int count);
+	}
+
+	/**
+	 * Window as a single rope of concatenated parts.
+	 */
+	private static final class RopeWindow implements Window {
+
+		private ByteString buf = ByteString.empty();
+
+		@Override
+		public int size() {
+			return buf.size();
+		}
+
+		@Override
+		public byte byteAt(int i) {
+			return buf.apply(i);
+		}
+
+		@Override
+		public int indexOf(byte value, int from) {
+			return buf.indexOf(value, from);
+		}
+
+		@Override
+		public int indexOfAny(byte x, byte y, byte z, int from) {
+			for (int i = from; i < buf.size(); i++) {
+				byte c = buf.apply(i);
+				if (x == c || y == c || z == c) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public ByteString slice(int from, int to) {
+			return buf.slice(from, to);
+		}
+
+		@Override
+		public void append(ByteString part) {
+			buf = buf.concat(part);
+		}
+
+		@Override
+		public void drop(int count) {
+			buf = buf.slice(count, buf.size());
+		}
 	}
 
-	private int findEdge(int from) {
-		for (int i = from; i < buf.size(); i++) {
-			char c = (char) buf.apply(i);
-			if (LF == c || delimiter == c || CR == c) {
-				return i;
+	/**
+	 * Window as a queue of parts scanned over their own buffers.
+	 * <p>
+	 * The part being accessed is cached together with its range, so sequential lookups cost a single bounds check, and the lookup beyond it
+	 * continues from it by the links of parts, so a row spread over many fragments is not searched from the first one again. Consumed parts are
+	 * released on {@link #drop(int)}, the partially consumed one is kept as is with offset of first unconsumed byte. If there is a scanner, each
+	 * part is scanned for structural characters once on {@link #append(ByteString)}, otherwise parts are tested byte by byte on every lookup.
+	 * Non-compact chunk is appended by its fragments, every one is a part, so no chunk is copied.
+	 */
+	private static final class ChunkWindow implements Window {
+
+		private final CSVScanner scanner;
+
+		private final ArrayDeque<Part> parts = new ArrayDeque<>();
+
+		private int skip, size;
+
+		/* the part located last, null if none */
+		private Part part;
+
+		private ByteBuffer segment;
+
+		private long[] bitmap;
+
+		private int from, to;
+
+		ChunkWindow(CSVScanner scanner) {
+			this.scanner = scanner;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public byte byteAt(int i) {
+			if (i < from || to <= i) {
+				locate(i);
+			}
+			return segment.get(i - from);
+		}
+
+		@Override
+		public int indexOf(byte value, int from) {
+			for (int i = from; i < size; i = to) {
+				locate(i);
+				ByteBuffer s = segment;
+				int end = to - this.from;
+				if (null != scanner) {
+					for (int j = CSVScanner.next(bitmap, i - this.from, end); 0 <= j; j = CSVScanner.next(bitmap, j + 1, end)) {
+						if (value == s.get(j)) {
+							return j + this.from;
+						}
+					}
+					continue;
+				}
+				for (int j = i - this.from; j < end; j++) {
+					if (value == s.get(j)) {
+						return j + this.from;
+					}
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public int indexOfAny(byte x, byte y, byte z, int from) {
+			for (int i = from; i < size; i = to) {
+				locate(i);
+				ByteBuffer s = segment;
+				int end = to - this.from;
+				if (null != scanner) {
+					for (int j = CSVScanner.next(bitmap, i - this.from, end); 0 <= j; j = CSVScanner.next(bitmap, j + 1, end)) {
+						byte c = s.get(j);
+						if (x == c || y == c || z == c) {
+							return j + this.from;
+						}
+					}
+					continue;
+				}
+				for (int j = i - this.from; j < end; j++) {
+					byte c = s.get(j);
+					if (x == c || y == c || z == c) {
+						return j + this.from;
+					}
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public ByteString slice(int from, int to) {
+			locate(from);
+			if (to <= this.to) {
+				return part.bytes.slice(from - this.from, to - this.from);
+			}
+			ByteString result = part.bytes.drop(from - this.from);
+			int start = this.to;
+			for (Part next = part.next; start < to; next = next.next) {
+				result = result.concat(next.bytes.take(to - start));
+				start += next.bytes.size();
+			}
+			return result.compact();
+		}
+
+		@Override
+		public void append(ByteString part) {
+			if (part.isEmpty()) {
+				return;
+			}
+			// the buffer of rope would be a copy of it, so every fragment is a part of its own over the fragment's own buffer
+			int offset = 0;
+			for (ByteBuffer buffer : part.getByteBuffers()) {
+				int length = buffer.remaining();
+				ByteBuffer fragment = buffer.slice();
+				Part last = new Part(part.slice(offset, offset + length), fragment, (null != scanner)? scanner.scan(fragment): null);
+				if (!parts.isEmpty()) {
+					parts.getLast().next = last;
+				}
+				parts.addLast(last);
+				offset += length;
+			}
+			size += part.size();
+		}
+
+		@Override
+		public void drop(int count) {
+			size -= count;
+			count += skip;
+			while (!parts.isEmpty() && parts.getFirst().bytes.size() <= count) {
+				count -= parts.removeFirst().bytes.size();
+			}
+			skip = count;
+			part = null;
+			segment = null;
+			bitmap = null;
+			from = to = 0;
+		}
+
+		/* continues from the part located last, if it does not lie beyond */
+		private void locate(int i) {
+			boolean ahead = null != part && from <= i;
+			int start = ahead? from: -skip;
+			for (Part k = ahead? part: parts.peekFirst(); null != k; k = k.next) {
+				int end = start + k.bytes.size();
+				if (i < end) {
+					part = k;
+					segment = k.buffer;
+					bitmap = k.bitmap;
+					from = start;
+					to = end;
+					return;
+				}
+				start = end;
+			}
+			throw new IndexOutOfBoundsException(Integer.toString(i));
+		}
+
+		/* part along with its buffer, structural characters bitmap and the link to the next one */
+		private static final class Part {
+
+			final ByteString bytes;
+
+			final ByteBuffer buffer;
+
+			final long[] bitmap;
+
+			Part next;
+
+			Part(ByteString bytes, ByteBuffer buffer, long[] bitmap) {
+				this.bytes = bytes;
+				this.buffer = buffer;
+				this.bitmap = bitmap;
 			}
 		}
-		return -1;
 	}
 }
@@ -11,7 +11,9 @@ import akka.stream.stage.OutHandler;
 import akka.util.ByteString;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Transcription of Alpakka CSV parsing stage.
@@ -29,6 +31,12 @@ public class CSVParsingStage extends GraphStage<FlowShape<ByteString, List<ByteS
 
 	private final int maximumLineLength;
 
+	private final boolean inPlace;
+
+	private final CSVScanner scanner;
+
+	private final List<ByteString> columns;
+
 	private final Inlet<ByteString> in;
 	private final Outlet<List<ByteString>> out;
 	private final FlowShape<ByteString, List<ByteString>> shape;
@@ -36,11 +44,17 @@ public class CSVParsingStage extends GraphStage<FlowShape<ByteString, List<ByteS
 	private CSVParsingStage(char delimiter,
 	                        char quoteChar,
 	                        char escapeChar,
-	                        int maximumLineLength) {
+	                        int maximumLineLength,
+	                        boolean inPlace,
+	                        CSVScanner scanner,
+	                        List<ByteString> columns) {
 		this.delimiter = delimiter;
 		this.quoteChar = quoteChar;
 		this.escapeChar = escapeChar;
 		this.maximumLineLength = maximumLineLength;
+		this.inPlace = inPlace;
+		this.scanner = scanner;
+		this.columns = columns;
 		in = Inlet.create("CSVParsingStage.in");
 		out = Outlet.create("CSVParsingStage.out");
 		shape = FlowShape.of(in, out);
@@ -48,7 +62,54 @@ public class CSVParsingStage extends GraphStage<FlowShape<ByteString, List<ByteS
 
 	@SuppressWarnings("WeakerAccess")
 	public static CSVParsingStage parse(char delimiter, char quoteChar, char escapeChar, int maximumLineLength) {
-		return new CSVParsingStage(delimiter, quoteChar, escapeChar, maximumLineLength);
+		return new CSVParsingStage(delimiter, quoteChar, escapeChar, maximumLineLength, false, null, null);
+	}
+
+	/**
+	 * Parsing stage which scans every incoming chunk in place.
+	 * @see CSVParser#CSVParser(char, char, char, int, boolean)
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static CSVParsingStage parseInPlace(char delimiter, char quoteChar, char escapeChar, int maximumLineLength) {
+		return new CSVParsingStage(delimiter, quoteChar, escapeChar, maximumLineLength, true, null, null);
+	}
+
+	/**
+	 * Parsing stage which scans every incoming chunk in place for structural characters by the scanner.
+	 * @see CSVParser#CSVParser(char, char, char, int, CSVScanner)
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static CSVParsingStage parseInPlace(char delimiter, char quoteChar, char escapeChar, int maximumLineLength, CSVScanner scanner) {
+		return new CSVParsingStage(delimiter, quoteChar, escapeChar, maximumLineLength, true, scanner, null);
+	}
+
+	/**
+	 * Parsing stage of the same parsing mode, which projects the rows on the columns.
+	 * @param columns The names of columns, usually the ones the rows are bound from
+	 * @see CSVParser#project(List)
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public CSVParsingStage project(List<String> columns) {
+		return new CSVParsingStage(delimiter, quoteChar, escapeChar, maximumLineLength, inPlace, scanner,
+				columns.stream().map(ByteString::fromString).collect(Collectors.toList()));
+	}
+
+	/**
+	 * Parsing stage of the same parsing mode, which passes rows downstream in batches.
+	 * @param size The number of rows per batch, {@code 0} to batch all the rows parsed from an incoming chunk
+	 * @param flushAfter The time incomplete batch may wait for more rows before it is passed downstream
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public CSVBatchParsingStage batched(int size, Duration flushAfter) {
+		return new CSVBatchParsingStage(this, size, flushAfter);
+	}
+
+	/**
+	 * Stage of the same parsing mode, which binds every field as soon as it is parsed, so no row of cells is passed in between.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public <T> CSVBindingStage<T> bind(CSV2JavaStage<T> binding) {
+		return new CSVBindingStage<>(this, binding);
 	}
 
 	@Override
@@ -56,6 +117,16 @@ public class CSVParsingStage extends GraphStage<FlowShape<ByteString, List<ByteS
 		return new CvsGraphStageLogic(shape);
 	}
 
+	CSVParser parser() {
+		CSVParser result = (null != scanner)?
+				new CSVParser(delimiter, quoteChar, escapeChar, maximumLineLength, scanner):
+				new CSVParser(delimiter, quoteChar, escapeChar, maximumLineLength, inPlace);
+		if (null != columns) {
+			result.project(columns);
+		}
+		return result;
+	}
+
 	@Override
 	public FlowShape<ByteString, List<ByteString>> shape() {
 		return shape;
@@ -67,7 +138,7 @@ public class CSVParsingStage extends GraphStage<FlowShape<ByteString, List<ByteS
 
 		CvsGraphStageLogic(FlowShape<ByteString, List<ByteString>> shape) {
 			super(shape);
-			buffer = new CSVParser(delimiter, quoteChar, escapeChar, maximumLineLength);
+			buffer = parser();
 			setHandlers(in, out, this);
 		}
 
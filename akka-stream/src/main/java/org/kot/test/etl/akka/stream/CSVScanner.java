@@ -0,0 +1,136 @@
+package org.kot.test.etl.akka.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Engine looking up structural characters of CSV (delimiter, quote, escape, CR and LF) in a chunk of data.
+ * <p>
+ * The result of a {@link #scan(ByteBuffer) scan} is a bitmap where bit {@code i & 63} of word {@code i >>> 6} is set if byte {@code i} of the chunk
+ * is structural, so {@link CSVParser} walks the bitmap from one structural position to the next one instead of testing every byte.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-01-12 14:10
+ */
+public abstract class CSVScanner {
+
+	private static final char CR = '\r', LF = '\n';
+
+	private final byte delimiter, quote, escape;
+
+	private CSVScanner(char delimiter, char quote, char escape) {
+		this.delimiter = (byte) delimiter;
+		this.quote = (byte) quote;
+		this.escape = (byte) escape;
+	}
+
+	/**
+	 * Scanner testing eight bytes at a time as a single {@code long} (SIMD within a register).
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static CSVScanner swar(char delimiter, char quote, char escape) {
+		return new Swar(delimiter, quote, escape);
+	}
+
+	/**
+	 * Resolves scanner by its name, {@code "swar"}.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static CSVScanner of(String name, char delimiter, char quote, char escape) {
+		switch (name) {
+			case "swar":
+				return swar(delimiter, quote, escape);
+			default:
+				throw new IllegalArgumentException("Unknown scanner '" + name + "'");
+		}
+	}
+
+	/**
+	 * Builds the bitmap of structural positions of the buffer, from {@code 0} to its limit.
+	 * @param buffer The chunk to scan
+	 * @return The bitmap of structural positions
+	 */
+	public long[] scan(ByteBuffer buffer) {
+		int length = buffer.limit();
+		long[] bitmap = new long[(length + 63) >>> 6];
+		int tail = mark(buffer, length, bitmap);
+		for (int i = tail; i < length; i++) {
+			if (isStructural(buffer.get(i))) {
+				bitmap[i >>> 6] |= 1L << i;
+			}
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Finds the first set bit of the bitmap in range {@code [from, to)}.
+	 * @return The position of set bit or {@code -1} if there is none
+	 */
+	public static int next(long[] bitmap, int from, int to) {
+		if (from >= to) {
+			return -1;
+		}
+		int w = from >>> 6;
+		long word = bitmap[w] & (-1L << from);
+		while (0 == word) {
+			if (++w >= bitmap.length) {
+				return -1;
+			}
+			word = bitmap[w];
+		}
+		int result = (w << 6) + Long.numberOfTrailingZeros(word);
+		return (result < to)? result: -1;
+	}
+
+	boolean isStructural(byte c) {
+		return delimiter == c || quote == c || escape == c || CR == c || LF == c;
+	}
+
+	/**
+	 * Marks structural positions in bitmap in an engine specific way.
+	 * @return The position from which the rest of the buffer has to be tested byte by byte
+	 */
+	abstract int mark(ByteBuffer buffer, int length, long[] bitmap);
+
+	private static final class Swar extends CSVScanner {
+
+		private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL, ONES = 0x0101010101010101L, GATHER = 0x0102040810204080L;
+
+		private final long delimiters, quotes, escapes, crs, lfs;
+
+		Swar(char delimiter, char quote, char escape) {
+			super(delimiter, quote, escape);
+			delimiters = ONES * (delimiter & 0xFF);
+			quotes = ONES * (quote & 0xFF);
+			escapes = ONES * (escape & 0xFF);
+			crs = ONES * CR;
+			lfs = ONES * LF;
+		}
+
+		@Override
+		int mark(ByteBuffer buffer, int length, long[] bitmap) {
+			ByteBuffer words = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			int i = 0;
+			for (; i + 8 <= length; i += 8) {
+				long word = words.getLong(i);
+				long found = zeros(word ^ delimiters) | zeros(word ^ quotes) | zeros(word ^ escapes) | zeros(word ^ crs) | zeros(word ^ lfs);
+				if (0 != found) {
+					bitmap[i >>> 6] |= (((found >>> 7) * GATHER) >>> 56) << i;
+				}
+			}
+			return i;
+		}
+
+		/**
+		 * Sets the high bit of every byte of the word that is zero, exactly (no false positive on borrow).
+		 */
+		private static long zeros(long word) {
+			long t = (word & LOW7) + LOW7;
+			return ~(t | word | LOW7);
+		}
+
+		@Override
+		public String toString() {
+			return "swar";
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Splitter of CSV file into byte ranges, which may be parsed independently.
+ * <p>
+ * Every cut is moved from its nominal position to the start of the next line, which is not inside quoted field. Whether a line feed is quoted is
+ * decided by the same rules {@link CSVParser} follows: field is quoted if it starts with the quote character and lasts until the quote character
+ * not preceded by the escape character. So the file is scanned sequentially from the previous cut, but the scan only tracks the quote state
+ * byte by byte, without any field extraction, and is done lazily, range by range, so parsing of the first ranges goes on while the next ones are
+ * looked up.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-03-16 10:20
+ */
+public class CSVSplitter {
+
+	private static final byte CR = '\r', LF = '\n';
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final byte delimiter, quote, escape;
+
+	@SuppressWarnings("WeakerAccess")
+	public CSVSplitter(char delimiter, char quoteChar, char escapeChar) {
+		this.delimiter = (byte) delimiter;
+		this.quote = (byte) quoteChar;
+		this.escape = (byte) escapeChar;
+	}
+
+	/**
+	 * Splits the file into ranges, which cover the file completely and in order, empty file makes a single empty range.
+	 * @param file The file to split
+	 * @param size The nominal size of range, actual range is larger up to the end of the line the nominal cut falls into
+	 * @return The ranges looked up one by one on iteration, {@link UncheckedIOException} is thrown on failure to read the file
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public Iterator<Range> split(Path file, long size) {
+		return split(file, 0, size);
+	}
+
+	/**
+	 * Splits the rest of file from the position into ranges, the same way the whole file is split.
+	 * @param file The file to split
+	 * @param position The start of line to split from, e.g. the end of range of the previous split; the position at the end of file makes a
+	 * single empty range
+	 * @param size The nominal size of range
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public Iterator<Range> split(Path file, long position, long size) {
+		if (0 >= size) {
+			throw new IllegalArgumentException("Range size " + size + " is expected to be positive");
+		}
+		return new Iterator<Range>() {
+
+			private long from = position;
+
+			private boolean done;
+
+			@Override
+			public boolean hasNext() {
+				return !done;
+			}
+
+			@Override
+			public Range next() {
+				if (done) {
+					throw new NoSuchElementException();
+				}
+				try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+					Range result = new Range(from, nextLine(channel, from, from + size));
+					from = result.to;
+					done = channel.size() <= from;
+					return result;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Reads the first line of the file, which is expected to be the header.
+	 * @return The line, line feed included, or all the file if it is a single line
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public ByteString header(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long end = nextLine(channel, 0, 1);
+			ByteBuffer result = ByteBuffer.allocate((int) end);
+			while (result.hasRemaining() && 0 <= channel.read(result, result.position())) {
+				// read until the buffer is full
+			}
+			result.flip();
+			return ByteString.fromByteBuffer(result);
+		}
+	}
+
+	/**
+	 * Looks up the start of line following the position.
+	 * @param channel The file
+	 * @param from The position the scan starts from, which is the start of line
+	 * @param position The position the line should follow
+	 * @return The position after the first not quoted line feed at or after {@code position - 1}, or the size of the file if there is none
+	 */
+	long nextLine(FileChannel channel, long from, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		boolean fieldStart = true, quoted = false;
+		byte previous = 0;
+		long offset = from;
+		while (0 < channel.read(buffer, offset)) {
+			byte[] bytes = buffer.array();
+			int n = buffer.position();
+			for (int i = 0; i < n; i++) {
+				byte c = bytes[i];
+				if (quoted) {
+					quoted = quote != c || escape == previous;
+					previous = c;
+				} else if (fieldStart && quote == c) {
+					quoted = true;
+					fieldStart = false;
+					previous = c;
+				} else if (LF == c) {
+					if (position <= offset + i + 1) {
+						return offset + i + 1;
+					}
+					fieldStart = true;
+				} else {
+					fieldStart = delimiter == c || CR == c;
+				}
+			}
+			offset += n;
+			buffer.clear();
+		}
+		return offset;
+	}
+
+	/**
+	 * Range of bytes from inclusive to exclusive.
+	 */
+	public static final class Range {
+
+		private final long from, to;
+
+		Range(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		public long from() {
+			return from;
+		}
+
+		public long to() {
+			return to;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + from + ", " + to + ")";
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binder of the cells of row into values by the list of {@link Binding.Mapping mappings}, in their order, shared by the binding into maps and
+ * into rows.
+ * <p>
+ * Binder keeps no state, so it is shared by the threads binding.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-08 10:20
+ */
+public final class CellBinder {
+
+	private final List<Binding.Mapping<ByteString, ?>> mappings;
+
+	private CellBinder(List<Binding.Mapping<ByteString, ?>> mappings) {
+		this.mappings = mappings;
+	}
+
+	/**
+	 * Constructs binder of the mappings.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static CellBinder of(List<Binding.Mapping<ByteString, ?>> mappings) {
+		return new CellBinder(mappings);
+	}
+
+	/**
+	 * Binds the cells of row into values, cell missing in the row is bound as {@code null} one.
+	 * @param row The cells of row in order of mappings
+	 * @param values The array the value of every mapping is put into
+	 * @return The list of failures or {@code null} if there are none
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> bind(List<ByteString> row, Object[] values) {
+		List<String> errors = null;
+		for (int i = 0; i < values.length; i++) {
+			Binding.Mapping<ByteString, Object> adapter = (Binding.Mapping<ByteString, Object>) mappings.get(i);
+			ByteString cell = cell(row, i);
+			Object value = adapter.apply(cell);
+			errors = failure(errors, adapter.failure(cell, value));
+			values[i] = value;
+		}
+		return errors;
+	}
+
+	static ByteString cell(List<ByteString> row, int i) {
+		return (i < row.size())? row.get(i): null;
+	}
+
+	/* the list of failures is allocated by the first one */
+	private static List<String> failure(List<String> errors, String failure) {
+		if (null == failure) {
+			return errors;
+		}
+		List<String> result = (null != errors)? errors: new ArrayList<>(2);
+		result.add(failure);
+		return result;
+	}
+}
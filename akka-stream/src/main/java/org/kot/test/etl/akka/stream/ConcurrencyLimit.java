@@ -0,0 +1,317 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.NotUsed;
+import akka.stream.Attributes;
+import akka.stream.FlowShape;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.javadsl.Flow;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+import akka.stream.stage.InHandler;
+import akka.stream.stage.OutHandler;
+import akka.stream.stage.TimerGraphStageLogic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Adaptive limit of the number of workers taking files at once, which is adjusted at runtime within the range given by the measures of the
+ * workers: the rows they pass per second, the time their output waits for downstream (backpressure) and the time they wait for a file (idle).
+ * <p>
+ * Limit is adjusted once per interval the way of AIMD with a check of gradient:
+ * <ul>
+ *     <li>workers backpressured more than the threshold tell the output is the bottleneck, so the limit is decreased multiplicatively;</li>
+ *     <li>worker added on the last interval with no gain of throughput is taken back, and no worker is added for a few intervals then;</li>
+ *     <li>workers busy all the time tell the files wait for them, so a worker is added;</li>
+ *     <li>otherwise the limit is kept, workers idle tell the files come slower than they are imported.</li>
+ * </ul>
+ * The decision is a pure function of the measures and of the previous decision, {@link #decide(Decision, double, double, double)}. Every
+ * decision is logged at debug level along with the measures it is made by. Workers above the limit finish the file they have and take no
+ * more.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-05-18 10:30
+ */
+public class ConcurrencyLimit {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConcurrencyLimit.class);
+
+	private static final double DECREASE_FACTOR = 0.75;
+
+	/* intervals no worker is added after a decrease */
+	private static final int BACKOFF = 5;
+
+	/* the interval an inactive worker checks the limit */
+	private static final FiniteDuration POLL = FiniteDuration.create(100, TimeUnit.MILLISECONDS);
+
+	private static final String TICK = "tick";
+
+	private final int min;
+
+	private final int max;
+
+	private final long interval;
+
+	private final double backpressureThreshold;
+
+	private final double idleThreshold;
+
+	private final double minGain;
+
+	private final Metrics.Stage[] meters;
+
+	private final LongAdder[] idle;
+
+	private final long[] lastRows, lastBackpressure, lastIdle;
+
+	private volatile int limit;
+
+	private volatile long nextAdjust;
+
+	private long lastAdjust;
+
+	private Decision last;
+
+	private ConcurrencyLimit(int initial, int min, int max, Duration interval, double backpressureThreshold, double idleThreshold, double minGain) {
+		this.min = min;
+		this.max = max;
+		this.interval = interval.toNanos();
+		this.backpressureThreshold = backpressureThreshold;
+		this.idleThreshold = idleThreshold;
+		this.minGain = minGain;
+		this.meters = new Metrics.Stage[max];
+		this.idle = new LongAdder[max];
+		for (int i = 0; i < max; i++) {
+			meters[i] = new Metrics.Stage("worker-" + i, false);
+			idle[i] = new LongAdder();
+		}
+		this.lastRows = new long[max];
+		this.lastBackpressure = new long[max];
+		this.lastIdle = new long[max];
+		this.limit = Math.max(min, Math.min(max, initial));
+		this.last = new Decision(limit, 0, 0, 0, "initial");
+		this.lastAdjust = System.nanoTime();
+		this.nextAdjust = lastAdjust + this.interval;
+	}
+
+	/**
+	 * Constructs the limit.
+	 * @param initial The number of workers to start with
+	 * @param min The least number of workers
+	 * @param max The largest number of workers, which are all materialized, though only the ones within the limit take files
+	 * @param interval The interval of measurement
+	 * @param backpressureThreshold The share of time workers are backpressured, which tells the output is the bottleneck
+	 * @param idleThreshold The share of time workers wait for files, below which they are busy
+	 * @param minGain The relative gain of throughput expected from the worker added
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static ConcurrencyLimit of(int initial, int min, int max, Duration interval, double backpressureThreshold, double idleThreshold,
+	                                  double minGain) {
+		if (1 > min || min > max) {
+			throw new IllegalArgumentException("Range of workers " + min + "-" + max + " is expected to be non empty and start from 1 at least");
+		}
+		return new ConcurrencyLimit(initial, min, max, interval, backpressureThreshold, idleThreshold, minGain);
+	}
+
+	/**
+	 * @return The largest number of workers
+	 */
+	public int max() {
+		return max;
+	}
+
+	/**
+	 * @return The current number of workers taking files
+	 */
+	public int limit() {
+		return limit;
+	}
+
+	/**
+	 * Flow in front of the worker, which demands the next file only while the worker is within the limit, and measures the time it waits for it.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public <T> Flow<T, T, NotUsed> gate(int worker) {
+		return Flow.fromGraph(new Gate<>(worker));
+	}
+
+	/**
+	 * Flow behind the worker, which measures its throughput and the time its output is backpressured.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public <T> Flow<T, T, NotUsed> meter(int worker, ToLongFunction<T> rows) {
+		return Flow.fromGraph(new MeterStage<>(meters[worker], rows, e -> 0));
+	}
+
+	/**
+	 * Adjusts the limit, if the interval has passed since the last adjustment.
+	 */
+	void tick() {
+		if (nextAdjust <= System.nanoTime()) {
+			adjust();
+		}
+	}
+
+	private synchronized void adjust() {
+		long now = System.nanoTime();
+		if (nextAdjust > now) {
+			return;
+		}
+		int active = limit;
+		double elapsed = now - lastAdjust;
+		long rows = 0, backpressure = 0, idle = 0;
+		for (int i = 0; i < max; i++) {
+			long r = meters[i].getRows(), b = meters[i].backpressureNanos(), w = this.idle[i].sum();
+			rows += r - lastRows[i];
+			if (i < active) {
+				backpressure += b - lastBackpressure[i];
+				idle += w - lastIdle[i];
+			}
+			lastRows[i] = r;
+			lastBackpressure[i] = b;
+			lastIdle[i] = w;
+		}
+		double throughput = rows / elapsed * 1e9, backpressured = backpressure / elapsed / active, waiting = idle / elapsed / active;
+
+		Decision decision = decide(last, throughput, backpressured, waiting);
+		logger.debug("Concurrency {} -> {}: {}, {} rows/s, backpressure {}%, idle {}% per worker", active, decision.limit, decision.reason,
+				Math.round(throughput), Math.round(backpressured * 100), Math.round(waiting * 100));
+		last = decision;
+		lastAdjust = now;
+		nextAdjust = now + interval;
+		limit = decision.limit;
+	}
+
+	/**
+	 * Decides the limit for the measures of the last interval, the way of AIMD with a check of gradient.
+	 * @param last The decision made on the previous interval, which limit the workers have been measured by
+	 * @param throughput The rows per second of all the workers
+	 * @param backpressured The share of time workers within the limit have been backpressured
+	 * @param waiting The share of time workers within the limit have waited for files
+	 */
+	Decision decide(Decision last, double throughput, double backpressured, double waiting) {
+		int active = last.limit;
+		if (backpressured > backpressureThreshold && active > min) {
+			int next = Math.max(min, Math.min(active - 1, (int) (active * DECREASE_FACTOR)));
+			return new Decision(next, active, throughput, BACKOFF, "output is the bottleneck");
+		}
+		if (0 < last.change && throughput < last.throughput * (1 + minGain) && active > min) {
+			String reason = String.format("throughput gained less than %d%% over %d rows/s of %d workers", Math.round(minGain * 100),
+					Math.round(last.throughput), active - 1);
+			return new Decision(active - 1, active, throughput, BACKOFF, reason);
+		}
+		if (waiting < idleThreshold && active < max && 0 == last.backoff) {
+			return new Decision(active + 1, active, throughput, 0, "workers are busy, files wait for them");
+		}
+		int backoff = Math.max(0, last.backoff - 1);
+		return new Decision(active, active, throughput, backoff, (waiting >= idleThreshold)? "kept, files come slower than imported":
+				(0 < backoff)? "kept, backing off": "kept");
+	}
+
+	/**
+	 * Limit decided for the next interval with the measures it is decided by.
+	 */
+	static final class Decision {
+
+		final int limit;
+
+		/* the sign of change from the previous limit */
+		final int change;
+
+		final double throughput;
+
+		/* intervals left no worker is added for */
+		final int backoff;
+
+		final String reason;
+
+		Decision(int limit, int previous, double throughput, int backoff, String reason) {
+			this.limit = limit;
+			this.change = Integer.compare(limit, previous);
+			this.throughput = throughput;
+			this.backoff = backoff;
+			this.reason = reason;
+		}
+	}
+
+	private class Gate<T> extends GraphStage<FlowShape<T, T>> {
+
+		private final int worker;
+
+		private final Inlet<T> in;
+
+		private final Outlet<T> out;
+
+		private final FlowShape<T, T> shape;
+
+		Gate(int worker) {
+			this.worker = worker;
+			in = Inlet.create("Gate." + worker + ".in");
+			out = Outlet.create("Gate." + worker + ".out");
+			shape = FlowShape.of(in, out);
+		}
+
+		@Override
+		public FlowShape<T, T> shape() {
+			return shape;
+		}
+
+		@Override
+		public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+			return new Logic();
+		}
+
+		private class Logic extends TimerGraphStageLogic implements InHandler, OutHandler {
+
+			/* the time the waiting for file is measured from, 0 if the worker does not wait */
+			private long waiting;
+
+			Logic() {
+				super(shape);
+				setHandlers(in, out, this);
+			}
+
+			@Override
+			public void preStart() {
+				schedulePeriodically(TICK, POLL);
+			}
+
+			@Override
+			public void onPull() {
+				demand();
+			}
+
+			@Override
+			public void onPush() {
+				idle[worker].add(System.nanoTime() - waiting);
+				waiting = 0;
+				push(out, grab(in));
+			}
+
+			@Override
+			public void onTimer(Object timerKey) {
+				if (0 != waiting) {
+					long now = System.nanoTime();
+					idle[worker].add(now - waiting);
+					waiting = now;
+				}
+				tick();
+				if (isAvailable(out) && !hasBeenPulled(in) && !isClosed(in)) {
+					demand();
+				}
+			}
+
+			private void demand() {
+				if (worker < limit) {
+					waiting = System.nanoTime();
+					pull(in);
+				}
+			}
+		}
+	}
+}
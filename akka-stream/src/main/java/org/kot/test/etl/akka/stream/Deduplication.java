@@ -0,0 +1,135 @@
+package org.kot.test.etl.akka.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Detection of records of the same key across all the files imported: one record of key passes, every other one is failed with the duplicate
+ * failure, so it is routed to the error file the same way as the record failed on binding.
+ * <p>
+ * By {@link #FIRST_WINS} the first record of key passes. Keys seen are kept in {@link LongHashSet}, which is shared by all the workers of
+ * import, so the set is sized by the number of distinct keys expected. With files parsed concurrently the first record is the one bound first,
+ * not the one of the first file.
+ * <p>
+ * By {@link #LAST_WINS} the last record of key passes, the last one of the last file of it in order of the files imported. The stream can't
+ * tell the record is the last one before the input is over, so the files are read twice: the first pass {@link #index(int) indexes} every
+ * record by its position, the file index and the ordinal of record in the file, and the set keeps the largest position of every key; the
+ * second pass fails every record but the one of that position. The records of file have to be bound in order of the file by both passes.
+ * <p>
+ * The record already failed is passed as is and its key is not taken, as the key of failed record may be not bound at all.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-05-04 11:30
+ */
+public final class Deduplication<T> {
+
+	/** The policy passing the first record of key */
+	public static final String FIRST_WINS = "first-wins";
+
+	/** The policy passing the last record of key */
+	public static final String LAST_WINS = "last-wins";
+
+	/* the bits of ordinal of record in the position, the file index is above them */
+	private static final int ORDINAL_BITS = 40;
+
+	private final boolean lastWins;
+
+	private final LongHashSet seen;
+
+	private final ToLongFunction<T> key;
+
+	private final Predicate<T> failed;
+
+	private final BiFunction<T, List<String>, T> fail;
+
+	private Deduplication(boolean lastWins, LongHashSet seen, ToLongFunction<T> key, Predicate<T> failed, BiFunction<T, List<String>, T> fail) {
+		this.lastWins = lastWins;
+		this.seen = seen;
+		this.key = key;
+		this.failed = failed;
+		this.fail = fail;
+	}
+
+	/**
+	 * Constructs deduplication of records.
+	 * @param policy The policy, {@link #FIRST_WINS} or {@link #LAST_WINS}, the latter keeps twice the memory per key
+	 * @param segments The number of segments of set of keys, which is about the number of workers sharing it
+	 * @param expected The number of distinct keys expected
+	 * @param key The key of record
+	 * @param failed Tells whether the record is failed
+	 * @param fail Marks the record as failed by the list of failures
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static <T> Deduplication<T> of(String policy, int segments, long expected, ToLongFunction<T> key, Predicate<T> failed,
+	                                      BiFunction<T, List<String>, T> fail) {
+		switch (policy) {
+			case FIRST_WINS:
+				return new Deduplication<>(false, LongHashSet.of(segments, expected), key, failed, fail);
+			case LAST_WINS:
+				return new Deduplication<>(true, LongHashSet.withValues(segments, expected), key, failed, fail);
+			default:
+				throw new IllegalArgumentException("Unknown deduplication policy '" + policy + "'");
+		}
+	}
+
+	/**
+	 * @return Whether the files have to be {@link #index(int) indexed} before the records are deduplicated
+	 */
+	public boolean isIndexing() {
+		return lastWins;
+	}
+
+	/**
+	 * The first pass over the records of file, which puts the position of every record to the set of keys and passes it as is.
+	 * @param file The index of file in order of the files imported
+	 * @throws IllegalStateException If the policy needs no indexing
+	 */
+	public UnaryOperator<T> index(int file) {
+		if (!lastWins) {
+			throw new IllegalStateException("Deduplication policy '" + FIRST_WINS + "' needs no indexing");
+		}
+		long[] position = {position(file)};
+		return record -> {
+			if (!failed.test(record)) {
+				seen.putMax(key.applyAsLong(record), position[0]);
+			}
+			position[0]++;
+			return record;
+		};
+	}
+
+	/**
+	 * Deduplication of the records of file, every call gives the operator of its own, which is applied to the records of the file only.
+	 * @param file The index of file in order of the files imported, the one it is {@link #index(int) indexed} by
+	 */
+	public UnaryOperator<T> of(int file) {
+		if (!lastWins) {
+			return record -> (failed.test(record) || seen.add(key.applyAsLong(record)))? record: duplicate(record);
+		}
+		long[] position = {position(file)};
+		return record -> {
+			long current = position[0]++;
+			return (failed.test(record) || current == seen.get(key.applyAsLong(record)))? record: duplicate(record);
+		};
+	}
+
+	/**
+	 * @return The number of distinct keys seen
+	 */
+	public long size() {
+		return seen.size();
+	}
+
+	private T duplicate(T record) {
+		List<String> failures = new ArrayList<>(1);
+		failures.add("Duplicate id " + key.applyAsLong(record));
+		return fail.apply(record, failures);
+	}
+
+	private static long position(int file) {
+		return (long) file << ORDINAL_BITS;
+	}
+}
@@ -0,0 +1,258 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.stream.ActorAttributes;
+import akka.stream.Attributes;
+import akka.stream.Outlet;
+import akka.stream.SourceShape;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+import akka.stream.stage.OutHandler;
+import akka.stream.stage.TimerGraphStageLogic;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Endless source of the files arriving into directory, every file is passed once it is complete and only once.
+ * <p>
+ * Directory is watched by {@link WatchService}, which events are polled by timer, and is listed again every rescan interval, so the files missed
+ * by the watch service (overflow, file systems with no notification) are found as well. The files present on start are found by the first
+ * listing. File is complete either when its marker file (name of file with the marker suffix) exists or, if there is no marker, when its size
+ * and modification time have not changed for the stable period. It runs on the blocking I/O dispatcher, unless the attributes tell another
+ * one.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-04-27 10:30
+ */
+public class DirectoryWatchSource extends GraphStage<SourceShape<Path>> {
+
+	private static final String BLOCKING_DISPATCHER = "akka.stream.default-blocking-io-dispatcher";
+
+	private static final String POLL = "poll";
+
+	private final Path directory;
+
+	private final String pattern;
+
+	private final String marker;
+
+	private final long stableAfter;
+
+	private final FiniteDuration pollInterval;
+
+	private final long rescanInterval;
+
+	private final Outlet<Path> out = Outlet.create("DirectoryWatch.out");
+
+	private final SourceShape<Path> shape = SourceShape.of(out);
+
+	private DirectoryWatchSource(Path directory, String pattern, String marker, Duration stableAfter, Duration pollInterval, Duration rescanInterval) {
+		this.directory = directory;
+		this.pattern = pattern;
+		this.marker = marker;
+		this.stableAfter = stableAfter.toNanos();
+		this.pollInterval = FiniteDuration.create(pollInterval.toNanos(), TimeUnit.NANOSECONDS);
+		this.rescanInterval = rescanInterval.toNanos();
+	}
+
+	/**
+	 * Constructs source of the files arriving into directory.
+	 * @param directory The directory to watch
+	 * @param pattern The glob pattern of files
+	 * @param marker The suffix of marker file telling the file is complete, empty to wait for the file to be stable instead
+	 * @param stableAfter The time file has to be of the same size and modification time to be complete, if there is no marker
+	 * @param pollInterval The interval of polling the watch service and checking the files growing
+	 * @param rescanInterval The interval of listing the directory
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static DirectoryWatchSource of(Path directory, String pattern, String marker, Duration stableAfter, Duration pollInterval,
+	                                      Duration rescanInterval) {
+		return new DirectoryWatchSource(directory, pattern, marker, stableAfter, pollInterval, rescanInterval);
+	}
+
+	@Override
+	public SourceShape<Path> shape() {
+		return shape;
+	}
+
+	@Override
+	public Attributes initialAttributes() {
+		return ActorAttributes.dispatcher(BLOCKING_DISPATCHER);
+	}
+
+	@Override
+	public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+		return new Logic();
+	}
+
+	/**
+	 * Files of the directory arriving until they are complete, the logic feeds the files found by the watch service and by listing into.
+	 */
+	Arrivals arrivals() {
+		return new Arrivals();
+	}
+
+	private class Logic extends TimerGraphStageLogic implements OutHandler {
+
+		private final Arrivals arrivals = new Arrivals();
+
+		private WatchService watcher;
+
+		private long lastScan;
+
+		Logic() {
+			super(shape);
+			setHandler(out, this);
+		}
+
+		@Override
+		public void preStart() throws IOException {
+			watcher = directory.getFileSystem().newWatchService();
+			directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			lastScan = System.nanoTime();
+			arrivals.scan();
+			schedulePeriodically(POLL, pollInterval);
+		}
+
+		@Override
+		public void postStop() throws IOException {
+			if (null != watcher) {
+				watcher.close();
+			}
+		}
+
+		@Override
+		public void onPull() {
+			next();
+		}
+
+		@Override
+		public void onTimer(Object timerKey) throws IOException {
+			poll();
+			long now = System.nanoTime();
+			if (rescanInterval <= now - lastScan) {
+				lastScan = now;
+				arrivals.scan();
+			}
+			arrivals.check(now);
+			next();
+		}
+
+		private void next() {
+			if (isAvailable(out)) {
+				Path file = arrivals.poll();
+				if (null != file) {
+					push(out, file);
+				}
+			}
+		}
+
+		/* takes the files of watch events */
+		private void poll() {
+			for (WatchKey key = watcher.poll(); null != key; key = watcher.poll()) {
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (StandardWatchEventKinds.OVERFLOW != event.kind()) {
+						arrivals.candidate(directory.resolve((Path) event.context()));
+					}
+				}
+				key.reset();
+			}
+		}
+	}
+
+	/**
+	 * Files growing until they are complete and the ones complete until they are passed. Every file is passed once, however many times it
+	 * is found, until it is gone from directory; file gone before it is complete is forgotten and taken again if it is back.
+	 */
+	final class Arrivals {
+
+		private final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+
+		/* the files growing: the last size and modification time seen and the time they were seen first */
+		private final Map<Path, long[]> growing = new HashMap<>();
+
+		private final Set<Path> passed = new HashSet<>();
+
+		private final Queue<Path> ready = new ArrayDeque<>();
+
+		private Arrivals() {
+		}
+
+		/**
+		 * @return The next file complete, {@code null} if there is none
+		 */
+		Path poll() {
+			return ready.poll();
+		}
+
+		/**
+		 * Takes all the files of directory and forgets the ones passed, which are gone.
+		 */
+		void scan() throws IOException {
+			Set<Path> present = new HashSet<>();
+			try (Stream<Path> files = Files.list(directory)) {
+				files.forEach(file -> {
+					present.add(file);
+					candidate(file);
+				});
+			}
+			passed.retainAll(present);
+		}
+
+		/**
+		 * Takes the file found, unless it is growing or passed already.
+		 */
+		void candidate(Path file) {
+			if (matcher.matches(file) && !passed.contains(file) && !growing.containsKey(file)) {
+				growing.put(file, new long[] {-1, -1, 0});
+			}
+		}
+
+		/**
+		 * Moves the files complete to ready.
+		 * @param now The time of check in nanoseconds
+		 */
+		void check(long now) {
+			for (Iterator<Map.Entry<Path, long[]>> files = growing.entrySet().iterator(); files.hasNext(); ) {
+				Map.Entry<Path, long[]> entry = files.next();
+				Path file = entry.getKey();
+				long[] last = entry.getValue();
+				try {
+					long size = Files.size(file), modified = Files.getLastModifiedTime(file).toMillis();
+					if (size != last[0] || modified != last[1]) {
+						last[0] = size;
+						last[1] = modified;
+						last[2] = now;
+					}
+					boolean complete = marker.isEmpty()?
+							stableAfter <= now - last[2]:
+							Files.exists(file.resolveSibling(file.getFileName() + marker));
+					if (complete) {
+						files.remove();
+						passed.add(file);
+						ready.add(file);
+					}
+				} catch (IOException e) {
+					files.remove(); // gone before complete, taken again if it is back
+				}
+			}
+		}
+	}
+}
@@ -1,8 +1,10 @@
 package org.kot.test.etl.akka.stream;
 
+import akka.NotUsed;
 import akka.stream.FlowShape;
 import akka.stream.Graph;
 import akka.stream.IOResult;
+import akka.stream.OverflowStrategy;
 import akka.stream.SinkShape;
 import akka.stream.UniformFanInShape;
 import akka.stream.UniformFanOutShape;
@@ -12,10 +14,18 @@ import akka.stream.javadsl.Flow;
 import akka.stream.javadsl.GraphDSL;
 import akka.stream.javadsl.Keep;
 import akka.stream.javadsl.Merge;
+import akka.stream.javadsl.Partition;
 import akka.stream.javadsl.Sink;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
 
 /**
  * Graph utility.
@@ -40,6 +50,27 @@ public interface Grapher {
 		});
 	}
 
+	/**
+	 * Balance over the workers of adaptive number: all the {@link ConcurrencyLimit#max() workers} are materialized, but only the ones within the
+	 * limit take elements, every worker is measured for the limit to be adjusted by.
+	 * @param rows The number of rows in element the worker passes
+	 */
+	default <I, O> Graph<FlowShape<I, O>, ?> balance(ConcurrencyLimit limit, Flow<I, O, ?> worker, ToLongFunction<O> rows) {
+		return GraphDSL.create(builder -> {
+			UniformFanOutShape<I, I> balance = builder.add(Balance.create(limit.max()));
+			UniformFanInShape<O, O> merge = builder.add(Merge.create(limit.max()));
+
+			for (int i = 0; i < limit.max(); i++) {
+				FlowShape<I, O> workerStage = builder.add(limit.<I>gate(i).via(worker).via(limit.meter(i, rows)));
+				builder.from(balance.out(i))
+						.via(workerStage)
+						.toInlet(merge.in(i));
+			}
+
+			return FlowShape.of(balance.in(), merge.out());
+		});
+	}
+
 	default  <I> Graph<SinkShape<I>, CompletionStage<IOResult>> sinkTo(Sink<I, CompletionStage<IOResult>> outSink,
 	                                                                        Sink<I, CompletionStage<IOResult>> errSink) {
 		return GraphDSL.create(
@@ -55,6 +86,101 @@ public interface Grapher {
 
 	}
 
+	/**
+	 * Sink passing every element to one of the tails chosen by the route, which is evaluated once per element. Every tail has its own buffer and
+	 * runs asynchronously, so a tail lagging behind holds the others back only once its buffer is full.
+	 * @param route The index of tail for element
+	 * @param bufferSize The number of elements buffered per tail
+	 * @param tails The destinations
+	 */
+	default <I> Graph<SinkShape<I>, List<CompletionStage<IOResult>>> routeTo(ToIntFunction<I> route, int bufferSize,
+	                                                                         List<Sink<I, CompletionStage<IOResult>>> tails) {
+		List<Sink<I, CompletionStage<IOResult>>> buffered = tails.stream()
+				.map(tail -> Flow.<I>create()
+						.buffer(bufferSize, OverflowStrategy.backpressure())
+						.toMat(tail, Keep.right())
+						.async())
+				.collect(Collectors.toList());
+		return GraphDSL.create(
+				buffered, (builder, list) -> {
+					final UniformFanOutShape<I, I> partition = builder.add(Partition.create(list.size(), route::applyAsInt));
+
+					for (int t = 0; t < list.size(); t++) {
+						builder.from(partition.out(t))
+								.to((SinkShape) list.get(t));
+					}
+					return SinkShape.of(partition.in());
+				});
+	}
+
+	/**
+	 * Sink passing every element to all the tails, which outputs are merged into the sink. Every tail has its own buffer and runs asynchronously.
+	 * @param tails The flows every element passes
+	 * @param bufferSize The number of elements buffered per tail
+	 * @param sink The destination of elements passed the tails
+	 */
+	default <I, O, M> Graph<SinkShape<I>, M> broadcastTo(List<Flow<I, O, NotUsed>> tails, int bufferSize, Sink<O, M> sink) {
+		return GraphDSL.create(
+				sink, (builder, out) -> {
+					final UniformFanOutShape<I, I> broadcast = builder.add(Broadcast.create(tails.size()));
+					final UniformFanInShape<O, O> merge = builder.add(Merge.create(tails.size()));
+
+					for (int t = 0; t < tails.size(); t++) {
+						FlowShape<I, O> tail = builder.add(Flow.<I>create()
+								.buffer(bufferSize, OverflowStrategy.backpressure())
+								.via(tails.get(t))
+								.async());
+						builder.from(broadcast.out(t))
+								.via(tail)
+								.toInlet(merge.in(t));
+					}
+					builder.from(merge.out())
+							.to(out);
+					return SinkShape.of(broadcast.in());
+				});
+	}
+
+	/**
+	 * Route by hash of the key, e.g. {@code id} modulo number of destinations for integral {@code id}.
+	 * @param key The key of element, may be {@code null}
+	 * @param n The number of destinations
+	 */
+	static <I> ToIntFunction<I> byHash(Function<I, ?> key, int n) {
+		return e -> Math.floorMod(Objects.hashCode(key.apply(e)), n);
+	}
+
+	/**
+	 * Route the failed elements to the destination {@code 0} and the others to the next ones by the route given.
+	 * @param failed Whether element is failed
+	 * @param others The index among the other destinations, e.g. {@link #byHash(Function, int) by hash}
+	 */
+	static <I> ToIntFunction<I> byFailure(Predicate<I> failed, ToIntFunction<I> others) {
+		return e -> failed.test(e)? 0: 1 + others.applyAsInt(e);
+	}
+
+	/**
+	 * Splits the batch into the non-empty batches of the same route, in order of routes.
+	 */
+	static <I> List<List<I>> split(List<I> batch, ToIntFunction<I> route, int routes) {
+		List<List<I>> result = partition(batch, route, routes);
+		result.removeIf(List::isEmpty);
+		return result;
+	}
+
+	/**
+	 * Splits the batch into the batches by route, the batch of every route is there, empty if nothing is routed to.
+	 */
+	static <I> List<List<I>> partition(List<I> batch, ToIntFunction<I> route, int routes) {
+		List<List<I>> result = new ArrayList<>(routes);
+		for (int r = 0; r < routes; r++) {
+			result.add(new ArrayList<>());
+		}
+		for (I item : batch) {
+			result.get(route.applyAsInt(item)).add(item);
+		}
+		return result;
+	}
+
 	default <I> Graph<SinkShape<I>, List<CompletionStage<IOResult>>> sinkTo(List<Sink<I, CompletionStage<IOResult>>> tails) {
 		return GraphDSL.create(
 				tails, (builder, list) -> {
@@ -0,0 +1,272 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Compression;
+import akka.stream.javadsl.Flow;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Parallel gzip compression the way {@code pigz} does it: every block is compressed independently into a complete gzip member and the members
+ * are passed downstream in order of the blocks. Concatenation of members is a valid gzip file (RFC 1952), which standard tools and
+ * {@link java.util.zip.GZIPInputStream} decompress as a whole.
+ * <p>
+ * The element is the block, so upstream is expected to pass blocks of reasonable size, e.g. the ones of {@link Java2CSVStage#inBlocksOf(int)}.
+ * Blocks share no dictionary, which costs a bit of ratio on the block boundaries but lets any number of them be compressed at once.
+ * <p>
+ * Every member written has its size in the extra field of header, the same way {@code bgzip} does, but in a 4 bytes subfield {@code MS}, as
+ * block may be larger than 64KiB. Then members of file can be {@link #decompress(Path, int, Executor) inflated} concurrently as well, the same
+ * as the ones of {@code bgzip} file. Any other gzip file is inflated as a single stream.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-04-06 10:20
+ */
+public final class GzipFlow {
+
+	private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+
+	/* fixed part of header and extra field with the only subfield, which is followed by the size of member */
+	private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, FEXTRA, 0, 0, 0, 0, 0, (byte) 0xff, 8, 0, 'M', 'S', 4, 0};
+
+	private static final int FIXED_HEADER_SIZE = 10, TRAILER_SIZE = 8;
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	/* content is inflated into chunks of the size file is read in, so parser takes them within its limit the same way */
+	private static final int INFLATED_CHUNK_SIZE = 8192;
+
+	/* enough for the fixed part and any reasonable extra field */
+	private static final int MAX_HEADER_SIZE = 1024;
+
+	/* deflater and output chunk of the thread of pool, reused from block to block */
+	private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+	private static final ThreadLocal<byte[]> chunks = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+	private GzipFlow() {
+	}
+
+	/**
+	 * Constructs flow compressing every element into gzip member.
+	 * @param level The compression level, {@code 0-9} or {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param parallelism The number of blocks compressed at once
+	 * @param executor The pool to compress on
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static Flow<ByteString, ByteString, NotUsed> compress(int level, int parallelism, Executor executor) {
+		if ((0 > level || 9 < level) && Deflater.DEFAULT_COMPRESSION != level) {
+			throw new IllegalArgumentException("Compression level " + level + " is expected to be in 0-9");
+		}
+		return Flow.of(ByteString.class)
+				.filter(ByteString::nonEmpty)
+				.mapAsync(parallelism, block -> CompletableFuture.supplyAsync(() -> member(block, level), executor));
+	}
+
+	/**
+	 * Compresses the block into a complete gzip member: header, raw deflate stream and trailer with CRC-32 and size of the block.
+	 */
+	static ByteString member(ByteString block, int level) {
+		byte[] input = new byte[block.size()];
+		block.copyToBuffer(ByteBuffer.wrap(input));
+		CRC32 crc = new CRC32();
+		crc.update(input, 0, input.length);
+
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setLevel(level);
+		deflater.setInput(input);
+		deflater.finish();
+		byte[] chunk = chunks.get();
+		ByteStringBuilder deflated = ByteString.createBuilder();
+		while (!deflater.finished()) {
+			deflated.putBytes(chunk, 0, deflater.deflate(chunk));
+		}
+		ByteStringBuilder result = ByteString.createBuilder();
+		result.putBytes(HEADER);
+		putInt(result, HEADER.length + 4 + deflated.length() + TRAILER_SIZE);
+		result.append(deflated.result());
+		putInt(result, (int) crc.getValue());
+		putInt(result, input.length);
+		return result.result();
+	}
+
+	/**
+	 * Tells whether the file starts with gzip magic bytes.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static boolean isCompressed(Path file) throws IOException {
+		ByteString head = head(file, 2);
+		return 2 == head.size() && 0x1f == head.apply(0) && (byte) 0x8b == head.apply(1);
+	}
+
+	/**
+	 * Constructs flow inflating gzip file into chunks of decompressed content. If the first member of file has its size in header, members are
+	 * inflated concurrently, every one of them is expected to have the size then; otherwise the file is inflated as a single stream of members.
+	 * @param file The file to inflate, only its first header is read here
+	 * @param parallelism The number of members inflated at once
+	 * @param executor The pool to inflate members on
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static Flow<ByteString, ByteString, NotUsed> decompress(Path file, int parallelism, Executor executor) throws IOException {
+		if (0 >= memberSize(head(file, MAX_HEADER_SIZE))) {
+			return Compression.gunzip(INFLATED_CHUNK_SIZE);
+		}
+		return Flow.of(ByteString.class)
+				.via(new GzipMemberStage())
+				.mapAsync(parallelism, member -> CompletableFuture.supplyAsync(() -> inflate(member), executor))
+				.mapConcat(chunks -> chunks);
+	}
+
+	/**
+	 * Size of member from the extra field of its header, either {@code MS} one or {@code BC} one of {@code bgzip}.
+	 * @param data The data starting with gzip member
+	 * @return The size of member, {@code 0} if header has no size or {@code -1} if the data is too short to tell
+	 * @throws ZipException If data does not start with gzip header
+	 */
+	static long memberSize(ByteString data) throws ZipException {
+		if (FIXED_HEADER_SIZE > data.size()) {
+			return -1;
+		}
+		checkHeader(data);
+		if (0 == (data.apply(3) & FEXTRA)) {
+			return 0;
+		}
+		if (FIXED_HEADER_SIZE + 2 > data.size()) {
+			return -1;
+		}
+		int end = FIXED_HEADER_SIZE + 2 + getShort(data, FIXED_HEADER_SIZE);
+		if (end > data.size()) {
+			return -1;
+		}
+		for (int i = FIXED_HEADER_SIZE + 2; i + 4 <= end; i += 4 + getShort(data, i + 2)) {
+			int length = getShort(data, i + 2);
+			if ('M' == data.apply(i) && 'S' == data.apply(i + 1) && 4 == length && i + 8 <= end) {
+				return getInt(data, i + 4) & 0xffffffffL;
+			}
+			if ('B' == data.apply(i) && 'C' == data.apply(i + 1) && 2 == length && i + 6 <= end) {
+				return getShort(data, i + 4) + 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Inflates complete gzip member into chunks of its content, which share the single array of the size told by the trailer.
+	 */
+	static List<ByteString> inflate(ByteString member) {
+		try {
+			byte[] input = new byte[member.size()];
+			member.copyToBuffer(ByteBuffer.wrap(input));
+			int header = headerLength(member);
+			int trailer = input.length - TRAILER_SIZE;
+			if (0 > header || header > trailer) {
+				throw new ZipException("Gzip member is incomplete");
+			}
+			int size = getInt(member, trailer + 4);
+			if (0 > size || Integer.MAX_VALUE - 8 < size) {
+				throw new ZipException("Gzip member is too large to inflate at once");
+			}
+			/* a byte more, so the inflater reaches the end of stream while there is room in output */
+			byte[] output = new byte[size + 1];
+			int length = 0;
+			Inflater inflater = new Inflater(true);
+			try {
+				inflater.setInput(input, header, trailer - header);
+				while (!inflater.finished()) {
+					int n = inflater.inflate(output, length, output.length - length);
+					if (0 == n && (inflater.needsInput() || inflater.needsDictionary() || length == output.length)) {
+						break;
+					}
+					length += n;
+				}
+				if (!inflater.finished() || length != size) {
+					throw new ZipException("Gzip member is corrupted: size does not match");
+				}
+			} finally {
+				inflater.end();
+			}
+			CRC32 crc = new CRC32();
+			crc.update(output, 0, size);
+			if (getInt(member, trailer) != (int) crc.getValue()) {
+				throw new ZipException("Gzip member is corrupted: CRC does not match");
+			}
+			List<ByteString> result = new ArrayList<>(size / INFLATED_CHUNK_SIZE + 1);
+			for (int i = 0; i < size; i += INFLATED_CHUNK_SIZE) {
+				result.add(ByteString.fromArrayUnsafe(output, i, Math.min(INFLATED_CHUNK_SIZE, size - i)));
+			}
+			return result;
+		} catch (DataFormatException | ZipException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/* the length of header with all the optional fields, -1 if the data is too short */
+	private static int headerLength(ByteString data) throws ZipException {
+		if (FIXED_HEADER_SIZE > data.size()) {
+			return -1;
+		}
+		checkHeader(data);
+		int flags = data.apply(3);
+		int result = FIXED_HEADER_SIZE;
+		if (0 != (flags & FEXTRA)) {
+			result = (result + 2 > data.size())? -1: result + 2 + getShort(data, result);
+		}
+		for (int flag : new int[] {FNAME, FCOMMENT}) {
+			if (0 <= result && 0 != (flags & flag)) {
+				int end = data.indexOf((byte) 0, result);
+				result = (0 > end)? -1: end + 1;
+			}
+		}
+		if (0 <= result && 0 != (flags & FHCRC)) {
+			result += 2;
+		}
+		return (result > data.size())? -1: result;
+	}
+
+	private static void checkHeader(ByteString data) throws ZipException {
+		if (0x1f != data.apply(0) || (byte) 0x8b != data.apply(1) || Deflater.DEFLATED != data.apply(2)) {
+			throw new ZipException("Not in gzip format");
+		}
+	}
+
+	private static ByteString head(Path file, int size) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer result = ByteBuffer.allocate(size);
+			while (result.hasRemaining() && 0 <= channel.read(result)) {
+				// reading up to the size or the end of file
+			}
+			result.flip();
+			return ByteString.fromByteBuffer(result);
+		}
+	}
+
+	private static int getShort(ByteString data, int offset) {
+		return (data.apply(offset) & 0xff) | (data.apply(offset + 1) & 0xff) << 8;
+	}
+
+	private static int getInt(ByteString data, int offset) {
+		return getShort(data, offset) | getShort(data, offset + 2) << 16;
+	}
+
+	/* little endian, as gzip trailer is */
+	private static void putInt(ByteStringBuilder buffer, int value) {
+		for (int i = 0; i < 4; i++) {
+			buffer.putByte((byte) (value >>> (i * 8)));
+		}
+	}
+}
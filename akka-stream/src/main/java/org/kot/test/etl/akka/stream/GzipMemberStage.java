@@ -0,0 +1,89 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.stream.Attributes;
+import akka.stream.FlowShape;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+import akka.stream.stage.InHandler;
+import akka.stream.stage.OutHandler;
+import akka.util.ByteString;
+
+import java.util.zip.ZipException;
+
+/**
+ * Framing of gzip stream into complete members by the size of member in header, so the members can be inflated independently.
+ * <p>
+ * Every member is expected to have its size in header, see {@link GzipFlow#memberSize(ByteString)}; stage fails on the first one which has not.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-04-13 10:50
+ */
+class GzipMemberStage extends GraphStage<FlowShape<ByteString, ByteString>> {
+
+	private final Inlet<ByteString> in = Inlet.create("GzipMember.in");
+
+	private final Outlet<ByteString> out = Outlet.create("GzipMember.out");
+
+	private final FlowShape<ByteString, ByteString> shape = FlowShape.of(in, out);
+
+	@Override
+	public FlowShape<ByteString, ByteString> shape() {
+		return shape;
+	}
+
+	@Override
+	public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+		return new Logic();
+	}
+
+	private class Logic extends GraphStageLogic implements InHandler, OutHandler {
+
+		private ByteString pending = ByteString.empty();
+
+		Logic() {
+			super(shape);
+			setHandlers(in, out, this);
+		}
+
+		@Override
+		public void onPush() throws ZipException {
+			pending = pending.concat(grab(in));
+			next();
+		}
+
+		@Override
+		public void onPull() throws ZipException {
+			next();
+		}
+
+		@Override
+		public void onUpstreamFinish() throws ZipException {
+			if (pending.isEmpty()) {
+				completeStage();
+			} else if (isAvailable(out)) {
+				next();
+			}
+		}
+
+		/* passes the member on, if it is complete, or demands more */
+		private void next() throws ZipException {
+			long size = GzipFlow.memberSize(pending);
+			if (0 == size) {
+				throw new ZipException("Gzip member has no size in header");
+			}
+			if (0 < size && size <= pending.size()) {
+				ByteString member = pending.take((int) size);
+				pending = pending.drop((int) size);
+				push(out, member);
+				if (pending.isEmpty() && isClosed(in)) {
+					completeStage();
+				}
+			} else if (isClosed(in)) {
+				throw new ZipException("Unexpected end of gzip stream, " + pending.size() + " bytes of member left");
+			} else if (!hasBeenPulled(in)) {
+				pull(in);
+			}
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package org.kot.test.etl.akka.stream;
+
+import com.typesafe.config.Config;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Settings of import taken from the {@code importer.*} keys of config, shared by the engines of {@link CSVImport} and {@link ThreadedImport},
+ * along with the means they both take the files, name the output files, parse and deduplicate by. The keys of the modes an engine does not
+ * support are read all the same, the engine rejects the modes enabled.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-15 18:00
+ */
+final class ImportSettings {
+
+	final Path importDirectory;
+
+	final String filePattern;
+
+	final Path errorDirectory;
+
+	final Path outDirectory;
+
+	final int concurrentFiles;
+
+	final boolean inPlaceParsing;
+
+	final boolean fusedBinding;
+
+	final boolean projection;
+
+	final String scanner;
+
+	final String record;
+
+	final boolean batching;
+
+	final int batchSize;
+
+	final Duration flushAfter;
+
+	final int outputBlockSize;
+
+	final int outputFiles;
+
+	final int outputBuffer;
+
+	final boolean parquetOutput;
+
+	final int rowGroupSize;
+
+	final int pageSize;
+
+	final int dictionaryPageSize;
+
+	final String parquetCodec;
+
+	final int decimalScale;
+
+	final String decimalRounding;
+
+	final boolean compressOutput;
+
+	final int outputCompressionBlockSize;
+
+	final int outputCompressionLevel;
+
+	final boolean compressErrors;
+
+	final int errorCompressionBlockSize;
+
+	final int errorCompressionLevel;
+
+	final int compressionParallelism;
+
+	final int decompressionParallelism;
+
+	final String source;
+
+	final int mappedWindowSize;
+
+	final boolean splitting;
+
+	final long rangeSize;
+
+	final int rangeParallelism;
+
+	final boolean orderedRanges;
+
+	final int rangeBuffer;
+
+	final boolean metering;
+
+	final boolean histograms;
+
+	final Duration metricsInterval;
+
+	final boolean checkpointing;
+
+	final Path journalFile;
+
+	final Duration journalInterval;
+
+	final long unitSize;
+
+	final int unitRows;
+
+	final boolean watching;
+
+	final String watchMarker;
+
+	final Duration stableAfter;
+
+	final Duration pollInterval;
+
+	final Duration rescanInterval;
+
+	final boolean deduplicating;
+
+	final String deduplicationPolicy;
+
+	final long expectedIds;
+
+	final int deduplicationSegments;
+
+	final String ioDispatcher;
+
+	final String cpuDispatcher;
+
+	final Config boundaries;
+
+	final boolean adaptiveConcurrency;
+
+	final Config concurrencyLimit;
+
+	private ImportSettings(Config config) {
+		this.importDirectory = Paths.get(config.getString("importer.folder"));
+		this.filePattern = config.getString("importer.file-pattern");
+		this.errorDirectory = Paths.get(config.getString("importer.folder-failed"));
+		this.outDirectory = Paths.get(config.getString("importer.folder-processed"));
+		this.concurrentFiles = config.getInt("importer.concurrency");
+		this.inPlaceParsing = config.getBoolean("importer.in-place-parsing");
+		this.fusedBinding = config.getBoolean("importer.fused-binding");
+		this.projection = config.getBoolean("importer.projection");
+		this.scanner = config.getString("importer.scanner");
+		this.record = config.getString("importer.record");
+		this.batching = config.getBoolean("importer.batch.enabled");
+		this.batchSize = config.getInt("importer.batch.size");
+		this.flushAfter = config.getDuration("importer.batch.flush-after");
+		this.outputBlockSize = config.getBytes("importer.output-block-size").intValue();
+		this.outputFiles = config.getInt("importer.output-files");
+		this.outputBuffer = config.getInt("importer.output-buffer");
+		String outputFormat = config.getString("importer.output-format");
+		if (!"csv".equals(outputFormat) && !"parquet".equals(outputFormat)) {
+			throw new IllegalArgumentException("Unknown output format '" + outputFormat + "'");
+		}
+		this.parquetOutput = "parquet".equals(outputFormat);
+		this.rowGroupSize = config.getBytes("importer.parquet.row-group-size").intValue();
+		this.pageSize = config.getBytes("importer.parquet.page-size").intValue();
+		this.dictionaryPageSize = config.getBoolean("importer.parquet.dictionary")? config.getBytes("importer.parquet.dictionary-page-size").intValue(): 0;
+		this.parquetCodec = config.getString("importer.parquet.codec");
+		this.decimalScale = config.getInt("importer.parquet.decimal-scale");
+		this.decimalRounding = config.getString("importer.parquet.decimal-rounding");
+		this.compressOutput = config.getBoolean("importer.compression.output.enabled");
+		this.outputCompressionBlockSize = config.getBytes("importer.compression.output.block-size").intValue();
+		this.outputCompressionLevel = config.getInt("importer.compression.output.level");
+		this.compressErrors = config.getBoolean("importer.compression.error.enabled");
+		this.errorCompressionBlockSize = config.getBytes("importer.compression.error.block-size").intValue();
+		this.errorCompressionLevel = config.getInt("importer.compression.error.level");
+		this.compressionParallelism = config.getInt("importer.compression.parallelism");
+		this.decompressionParallelism = config.getInt("importer.decompression.parallelism");
+		this.source = config.getString("importer.source");
+		this.mappedWindowSize = config.getBytes("importer.mapped-window-size").intValue();
+		this.splitting = config.getBoolean("importer.split.enabled");
+		this.rangeSize = config.getBytes("importer.split.range-size");
+		this.rangeParallelism = config.getInt("importer.split.parallelism");
+		this.orderedRanges = config.getBoolean("importer.split.ordered");
+		this.rangeBuffer = config.getInt("importer.split.range-buffer");
+		this.metering = config.getBoolean("importer.metrics.enabled");
+		this.histograms = config.getBoolean("importer.metrics.histogram");
+		this.metricsInterval = config.getDuration("importer.metrics.report-interval");
+		this.checkpointing = config.getBoolean("importer.checkpoint.enabled");
+		this.journalFile = Paths.get(config.getString("importer.checkpoint.journal"));
+		this.journalInterval = config.getDuration("importer.checkpoint.interval");
+		this.unitSize = config.getBytes("importer.checkpoint.unit-size");
+		this.unitRows = config.getInt("importer.checkpoint.unit-rows");
+		this.watching = config.getBoolean("importer.watch.enabled");
+		this.watchMarker = config.getString("importer.watch.marker");
+		this.stableAfter = config.getDuration("importer.watch.stable-after");
+		this.pollInterval = config.getDuration("importer.watch.poll-interval");
+		this.rescanInterval = config.getDuration("importer.watch.rescan-interval");
+		this.deduplicating = config.getBoolean("importer.dedup.enabled");
+		this.deduplicationPolicy = config.getString("importer.dedup.policy");
+		this.expectedIds = config.getLong("importer.dedup.expected-ids");
+		this.deduplicationSegments = config.getInt("importer.dedup.segments");
+		this.ioDispatcher = config.getString("importer.stages.io-dispatcher");
+		this.cpuDispatcher = config.getString("importer.stages.cpu-dispatcher");
+		this.boundaries = config.getConfig("importer.stages.boundaries");
+		this.adaptiveConcurrency = config.getBoolean("importer.adaptive-concurrency.enabled");
+		this.concurrencyLimit = config.getConfig("importer.adaptive-concurrency");
+	}
+
+	/**
+	 * Takes the settings of the {@code importer.*} keys of config.
+	 */
+	static ImportSettings of(Config config) {
+		return new ImportSettings(config);
+	}
+
+	/**
+	 * Lists the files of the import folder matching the pattern in order of their names, the output and error folders are created first.
+	 */
+	List<Path> files() throws IOException {
+		Files.createDirectories(outDirectory);
+		Files.createDirectories(errorDirectory);
+
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + filePattern);
+		try (Stream<Path> files = Files.list(importDirectory)) {
+			return files.filter(matcher::matches).sorted().collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * @param tail The index of tail, the tail {@code 0} is written to the error file, the others to output files
+	 * @param tails The number of tails
+	 */
+	Path output(int tail, int tails) {
+		if (0 == tail) {
+			return errorDirectory.resolve(compressErrors? "error.csv.gz": "error.csv");
+		}
+		String name = (2 == tails)? "success": "success-" + (tail - 1);
+		if (parquetOutput) {
+			return outDirectory.resolve(name + ".parquet");
+		}
+		name += ".csv" + (compressOutput? ".gz": "");
+		return outDirectory.resolve(name);
+	}
+
+	/**
+	 * Parsing by the configured parser, in place and by scanner or not, projected to the columns of the binding if projection is enabled.
+	 */
+	CSVParsingStage parsing(char delimiter, char quoteChar, char escapeChar, int maximumLineLength) {
+		CSVParsingStage result;
+		if (!inPlaceParsing) {
+			result = CSVParsingStage.parse(delimiter, quoteChar, escapeChar, maximumLineLength);
+		} else if (scanner.isEmpty()) {
+			result = CSVParsingStage.parseInPlace(delimiter, quoteChar, escapeChar, maximumLineLength);
+		} else {
+			result = CSVParsingStage.parseInPlace(delimiter, quoteChar, escapeChar, maximumLineLength, CSVScanner.of(scanner, delimiter, quoteChar, escapeChar));
+		}
+		return projection? result.project(Binding.inMappings().stream().map(Binding.Mapping::fromName).collect(Collectors.toList())): result;
+	}
+
+	/**
+	 * Deduplication of records by the key shared by all the workers, if it is enabled.
+	 * @return The deduplication or {@code null}, if it is disabled
+	 */
+	<T> Deduplication<T> deduplication(ToLongFunction<T> key, Predicate<T> failed, BiFunction<T, List<String>, T> fail) {
+		if (!deduplicating) {
+			return null;
+		}
+		return Deduplication.of(deduplicationPolicy, deduplicationSegments, expectedIds, key, failed, fail);
+	}
+}
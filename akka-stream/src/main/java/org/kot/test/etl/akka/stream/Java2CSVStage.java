@@ -1,102 +1,252 @@
 package org.kot.test.etl.akka.stream;
 
+import akka.NotUsed;
 import akka.stream.Attributes;
 import akka.stream.FlowShape;
 import akka.stream.Inlet;
 import akka.stream.Outlet;
-import akka.stream.Shape;
-import akka.stream.stage.AbstractInHandler;
-import akka.stream.stage.AbstractOutHandler;
+import akka.stream.javadsl.Flow;
 import akka.stream.stage.GraphStage;
 import akka.stream.stage.GraphStageLogic;
 import akka.stream.stage.InHandler;
+import akka.stream.stage.OutHandler;
 import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 /**
  * Graph stage in flow shape to do a binding from Java to CSV.
+ * <p>
+ * Serializes either {@link #toMapping(List) maps} or {@link #toMapping(Row.Schema, List) rows}, the slots of row are resolved by the names once on
+ * construction and integral values of row are read as primitives. Every value is written straight into the output buffer of the stage, which
+ * is passed downstream line by line or, being {@link #inBlocksOf(int) configured so}, in blocks of at least the given size.
  * @author <a href=mailto:striped@gmail.com>striped</a>
  * @created 2018-12-16 16:20
  */
-public class Java2CSVStage extends GraphStage<FlowShape<Map<String, ?>, ByteString>> {
+public class Java2CSVStage<T> extends GraphStage<FlowShape<T, ByteString>> {
 
-	private final Inlet<Map<String, ?>> in;
+	private static final byte DELIMITER = ',', LF = '\n';
+
+	private final Inlet<T> in;
 
 	private final Outlet<ByteString> out;
 
-	private final FlowShape<Map<String, ?>, ByteString> shape;
+	private final FlowShape<T, ByteString> shape;
 
 	private final ByteString header;
 
 	private final List<Binding.Mapping<?, ByteString>> adapters;
 
-	private Java2CSVStage(List<Binding.Mapping<?, ByteString>> mappings) {
+	private final Values<T> values;
+
+	private final int blockSize;
+
+	private Java2CSVStage(List<Binding.Mapping<?, ByteString>> mappings, Values<T> values, int blockSize) {
 		in = Inlet.create("Java2CSV.in");
 		out = Outlet.create("Java2CSV.out");
 		shape = FlowShape.of(in, out);
 		header = ByteString.fromString(mappings.stream().map(Binding.Mapping::toName).collect(Collectors.joining(",")) + "\n");
-		adapters = mappings;
+		this.adapters = mappings;
+		this.values = values;
+		this.blockSize = blockSize;
+	}
+
+	@SuppressWarnings("WeakerAccess")
+	public static Java2CSVStage<Map<String, ?>> toMapping(List<Binding.Mapping<?, ByteString>> mappings) {
+		String[] names = mappings.stream().map(Binding.Mapping::toName).toArray(String[]::new);
+		return new Java2CSVStage<>(mappings, (map, i) -> map.get(names[i]), 0);
+	}
+
+	/**
+	 * Constructs stage serializing rows of the schema, mapping with no slot of the same name in schema gets {@code null}.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static Java2CSVStage<Row> toMapping(Row.Schema schema, List<Binding.Mapping<?, ByteString>> mappings) {
+		int[] slots = mappings.stream().mapToInt(m -> schema.indexOf(m.toName())).toArray();
+		return new Java2CSVStage<>(mappings, new Values<Row>() {
+			@Override
+			public Object get(Row row, int index) {
+				return row.get(slots[index]);
+			}
+
+			@Override
+			public boolean isPrimitive(Row row, int index) {
+				return 0 <= slots[index] && row.isPrimitive(slots[index]);
+			}
+
+			@Override
+			public long getLong(Row row, int index) {
+				return row.getLong(slots[index]);
+			}
+		}, 0);
 	}
 
+	/**
+	 * Stage doing the same serialization, but passing the output downstream in blocks, so file is written by large contiguous chunks.
+	 * @param size The size of block in bytes, the last one may be smaller; {@code 0} to pass every line (or batch) as soon as it is serialized
+	 */
 	@SuppressWarnings("WeakerAccess")
-	public static Java2CSVStage toMapping(List<Binding.Mapping<?, ByteString>> mappings) {
-		return new Java2CSVStage(mappings);
+	public Java2CSVStage<T> inBlocksOf(int size) {
+		return new Java2CSVStage<>(adapters, values, size);
+	}
+
+	/**
+	 * Flow doing the same serialization over batches, every batch is serialized into a single chunk unless it is configured to pass output in
+	 * blocks.
+	 * @see CSVParsingStage#batched(int, java.time.Duration)
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public Flow<List<T>, ByteString, NotUsed> batched() {
+		Inlet<List<T>> batches = Inlet.create("Java2CSV.batches");
+		FlowShape<List<T>, ByteString> batchShape = FlowShape.of(batches, Outlet.create("Java2CSV.batches.out"));
+		return Flow.fromGraph(new GraphStage<FlowShape<List<T>, ByteString>>() {
+			@Override
+			public FlowShape<List<T>, ByteString> shape() {
+				return batchShape;
+			}
+
+			@Override
+			public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+				return new Logic<>(batchShape, (batch, buffer) -> {
+					List<String> errors = new ArrayList<>();
+					for (T item : batch) {
+						write(item, buffer, errors);
+					}
+				});
+			}
+		});
 	}
 
 	@Override
-	public FlowShape<Map<String, ?>, ByteString> shape() {
+	public FlowShape<T, ByteString> shape() {
 		return shape;
 	}
 
 	@Override
 	public GraphStageLogic createLogic(Attributes inheritedAttributes) {
-		return new Logic(shape);
+		List<String> errors = new ArrayList<>();
+		return new Logic<>(shape, (item, buffer) -> write(item, buffer, errors));
 	}
 
-	private ByteString toLine(Map<String, ?> map) {
-		List<String> errors = new ArrayList<>();
-		ByteString delimiter = ByteString.fromString(",");
-
-		return adapters.stream()
-				.map(a -> {
-					Object v = map.get(a.toName());
-					return ((Binding.Mapping<Object, ByteString>) a).apply(v, errors);
-				})
-				.reduce(ByteString.empty(), (v, u) -> v.isEmpty()? u: v.concat(delimiter).concat(u))
-				.concat(ByteString.fromString("\n"));
+	ByteString toLine(T item) {
+		ByteStringBuilder result = ByteString.createBuilder();
+		write(item, result, new ArrayList<>());
+		return result.result();
 	}
 
-	private class Logic extends GraphStageLogic {
+	/**
+	 * Serializes the items into a single chunk, the header goes first, if it is asked for and there is any item.
+	 */
+	ByteString toLines(List<T> items, boolean header) {
+		ByteStringBuilder result = ByteString.createBuilder();
+		if (header && !items.isEmpty()) {
+			result.append(this.header);
+		}
+		List<String> errors = new ArrayList<>();
+		for (T item : items) {
+			write(item, result, errors);
+		}
+		return result.result();
+	}
 
-		private final InHandler rest = new AbstractInHandler() {
-			@Override
-			public void onPush() {
-				Map<String, ?> item = grab(in);
-				push(out, toLine(item));
+	@SuppressWarnings("unchecked")
+	private void write(T item, ByteStringBuilder buffer, List<String> errors) {
+		for (int i = 0; i < adapters.size(); i++) {
+			if (0 < i) {
+				buffer.putByte(DELIMITER);
+			}
+			Binding.Mapping<Object, ByteString> adapter = (Binding.Mapping<Object, ByteString>) adapters.get(i);
+			if (adapter instanceof Binding.EncodingMapping && values.isPrimitive(item, i)) {
+				ByteEncoder.putLong(buffer, values.getLong(item, i));
+				continue;
+			}
+			Object value = values.get(item, i);
+			if (adapter instanceof Binding.EncodingMapping) {
+				((Binding.EncodingMapping<Object>) adapter).encode(value, buffer);
+			} else {
+				buffer.append(adapter.apply(value, errors));
 			}
-		};
+		}
+		buffer.putByte(LF);
+	}
+
+	/**
+	 * Accessor to the value of item for the mapping of given index.
+	 */
+	private interface Values<T> {
+
+		Object get(T item, int index);
+
+		/**
+		 * @return Whether the value is integral one kept primitive, which is read by {@link #getLong(Object, int)} and written in decimal with no
+		 * boxing
+		 */
+		default boolean isPrimitive(T item, int index) {
+			return false;
+		}
+
+		default long getLong(T item, int index) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private class Logic<I> extends GraphStageLogic implements InHandler, OutHandler {
+
+		private final Inlet<I> in;
 
-		Logic(Shape shape) {
+		private final Outlet<ByteString> out;
+
+		private final BiConsumer<I, ByteStringBuilder> writer;
+
+		private final ByteStringBuilder buffer = ByteString.createBuilder();
+
+		private boolean started;
+
+		Logic(FlowShape<I, ByteString> shape, BiConsumer<I, ByteStringBuilder> writer) {
 			super(shape);
-			setHandler(in, new AbstractInHandler() {
-				@Override
-				public void onPush() {
-					Map<String, ?> item = grab(in);
-					push(out, header.concat(toLine(item)));
-					setHandler(in, rest);
-				}
-			});
-			setHandler(out, new AbstractOutHandler() {
-				@Override
-				public void onPull() {
-					pull(in);
-				}
-			});
+			this.in = shape.in();
+			this.out = shape.out();
+			this.writer = writer;
+			setHandlers(in, out, this);
+		}
+
+		@Override
+		public void onPush() {
+			I item = grab(in);
+			if (!started) {
+				buffer.append(header);
+				started = true;
+			}
+			writer.accept(item, buffer);
+			if (blockSize <= buffer.length()) {
+				push(out, flush());
+			} else {
+				pull(in);
+			}
+		}
+
+		@Override
+		public void onPull() {
+			pull(in);
 		}
 
+		@Override
+		public void onUpstreamFinish() {
+			if (0 < buffer.length()) {
+				emit(out, flush());
+			}
+			completeStage();
+		}
+
+		private ByteString flush() {
+			ByteString result = buffer.result();
+			buffer.clear();
+			return result;
+		}
 	}
 }
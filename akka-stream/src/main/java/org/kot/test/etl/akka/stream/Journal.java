@@ -0,0 +1,266 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Journal of import progress, which lets the import be resumed after failure with the same output as of the run with no failure.
+ * <p>
+ * Input file is committed by units, which are the ranges ending with the end of line: the journal keeps the end of the last unit committed, the
+ * number of rows of the committed units and whether the file is done. Every output file keeps the size it had when the last unit was committed.
+ * On resume an output file is truncated to its committed size, so the rows of units written but not committed are dropped and produced again
+ * from the inputs resumed from their committed ends, or by skipping their committed rows, if they are compressed and can't be read from an
+ * offset.
+ * <p>
+ * Journal is kept in memory and stored at most once per interval and on {@link #close() close}, by replacement of the file with a complete new
+ * one. The output files are forced to the storage device before, so the journal never commits more than the device has. Format is a line per
+ * file, tab separated: {@code input <end> <rows> <done> <path>} or {@code output <size> <path>}.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-04-20 10:15
+ */
+public class Journal implements Closeable {
+
+	private static final String INPUT = "input", OUTPUT = "output";
+
+	private final Path file;
+
+	private final long interval;
+
+	private final Map<Path, Progress> inputs = new LinkedHashMap<>();
+
+	private final Map<Path, Long> outputs = new LinkedHashMap<>();
+
+	private final List<Output> opened = new ArrayList<>();
+
+	private long lastStore = System.nanoTime();
+
+	private Journal(Path file, Duration interval) {
+		this.file = file;
+		this.interval = interval.toNanos();
+	}
+
+	/**
+	 * Opens the journal, which is empty if the file does not exist.
+	 * @param file The file of journal
+	 * @param interval The time between subsequent stores of the journal
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static Journal open(Path file, Duration interval) throws IOException {
+		Journal result = new Journal(file, interval);
+		if (Files.exists(file)) {
+			for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+				String[] fields = line.split("\t", 5);
+				if (INPUT.equals(fields[0]) && 5 == fields.length) {
+					result.inputs.put(key(Paths.get(fields[4])),
+							new Progress(Long.parseLong(fields[1]), Long.parseLong(fields[2]), Boolean.parseBoolean(fields[3])));
+				} else if (OUTPUT.equals(fields[0]) && 3 == fields.length) {
+					result.outputs.put(key(Paths.get(fields[2])), Long.parseLong(fields[1]));
+				} else if (!line.isEmpty()) {
+					throw new IOException("Malformed line of journal " + file + ": " + line);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The progress of input file, the one of no unit committed if the file is not in journal.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public synchronized Progress progress(Path input) {
+		return inputs.getOrDefault(key(input), Progress.NONE);
+	}
+
+	/**
+	 * Opens output file for appending, truncated to its committed size.
+	 * @param output The output file
+	 * @return The output, which writes the header first if the file is empty
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public synchronized Output output(Path output) throws IOException {
+		long size = outputs.getOrDefault(key(output), 0L);
+		outputs.put(key(output), size);
+		FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			if (channel.size() < size) {
+				throw new IOException("Output " + output + " is " + channel.size() + " bytes, which is less than committed " + size + " bytes");
+			}
+			channel.truncate(size);
+			channel.position(size);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		Output result = new Output(output, channel);
+		opened.add(result);
+		return result;
+	}
+
+	/**
+	 * Commits the unit of input file and the sizes the output files have after the unit is written into them. Stores the journal, if the
+	 * interval has passed since the last store.
+	 * @param input The input file
+	 * @param end The end of unit in the file
+	 * @param rows The number of rows in the unit
+	 * @param done Whether the unit is the last one of the file
+	 * @param outputs The output files written
+	 * @param sizes The sizes of output files
+	 */
+	synchronized void commit(Path input, long end, long rows, boolean done, Output[] outputs, long[] sizes) throws IOException {
+		Progress progress = progress(input);
+		inputs.put(key(input), new Progress(end, progress.rows + rows, done));
+		for (int i = 0; i < outputs.length; i++) {
+			this.outputs.put(key(outputs[i].file), sizes[i]);
+		}
+		if (interval <= System.nanoTime() - lastStore) {
+			store();
+		}
+	}
+
+	/**
+	 * Stores the journal and closes the output files.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			store();
+		} finally {
+			for (Output output : opened) {
+				output.close();
+			}
+			opened.clear();
+		}
+	}
+
+	private void store() throws IOException {
+		for (Output output : opened) {
+			output.channel.force(false);
+		}
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (BufferedWriter out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+			for (Map.Entry<Path, Progress> input : inputs.entrySet()) {
+				Progress progress = input.getValue();
+				out.write(String.join("\t", INPUT, Long.toString(progress.end), Long.toString(progress.rows), Boolean.toString(progress.done),
+						input.getKey().toString()));
+				out.newLine();
+			}
+			for (Map.Entry<Path, Long> output : outputs.entrySet()) {
+				out.write(String.join("\t", OUTPUT, Long.toString(output.getValue()), output.getKey().toString()));
+				out.newLine();
+			}
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		lastStore = System.nanoTime();
+	}
+
+	private static Path key(Path file) {
+		return file.toAbsolutePath().normalize();
+	}
+
+	/**
+	 * Committed progress of input file.
+	 */
+	public static final class Progress {
+
+		static final Progress NONE = new Progress(0, 0, false);
+
+		private final long end;
+
+		private final long rows;
+
+		private final boolean done;
+
+		Progress(long end, long rows, boolean done) {
+			this.end = end;
+			this.rows = rows;
+			this.done = done;
+		}
+
+		/**
+		 * @return The end of the last unit committed, which is the start of line the file is resumed from; always 0 for compressed file
+		 */
+		public long end() {
+			return end;
+		}
+
+		public long rows() {
+			return rows;
+		}
+
+		public boolean isDone() {
+			return done;
+		}
+	}
+
+	/**
+	 * Output file appended by a single writer at a time.
+	 */
+	public static final class Output implements Closeable {
+
+		private final Path file;
+
+		private final FileChannel channel;
+
+		private boolean started;
+
+		private Output(Path file, FileChannel channel) throws IOException {
+			this.file = file;
+			this.channel = channel;
+			this.started = 0 < channel.position();
+		}
+
+		/**
+		 * Tells whether the header is to be written along with the next data: once for the empty file, if the data are not empty.
+		 */
+		boolean header(boolean data) {
+			boolean result = !started && data;
+			started |= data;
+			return result;
+		}
+
+		/**
+		 * Appends the data.
+		 * @return The size of file after the data is written
+		 */
+		long append(ByteString data) throws IOException {
+			for (ByteBuffer buffer : data.getByteBuffers()) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			return channel.position();
+		}
+
+		/**
+		 * @return The size of file written so far
+		 */
+		long size() {
+			try {
+				return channel.position();
+			} catch (IOException e) {
+				return 0;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.stream.Attributes;
+import akka.stream.BidiShape;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.stage.AbstractInHandler;
+import akka.stream.stage.AbstractOutHandler;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+
+/**
+ * Stage around the flow metered, joined to it, which records the latency of every element the flow emits from the moment the element it is
+ * made of enters the flow into {@link Metrics.Stage}.
+ * <p>
+ * The flow may emit an element per element taken, a batch of elements or a number of rows of a chunk; so the element emitted is counted from
+ * the earliest of the elements entered since the previous one was emitted, or from the last element entered if there are none. That is exact
+ * for an element per element and for batches, while the row completed by the next chunk is counted from the latter.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-16 12:10
+ */
+class LatencyStage<I, O> extends GraphStage<BidiShape<I, I, O, O>> {
+
+	private final Metrics.Stage metrics;
+
+	private final Inlet<I> in;
+
+	private final Outlet<I> toFlow;
+
+	private final Inlet<O> fromFlow;
+
+	private final Outlet<O> out;
+
+	private final BidiShape<I, I, O, O> shape;
+
+	LatencyStage(Metrics.Stage metrics) {
+		this.metrics = metrics;
+		in = Inlet.create("Latency." + metrics.getName() + ".in");
+		toFlow = Outlet.create("Latency." + metrics.getName() + ".toFlow");
+		fromFlow = Inlet.create("Latency." + metrics.getName() + ".fromFlow");
+		out = Outlet.create("Latency." + metrics.getName() + ".out");
+		shape = BidiShape.of(in, toFlow, fromFlow, out);
+	}
+
+	@Override
+	public BidiShape<I, I, O, O> shape() {
+		return shape;
+	}
+
+	@Override
+	public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+		return new Logic(shape);
+	}
+
+	private class Logic extends GraphStageLogic {
+
+		/* the time the earliest element entered since the last one emitted, 0 if none */
+		private long earliest;
+
+		/* the time the last element entered */
+		private long last;
+
+		Logic(BidiShape<I, I, O, O> shape) {
+			super(shape);
+			setHandler(in, new AbstractInHandler() {
+				@Override
+				public void onPush() {
+					last = System.nanoTime();
+					if (0 == earliest) {
+						earliest = last;
+					}
+					push(toFlow, grab(in));
+				}
+
+				@Override
+				public void onUpstreamFinish() {
+					complete(toFlow);
+				}
+
+				@Override
+				public void onUpstreamFailure(Throwable ex) {
+					fail(toFlow, ex);
+				}
+			});
+			setHandler(toFlow, new AbstractOutHandler() {
+				@Override
+				public void onPull() {
+					pull(in);
+				}
+
+				@Override
+				public void onDownstreamFinish() {
+					cancel(in);
+				}
+			});
+			setHandler(fromFlow, new AbstractInHandler() {
+				@Override
+				public void onPush() {
+					if (0 != last) {
+						metrics.latency(System.nanoTime() - ((0 == earliest)? last: earliest));
+					}
+					earliest = 0;
+					push(out, grab(fromFlow));
+				}
+
+				@Override
+				public void onUpstreamFinish() {
+					complete(out);
+				}
+
+				@Override
+				public void onUpstreamFailure(Throwable ex) {
+					fail(out, ex);
+				}
+			});
+			setHandler(out, new AbstractOutHandler() {
+				@Override
+				public void onPull() {
+					pull(fromFlow);
+				}
+
+				@Override
+				public void onDownstreamFinish() {
+					cancel(fromFlow);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package org.kot.test.etl.akka.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Set of {@code long} keys kept off heap, which is safe to share among threads.
+ * <p>
+ * The keys are in open addressing tables with linear probing, every table is a direct buffer of keys with no object per entry, so the set
+ * of hundreds of millions of keys puts no load on garbage collector. The set is striped into segments by the high bits of the hash of key,
+ * every segment is a table of its own guarded by its own lock, so concurrent writers rarely meet. Segment grows twice, once it is
+ * {@link #LOAD_FACTOR loaded}; the table dropped is freed by garbage collection of its buffer, so the set is better sized upfront.
+ * <p>
+ * Key {@code 0} marks free slot, so it is kept apart from the table.
+ * <p>
+ * The set {@link #withValues(int, long) with values} keeps a non-negative {@code long} value per key in a buffer of its own, parallel to the
+ * table, so it is a map of keys to values twice the size of set.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-05-04 10:40
+ */
+public final class LongHashSet {
+
+	private static final double LOAD_FACTOR = 0.75;
+
+	/* the largest table fitting a direct buffer */
+	private static final int MAX_CAPACITY = 1 << 27;
+
+	private final Segment[] segments;
+
+	private final int shift;
+
+	private LongHashSet(int segments, long expected, boolean valued) {
+		int count = (1 >= segments)? 1: Integer.highestOneBit(segments - 1) << 1;
+		this.segments = new Segment[count];
+		this.shift = 64 - Integer.numberOfTrailingZeros(count);
+		long perSegment = (long) Math.ceil(expected / LOAD_FACTOR / count);
+		int capacity = (int) Math.min(MAX_CAPACITY, Long.highestOneBit(Math.max(perSegment - 1, 8) << 1));
+		for (int i = 0; i < count; i++) {
+			this.segments[i] = new Segment(capacity, valued);
+		}
+	}
+
+	/**
+	 * Constructs the set.
+	 * @param segments The number of segments, which is rounded up to the power of 2
+	 * @param expected The number of keys expected, tables are allocated for them upfront
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static LongHashSet of(int segments, long expected) {
+		return new LongHashSet(segments, expected, false);
+	}
+
+	/**
+	 * Constructs the set keeping a value per key.
+	 * @param segments The number of segments, which is rounded up to the power of 2
+	 * @param expected The number of keys expected, tables are allocated for them upfront
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static LongHashSet withValues(int segments, long expected) {
+		return new LongHashSet(segments, expected, true);
+	}
+
+	/**
+	 * Adds the key.
+	 * @return Whether the key was not in the set
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public boolean add(long key) {
+		long hash = mix(key);
+		Segment segment = segments[(1 == segments.length)? 0: (int) (hash >>> shift)];
+		synchronized (segment) {
+			return segment.add(key, hash);
+		}
+	}
+
+	@SuppressWarnings("WeakerAccess")
+	public boolean contains(long key) {
+		long hash = mix(key);
+		Segment segment = segments[(1 == segments.length)? 0: (int) (hash >>> shift)];
+		synchronized (segment) {
+			return segment.contains(key, hash);
+		}
+	}
+
+	/**
+	 * Adds the key with the value or, if the key is in the set already, raises its value to the value given, so the key keeps the largest value
+	 * put.
+	 * @param value The value, which is not negative
+	 * @throws IllegalStateException If the set is constructed with no values
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public void putMax(long key, long value) {
+		long hash = mix(key);
+		Segment segment = segments[(1 == segments.length)? 0: (int) (hash >>> shift)];
+		synchronized (segment) {
+			segment.putMax(key, hash, value);
+		}
+	}
+
+	/**
+	 * @return The value of key or {@code -1} if the key is not in the set
+	 * @throws IllegalStateException If the set is constructed with no values
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public long get(long key) {
+		long hash = mix(key);
+		Segment segment = segments[(1 == segments.length)? 0: (int) (hash >>> shift)];
+		synchronized (segment) {
+			return segment.get(key, hash);
+		}
+	}
+
+	/**
+	 * @return The number of keys
+	 */
+	public long size() {
+		long result = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				result += segment.size;
+			}
+		}
+		return result;
+	}
+
+	/* finalizer of MurmurHash3, spreads the sequential keys over the table */
+	private static long mix(long key) {
+		long result = key;
+		result ^= result >>> 33;
+		result *= 0xff51afd7ed558ccdL;
+		result ^= result >>> 33;
+		result *= 0xc4ceb9fe1a85ec53L;
+		result ^= result >>> 33;
+		return result;
+	}
+
+	private static final class Segment {
+
+		private final boolean valued;
+
+		private LongBuffer table;
+
+		/* the values of keys in the slots of table, if the set is valued */
+		private LongBuffer values;
+
+		private int mask;
+
+		private int size;
+
+		private boolean zero;
+
+		private long zeroValue;
+
+		Segment(int capacity, boolean valued) {
+			this.valued = valued;
+			allocate(capacity);
+		}
+
+		boolean add(long key, long hash) {
+			if (0 == key) {
+				boolean result = !zero;
+				zero = true;
+				size += result? 1: 0;
+				return result;
+			}
+			int slot = find(key, hash);
+			if (key == table.get(slot)) {
+				return false;
+			}
+			put(slot, key, 0);
+			return true;
+		}
+
+		void putMax(long key, long hash, long value) {
+			checkValued();
+			if (0 == key) {
+				zeroValue = zero? Math.max(zeroValue, value): value;
+				size += zero? 0: 1;
+				zero = true;
+				return;
+			}
+			int slot = find(key, hash);
+			if (key == table.get(slot)) {
+				values.put(slot, Math.max(values.get(slot), value));
+			} else {
+				put(slot, key, value);
+			}
+		}
+
+		long get(long key, long hash) {
+			checkValued();
+			if (0 == key) {
+				return zero? zeroValue: -1;
+			}
+			int slot = find(key, hash);
+			return (key == table.get(slot))? values.get(slot): -1;
+		}
+
+		/* puts the key into the free slot */
+		private void put(int slot, long key, long value) {
+			if (size + 1 > mask) {
+				throw new IllegalStateException("Segment of " + (mask + 1) + " slots is full");
+			}
+			table.put(slot, key);
+			if (valued) {
+				values.put(slot, value);
+			}
+			if (++size > LOAD_FACTOR * (mask + 1) && MAX_CAPACITY > mask + 1) {
+				grow();
+			}
+		}
+
+		private void checkValued() {
+			if (!valued) {
+				throw new IllegalStateException("Set is constructed with no values");
+			}
+		}
+
+		boolean contains(long key, long hash) {
+			return (0 == key)? zero: key == table.get(find(key, hash));
+		}
+
+		/* the slot of key or the free one to put it in */
+		private int find(long key, long hash) {
+			int slot = (int) hash & mask;
+			for (long current = table.get(slot); 0 != current && key != current; current = table.get(slot)) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		/* the largest table keeps going over the load factor up to the last free slot, which ends every lookup */
+		private void grow() {
+			LongBuffer previous = table;
+			LongBuffer previousValues = values;
+			allocate((mask + 1) << 1);
+			for (int i = 0; i < previous.capacity(); i++) {
+				long key = previous.get(i);
+				if (0 != key) {
+					int slot = find(key, mix(key));
+					table.put(slot, key);
+					if (valued) {
+						values.put(slot, previousValues.get(i));
+					}
+				}
+			}
+		}
+
+		private void allocate(int capacity) {
+			table = ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+			values = valued? ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer(): null;
+			mask = capacity - 1;
+		}
+	}
+}
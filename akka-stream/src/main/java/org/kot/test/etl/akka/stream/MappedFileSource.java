@@ -0,0 +1,150 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.NotUsed;
+import akka.stream.ActorAttributes;
+import akka.stream.Attributes;
+import akka.stream.Outlet;
+import akka.stream.SourceShape;
+import akka.stream.javadsl.Source;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+import akka.stream.stage.OutHandler;
+import akka.util.ByteString;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Source of file content, which maps the file into memory window by window instead of reading it through a stream.
+ * <p>
+ * Every chunk is passed downstream from a read-only slice of the mapped window as it is pulled, so only the chunks in flight are on the heap,
+ * whatever the window size is. {@link ByteString} of Akka 2.5 is backed by arrays only, {@link ByteString#fromByteBuffer(ByteBuffer)} copies the
+ * slice, so this copy of chunk is the only one the content gets on the way to the parser, while the stream one reads through a buffer of its own.
+ * The window is kept mapped until its last chunk is passed.
+ * <p>
+ * Reading of mapped region blocks on page faults, so the stage runs on the blocking I/O dispatcher unless the dispatcher is set by attributes.
+ * There is no way to unmap the region in Java 8 besides the garbage collection of the mapped buffer, which is dropped once the window is done.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-03-09 10:30
+ */
+public class MappedFileSource extends GraphStage<SourceShape<ByteString>> {
+
+	private static final String BLOCKING_DISPATCHER = "akka.stream.default-blocking-io-dispatcher";
+
+	private final Path file;
+
+	private final long from, to;
+
+	private final int windowSize;
+
+	private final int chunkSize;
+
+	private final Outlet<ByteString> out;
+
+	private final SourceShape<ByteString> shape;
+
+	private MappedFileSource(Path file, long from, long to, int windowSize, int chunkSize) {
+		if (0 >= chunkSize || chunkSize > windowSize) {
+			throw new IllegalArgumentException("Chunk size " + chunkSize + " is expected to be positive and not more than window size " + windowSize);
+		}
+		this.file = file;
+		this.from = from;
+		this.to = to;
+		this.windowSize = windowSize;
+		this.chunkSize = chunkSize;
+		out = Outlet.create("MappedFileSource.out");
+		shape = SourceShape.of(out);
+	}
+
+	/**
+	 * Constructs source of file content.
+	 * @param file The file to read
+	 * @param windowSize The size of region mapped at once
+	 * @param chunkSize The size of chunk passed downstream, the last chunk of a window may be smaller
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static Source<ByteString, NotUsed> of(Path file, int windowSize, int chunkSize) {
+		return of(file, 0, Long.MAX_VALUE, windowSize, chunkSize);
+	}
+
+	/**
+	 * Constructs source of the range of file content.
+	 * @param from The position of the first byte of range
+	 * @param to The position after the last byte of range, the range ends with the file if it is beyond the end of file
+	 * @see CSVSplitter
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static Source<ByteString, NotUsed> of(Path file, long from, long to, int windowSize, int chunkSize) {
+		return Source.fromGraph(new MappedFileSource(file, from, to, windowSize, chunkSize));
+	}
+
+	@Override
+	public SourceShape<ByteString> shape() {
+		return shape;
+	}
+
+	@Override
+	public Attributes initialAttributes() {
+		return ActorAttributes.dispatcher(BLOCKING_DISPATCHER);
+	}
+
+	@Override
+	public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+		return new Logic(shape);
+	}
+
+	private class Logic extends GraphStageLogic implements OutHandler {
+
+		private FileChannel channel;
+
+		private long position, limit;
+
+		private MappedByteBuffer window;
+
+		Logic(SourceShape<ByteString> shape) {
+			super(shape);
+			setHandler(out, this);
+		}
+
+		@Override
+		public void preStart() throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+			position = from;
+			limit = Math.min(to, channel.size());
+		}
+
+		@Override
+		public void onPull() throws IOException {
+			if (null == window || !window.hasRemaining()) {
+				if (limit <= position) {
+					window = null;
+					completeStage();
+					return;
+				}
+				window = map((int) Math.min(windowSize, limit - position));
+			}
+			ByteBuffer chunk = window.asReadOnlyBuffer();
+			chunk.limit(Math.min(window.position() + chunkSize, window.limit()));
+			window.position(chunk.limit());
+			push(out, ByteString.fromByteBuffer(chunk));
+		}
+
+		@Override
+		public void postStop() throws IOException {
+			window = null;
+			if (null != channel) {
+				channel.close();
+			}
+		}
+
+		private MappedByteBuffer map(int length) throws IOException {
+			MappedByteBuffer result = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			position += length;
+			return result;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.stream.Attributes;
+import akka.stream.FlowShape;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+import akka.stream.stage.InHandler;
+import akka.stream.stage.OutHandler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Pass through stage, which counts the elements, rows and bytes passing by into {@link Metrics.Stage} and measures the time spent waiting.
+ * <p>
+ * Backpressure is the time from passing an element downstream until downstream demands the next one, starvation is the time from demanding an
+ * element from upstream until it is delivered. Neither is the time an element takes to be processed, which is recorded by {@link LatencyStage}.
+ * <p>
+ * Elements, rows and bytes are counted exactly, while the waiting times are sampled: reading the clock costs more than the rest of metering,
+ * so it is read for one element of {@value #SAMPLE} only, which waiting times stand for the others. Stage counts into fields of its own and
+ * adds them to the shared counters once per a number of elements or a fraction of second, so the metrics lag behind the stage by that much.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-03-23 10:40
+ */
+class MeterStage<T> extends GraphStage<FlowShape<T, T>> {
+
+	/* the waiting times are measured for one element of this many, a power of 2, and counted for all of them */
+	private static final int SAMPLE = 16;
+
+	/* the counts are flushed into the shared metrics by this number of elements or by this time checked on sampled elements, and when stopped */
+	private static final int FLUSH_ELEMENTS = 1024;
+
+	private static final long FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final Metrics.Stage metrics;
+
+	private final ToLongFunction<T> rows;
+
+	private final ToLongFunction<T> bytes;
+
+	private final Inlet<T> in;
+
+	private final Outlet<T> out;
+
+	private final FlowShape<T, T> shape;
+
+	MeterStage(Metrics.Stage metrics, ToLongFunction<T> rows, ToLongFunction<T> bytes) {
+		this.metrics = metrics;
+		this.rows = rows;
+		this.bytes = bytes;
+		in = Inlet.create("Meter." + metrics.getName() + ".in");
+		out = Outlet.create("Meter." + metrics.getName() + ".out");
+		shape = FlowShape.of(in, out);
+	}
+
+	@Override
+	public FlowShape<T, T> shape() {
+		return shape;
+	}
+
+	@Override
+	public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+		return new Logic(shape);
+	}
+
+	private class Logic extends GraphStageLogic implements InHandler, OutHandler {
+
+		/* the times of the demand for the sampled element and of its push, 0 if none is pending */
+		private long pulled, pushed;
+
+		private long sequence, flushed;
+
+		/* counted since the last flush, the logic runs on a single thread at a time */
+		private long elements, passedRows, passedBytes, backpressure, starvation;
+
+		Logic(FlowShape<T, T> shape) {
+			super(shape);
+			setHandlers(in, out, this);
+		}
+
+		@Override
+		public void onPush() {
+			T element = grab(in);
+			elements++;
+			passedRows += rows.applyAsLong(element);
+			passedBytes += bytes.applyAsLong(element);
+			if (0 != pulled) {
+				long now = System.nanoTime();
+				starvation += (now - pulled) * SAMPLE;
+				pulled = 0;
+				pushed = now;
+				if (FLUSH_NANOS <= now - flushed) {
+					flush(now);
+				}
+			}
+			if (FLUSH_ELEMENTS <= elements) {
+				flush(flushed);
+			}
+			push(out, element);
+		}
+
+		@Override
+		public void onPull() {
+			if (0 != pushed || 0 == (sequence & (SAMPLE - 1))) {
+				long now = System.nanoTime();
+				if (0 != pushed) {
+					backpressure += (now - pushed) * SAMPLE;
+					pushed = 0;
+				}
+				if (0 == (sequence & (SAMPLE - 1))) {
+					pulled = now;
+				}
+			}
+			sequence++;
+			pull(in);
+		}
+
+		@Override
+		public void onUpstreamFinish() {
+			// counted before downstream completes, so the metrics are complete along with the stream
+			flush(System.nanoTime());
+			completeStage();
+		}
+
+		@Override
+		public void preStart() {
+			flushed = System.nanoTime();
+		}
+
+		@Override
+		public void postStop() {
+			flush(System.nanoTime());
+		}
+
+		private void flush(long now) {
+			metrics.passed(elements, passedRows, passedBytes);
+			metrics.backpressured(backpressure);
+			metrics.starved(starvation);
+			elements = passedRows = passedBytes = backpressure = starvation = 0;
+			flushed = now;
+		}
+	}
+}
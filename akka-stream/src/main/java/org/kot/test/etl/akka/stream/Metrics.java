@@ -0,0 +1,382 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.stream.FlowShape;
+import akka.stream.Graph;
+import akka.stream.javadsl.BidiFlow;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Source;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import scala.concurrent.duration.FiniteDuration;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Metrics of import: throughput and waiting time per stage, duration of files and ratio of failed rows.
+ * <p>
+ * Counters are striped ({@link LongAdder}), so concurrent sub-streams update them with no contention, and so is the latency recorded into
+ * HdrHistogram ({@link Recorder}). Metrics are exposed as MXBeans and may be reported to log periodically. Disabled metrics put no stage into
+ * the graph: {@link #meter(String, ToLongFunction, ToLongFunction) meter} is an identity flow then, which is dropped when composed, and
+ * {@link #meter(String, Graph, ToLongFunction, ToLongFunction) meter of flow} is the flow itself, so there is no cost per element.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-03-23 10:10
+ */
+public class Metrics implements MetricsMXBean {
+
+	private static final String DOMAIN = "org.kot.test.etl";
+
+	private final boolean enabled;
+
+	private final boolean histograms;
+
+	private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+
+	private final List<ObjectName> registered = new ArrayList<>();
+
+	private final LongAdder files = new LongAdder();
+
+	private final LongAdder fileNanos = new LongAdder();
+
+	private final LongAdder rows = new LongAdder();
+
+	private final LongAdder failedRows = new LongAdder();
+
+	private long lastReport = System.nanoTime();
+
+	private Metrics(boolean enabled, boolean histograms) {
+		this.enabled = enabled;
+		this.histograms = histograms;
+	}
+
+	@SuppressWarnings("WeakerAccess")
+	public static Metrics disabled() {
+		return new Metrics(false, false);
+	}
+
+	/**
+	 * @param histograms Whether the latency of every element of the stages metered with their flow is recorded into HdrHistogram
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static Metrics enabled(boolean histograms) {
+		return new Metrics(true, histograms);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Flow metering the elements passing by, the metrics of the same name are shared by all the flows of the name.
+	 * @param name The name of stage
+	 * @param rows The number of rows in element
+	 * @param bytes The number of bytes in element
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public <T> Flow<T, T, NotUsed> meter(String name, ToLongFunction<T> rows, ToLongFunction<T> bytes) {
+		if (!enabled) {
+			return Flow.create();
+		}
+		return Flow.fromGraph(new MeterStage<>(stages.computeIfAbsent(name, n -> new Stage(n, histograms)), rows, bytes));
+	}
+
+	/**
+	 * Flow metering the elements the flow emits, and recording the latency of every element from entering the flow to being emitted, if
+	 * histograms are enabled.
+	 * @param name The name of stage
+	 * @param flow The flow of stage
+	 * @param rows The number of rows in element emitted
+	 * @param bytes The number of bytes in element emitted
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public <I, O, M> Flow<I, O, M> meter(String name, Graph<FlowShape<I, O>, M> flow, ToLongFunction<O> rows, ToLongFunction<O> bytes) {
+		Flow<I, O, M> stage = Flow.fromGraph(flow);
+		if (!enabled) {
+			return stage;
+		}
+		Stage metrics = stages.computeIfAbsent(name, n -> new Stage(n, histograms));
+		if (histograms) {
+			stage = BidiFlow.fromGraph(new LatencyStage<I, O>(metrics)).join(stage, Keep.right());
+		}
+		return stage.via(new MeterStage<>(metrics, rows, bytes));
+	}
+
+	/**
+	 * Flow counting the rows bound and the ones failed to bind.
+	 * @param rows The number of rows in element
+	 * @param failed The number of rows failed in element
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public <T> Flow<T, T, NotUsed> bound(ToLongFunction<T> rows, ToLongFunction<T> failed) {
+		if (!enabled) {
+			return Flow.create();
+		}
+		return Flow.<T>create().map(e -> {
+			this.rows.add(rows.applyAsLong(e));
+			failedRows.add(failed.applyAsLong(e));
+			return e;
+		});
+	}
+
+	/**
+	 * Source of file, which duration from materialization to termination is recorded.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public <E> Source<E, ?> file(Source<E, ?> file) {
+		if (!enabled) {
+			return file;
+		}
+		return file.watchTermination((m, done) -> {
+			long start = System.nanoTime();
+			done.thenRun(() -> {
+				files.increment();
+				fileNanos.add(System.nanoTime() - start);
+			});
+			return NotUsed.getInstance();
+		});
+	}
+
+	/**
+	 * @return The metrics of stage of the name or {@code null} if none is metered
+	 */
+	Stage stage(String name) {
+		return stages.get(name);
+	}
+
+	@Override
+	public long getFiles() {
+		return files.sum();
+	}
+
+	@Override
+	public long getFileMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(fileNanos.sum());
+	}
+
+	@Override
+	public long getRows() {
+		return rows.sum();
+	}
+
+	@Override
+	public long getFailedRows() {
+		return failedRows.sum();
+	}
+
+	@Override
+	public double getFailedRowRatio() {
+		long total = rows.sum();
+		return (0 == total)? 0: (double) failedRows.sum() / total;
+	}
+
+	/**
+	 * Registers the metrics of import and of every stage metered so far in platform MBean server, until they are {@link #unregister()
+	 * unregistered}.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public synchronized void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		register(server, this, new ObjectName(DOMAIN + ":type=Import"));
+		for (Stage stage : stages.values()) {
+			register(server, stage, new ObjectName(DOMAIN + ":type=Stage,name=" + ObjectName.quote(stage.getName())));
+		}
+	}
+
+	/**
+	 * Unregisters the MBeans {@link #register() registered}, so the next import in the same JVM registers its own.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public synchronized void unregister() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : registered) {
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		}
+		registered.clear();
+	}
+
+	private void register(MBeanServer server, Object bean, ObjectName name) throws JMException {
+		server.registerMBean(bean, name);
+		registered.add(name);
+	}
+
+	/**
+	 * Schedules {@link #report() report} to the log.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public Cancellable schedule(ActorSystem system, Duration interval, org.slf4j.Logger logger) {
+		FiniteDuration every = FiniteDuration.create(interval.toNanos(), TimeUnit.NANOSECONDS);
+		return system.scheduler().schedule(every, every, () -> logger.info(report()), system.dispatcher());
+	}
+
+	/**
+	 * Reports rates of every stage since the previous report and totals of import.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public synchronized String report() {
+		long now = System.nanoTime();
+		double seconds = Math.max(now - lastReport, 1) / 1e9;
+		lastReport = now;
+		StringBuilder result = new StringBuilder("Import metrics:");
+		stages.values().stream()
+				.sorted((a, b) -> a.getName().compareTo(b.getName()))
+				.forEach(stage -> stage.report(result.append("\n  "), seconds));
+		return result.append(String.format("%n  files: %d, %d ms on average; rows: %d, failed %.4f",
+				getFiles(), (0 == getFiles())? 0: getFileMillis() / getFiles(), getRows(), getFailedRowRatio())).toString();
+	}
+
+	/**
+	 * Counters of a stage.
+	 */
+	static final class Stage implements MetricsMXBean.StageMXBean {
+
+		private final String name;
+
+		private final LongAdder elements = new LongAdder();
+
+		private final LongAdder rows = new LongAdder();
+
+		private final LongAdder bytes = new LongAdder();
+
+		private final LongAdder backpressure = new LongAdder();
+
+		private final LongAdder starvation = new LongAdder();
+
+		/* the time from entering the stage to being emitted of every element */
+		private final Recorder latency;
+
+		/* the latency since the start and since the last report, updated by the interval taken from recorder */
+		private Histogram interval, total, reported;
+
+		private long lastRows, lastBytes, lastBackpressure, lastStarvation;
+
+		Stage(String name, boolean histogram) {
+			this.name = name;
+			this.latency = histogram? new Recorder(3): null;
+			this.total = histogram? new Histogram(3): null;
+			this.reported = histogram? new Histogram(3): null;
+		}
+
+		void passed(long elements, long rows, long bytes) {
+			this.elements.add(elements);
+			this.rows.add(rows);
+			this.bytes.add(bytes);
+		}
+
+		void backpressured(long nanos) {
+			backpressure.add(nanos);
+		}
+
+		void starved(long nanos) {
+			starvation.add(nanos);
+		}
+
+		void latency(long nanos) {
+			latency.recordValue(nanos);
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public long getElements() {
+			return elements.sum();
+		}
+
+		@Override
+		public long getRows() {
+			return rows.sum();
+		}
+
+		@Override
+		public long getBytes() {
+			return bytes.sum();
+		}
+
+		@Override
+		public long getBackpressureMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(backpressure.sum());
+		}
+
+		long backpressureNanos() {
+			return backpressure.sum();
+		}
+
+		@Override
+		public long getStarvationMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(starvation.sum());
+		}
+
+		@Override
+		public long getLatencyP50Micros() {
+			return percentile(50);
+		}
+
+		@Override
+		public long getLatencyP99Micros() {
+			return percentile(99);
+		}
+
+		@Override
+		public long getLatencyP999Micros() {
+			return percentile(99.9);
+		}
+
+		@Override
+		public long getLatencyMaxMicros() {
+			return percentile(100);
+		}
+
+		private synchronized long percentile(double percentile) {
+			if (null == latency) {
+				return 0;
+			}
+			sample();
+			return TimeUnit.NANOSECONDS.toMicros(total.getValueAtPercentile(percentile));
+		}
+
+		/* takes the interval recorded since the last sample, the recorder has to be read by a single thread at once */
+		private void sample() {
+			interval = latency.getIntervalHistogram(interval);
+			total.add(interval);
+			reported.add(interval);
+		}
+
+		/* called by the only reporter, so the last values need no synchronization */
+		void report(StringBuilder out, double seconds) {
+			long rows = this.rows.sum(), bytes = this.bytes.sum(), backpressure = this.backpressure.sum(), starvation = this.starvation.sum();
+			out.append(String.format("%s: %.0f rows/s, %.0f bytes/s, backpressure %.0f ms/s, starvation %.0f ms/s", name,
+					(rows - lastRows) / seconds, (bytes - lastBytes) / seconds,
+					(backpressure - lastBackpressure) / seconds / 1e6, (starvation - lastStarvation) / seconds / 1e6));
+			lastRows = rows;
+			lastBytes = bytes;
+			lastBackpressure = backpressure;
+			lastStarvation = starvation;
+			if (null != latency) {
+				synchronized (this) {
+					sample();
+					out.append(String.format(", latency p50 %d us, p99 %d us, max %d us", reported.getValueAtPercentile(50) / 1000,
+							reported.getValueAtPercentile(99) / 1000, reported.getMaxValue() / 1000));
+					reported.reset();
+				}
+			}
+		}
+	}
+}
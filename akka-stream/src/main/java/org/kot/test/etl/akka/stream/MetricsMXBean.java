@@ -0,0 +1,49 @@
+package org.kot.test.etl.akka.stream;
+
+/**
+ * Management interface of {@link Metrics}.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-03-23 10:15
+ */
+public interface MetricsMXBean {
+
+	long getFiles();
+
+	long getFileMillis();
+
+	long getRows();
+
+	long getFailedRows();
+
+	double getFailedRowRatio();
+
+	/**
+	 * Management interface of a stage metered.
+	 */
+	interface StageMXBean {
+
+		String getName();
+
+		long getElements();
+
+		long getRows();
+
+		long getBytes();
+
+		long getBackpressureMillis();
+
+		long getStarvationMillis();
+
+		/**
+		 * @return The percentile of latency of the elements of stage since the start, from entering the stage to being emitted, in microseconds;
+		 * {@code 0} if latency is not recorded
+		 */
+		long getLatencyP50Micros();
+
+		long getLatencyP99Micros();
+
+		long getLatencyP999Micros();
+
+		long getLatencyMaxMicros();
+	}
+}
@@ -0,0 +1,439 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.japi.Pair;
+import akka.stream.ActorAttributes;
+import akka.stream.Attributes;
+import akka.stream.IOResult;
+import akka.stream.Inlet;
+import akka.stream.SinkShape;
+import akka.stream.stage.AbstractGraphStageWithMaterializedValue;
+import akka.stream.stage.GraphStageLogic;
+import akka.stream.stage.InHandler;
+import akka.util.ByteString;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Type;
+import org.apache.parquet.schema.Types;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Graph stage in sink shape writing the bound records into Parquet file, the alternative to {@link Java2CSVStage} for the output read by
+ * analytics, which takes the typed columns instead of parsing the text again.
+ * <p>
+ * Writes either {@link #toMapping(Path, List) maps} or {@link #toMapping(Path, Row.Schema, List) rows}, column per mapping of the binding from
+ * CSV, of the type the mapping results in: {@code int} and {@code long} as {@code INT32} and {@code INT64}, string as {@code UTF8}, date as
+ * {@code DATE} and decimal as {@code DECIMAL(18, scale)} of {@code INT64}, rounded to the scale. Column of {@link Binding.RequiredMapping
+ * required mapping} is required, the others are optional. Every column is dictionary encoded first, Parquet falls back to plain encoding for
+ * the column once its dictionary outgrows the dictionary page, so the dictionary is kept only by the columns of low cardinality.
+ * <p>
+ * Writer buffers the row group in memory and writes it on the stage thread, so the stage runs on the blocking IO dispatcher, the same as
+ * {@link akka.stream.javadsl.FileIO} sink does. The materialized result tells the size of file written.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-05-11 10:20
+ */
+public class ParquetSink<T> extends AbstractGraphStageWithMaterializedValue<SinkShape<T>, CompletionStage<IOResult>> {
+
+	private static final String BLOCKING_DISPATCHER = "akka.stream.default-blocking-io-dispatcher";
+
+	/* the largest precision of decimal kept in INT64 */
+	private static final int DECIMAL_PRECISION = 18;
+
+	private final Inlet<T> in = Inlet.create("Parquet.in");
+
+	private final SinkShape<T> shape = SinkShape.of(in);
+
+	private final Path file;
+
+	private final List<Binding.Mapping<ByteString, ?>> mappings;
+
+	private final Values<T> values;
+
+	private final int rowGroupSize;
+
+	private final int pageSize;
+
+	private final int dictionaryPageSize;
+
+	private final CompressionCodecName codec;
+
+	private final int scale;
+
+	private final RoundingMode rounding;
+
+	private ParquetSink(Path file, List<Binding.Mapping<ByteString, ?>> mappings, Values<T> values, int rowGroupSize, int pageSize,
+	                    int dictionaryPageSize, CompressionCodecName codec, int scale, RoundingMode rounding) {
+		for (Binding.Mapping<ByteString, ?> mapping : mappings) {
+			typeOf(mapping);
+		}
+		this.file = file;
+		this.mappings = mappings;
+		this.values = values;
+		this.rowGroupSize = rowGroupSize;
+		this.pageSize = pageSize;
+		this.dictionaryPageSize = dictionaryPageSize;
+		this.codec = codec;
+		this.scale = scale;
+		this.rounding = rounding;
+	}
+
+	/**
+	 * Constructs sink of maps bound by the mappings, with the default layout of Parquet, Snappy compression and decimal scale {@code 2}
+	 * rounded half up.
+	 * @param file The file to write, it is replaced if it exists
+	 * @param mappings The mappings of binding from CSV, which define the columns
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static ParquetSink<Map<String, ?>> toMapping(Path file, List<Binding.Mapping<ByteString, ?>> mappings) {
+		String[] names = mappings.stream().map(Binding.Mapping::toName).toArray(String[]::new);
+		return new ParquetSink<>(file, mappings, (map, i) -> map.get(names[i]), ParquetWriter.DEFAULT_BLOCK_SIZE, ParquetWriter.DEFAULT_PAGE_SIZE,
+				ParquetWriter.DEFAULT_PAGE_SIZE, CompressionCodecName.SNAPPY, 2, RoundingMode.HALF_UP);
+	}
+
+	/**
+	 * Constructs sink of rows of the schema, mapping with no slot of the same name in schema gets {@code null}.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static ParquetSink<Row> toMapping(Path file, Row.Schema schema, List<Binding.Mapping<ByteString, ?>> mappings) {
+		int[] slots = mappings.stream().mapToInt(m -> schema.indexOf(m.toName())).toArray();
+		Values<Row> values = new Values<Row>() {
+			@Override
+			public Object get(Row row, int index) {
+				return row.get(slots[index]);
+			}
+
+			@Override
+			public boolean isPrimitive(Row row, int index) {
+				return 0 <= slots[index] && row.isPrimitive(slots[index]);
+			}
+
+			@Override
+			public long getLong(Row row, int index) {
+				return row.getLong(slots[index]);
+			}
+		};
+		return new ParquetSink<>(file, mappings, values, ParquetWriter.DEFAULT_BLOCK_SIZE, ParquetWriter.DEFAULT_PAGE_SIZE,
+				ParquetWriter.DEFAULT_PAGE_SIZE, CompressionCodecName.SNAPPY, 2, RoundingMode.HALF_UP);
+	}
+
+	/**
+	 * Sink writing the same records in the layout given.
+	 * @param rowGroupSize The size of row group, which is buffered in memory before it is written
+	 * @param pageSize The size of data page, the unit of encoding and compression within column
+	 * @param dictionaryPageSize The largest dictionary of column, {@code 0} to write every column by plain encoding
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public ParquetSink<T> withLayout(int rowGroupSize, int pageSize, int dictionaryPageSize) {
+		return new ParquetSink<>(file, mappings, values, rowGroupSize, pageSize, dictionaryPageSize, codec, scale, rounding);
+	}
+
+	/**
+	 * Sink writing the same records compressed by the codec.
+	 * @param codec The name of codec: {@code uncompressed}, {@code snappy}, {@code gzip} or the other one Parquet has on class path
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public ParquetSink<T> compressedBy(String codec) {
+		return new ParquetSink<>(file, mappings, values, rowGroupSize, pageSize, dictionaryPageSize,
+				CompressionCodecName.valueOf(codec.toUpperCase(Locale.ROOT)), scale, rounding);
+	}
+
+	/**
+	 * Sink writing the same records with decimals of the scale, the value of larger scale is rounded; the value of more than {@code 18} digits
+	 * once rounded, or of larger scale if rounding is {@code unnecessary}, fails the stage.
+	 * @param rounding The name of {@link RoundingMode}, e.g. {@code half-up}, {@code half-even} or {@code unnecessary}
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public ParquetSink<T> withDecimalScale(int scale, String rounding) {
+		if (0 > scale || DECIMAL_PRECISION < scale) {
+			throw new IllegalArgumentException("Decimal scale " + scale + " is expected to be in 0-" + DECIMAL_PRECISION);
+		}
+		return new ParquetSink<>(file, mappings, values, rowGroupSize, pageSize, dictionaryPageSize, codec, scale,
+				RoundingMode.valueOf(rounding.toUpperCase(Locale.ROOT).replace('-', '_')));
+	}
+
+	@Override
+	public SinkShape<T> shape() {
+		return shape;
+	}
+
+	@Override
+	public Attributes initialAttributes() {
+		return ActorAttributes.dispatcher(BLOCKING_DISPATCHER);
+	}
+
+	@Override
+	public Pair<GraphStageLogic, CompletionStage<IOResult>> createLogicAndMaterializedValuePair(Attributes inheritedAttributes) {
+		CompletableFuture<IOResult> result = new CompletableFuture<>();
+		return Pair.create(new Logic(result), result);
+	}
+
+	Path file() {
+		return file;
+	}
+
+	/**
+	 * Opens the writer of file by the layout and codec of this sink, the file is overwritten.
+	 */
+	ParquetWriter<T> open() throws IOException {
+		Configuration configuration = new Configuration();
+		// the local file system of no checksum files aside, the one cached may be of the other kind
+		configuration.set("fs.file.impl", "org.apache.hadoop.fs.RawLocalFileSystem");
+		configuration.setBoolean("fs.file.impl.disable.cache", true);
+		return new WriterBuilder()
+				.withConf(configuration)
+				.withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+				.withCompressionCodec(codec)
+				.withRowGroupSize(rowGroupSize)
+				.withPageSize(pageSize)
+				.withDictionaryEncoding(0 < dictionaryPageSize)
+				.withDictionaryPageSize(Math.max(dictionaryPageSize, 1))
+				.build();
+	}
+
+	/**
+	 * Schema of file: column per mapping, named by its target name.
+	 */
+	MessageType schema() {
+		Types.GroupBuilder<MessageType> result = Types.buildMessage();
+		for (Binding.Mapping<ByteString, ?> mapping : mappings) {
+			Type.Repetition repetition = (mapping instanceof Binding.RequiredMapping)? Type.Repetition.REQUIRED: Type.Repetition.OPTIONAL;
+			Class<?> type = mapping.type();
+			if (BigDecimal.class == type) {
+				result = result.primitive(PrimitiveTypeName.INT64, repetition).as(OriginalType.DECIMAL).precision(DECIMAL_PRECISION).scale(scale)
+						.named(mapping.toName());
+			} else if (String.class == type || LocalDate.class == type) {
+				result = result.primitive(typeOf(mapping), repetition).as((String.class == type)? OriginalType.UTF8: OriginalType.DATE)
+						.named(mapping.toName());
+			} else {
+				result = result.primitive(typeOf(mapping), repetition).named(mapping.toName());
+			}
+		}
+		return result.named("row");
+	}
+
+	private static PrimitiveTypeName typeOf(Binding.Mapping<?, ?> mapping) {
+		Class<?> type = mapping.type();
+		if (Integer.class == type || LocalDate.class == type) {
+			return PrimitiveTypeName.INT32;
+		}
+		if (Long.class == type || BigDecimal.class == type) {
+			return PrimitiveTypeName.INT64;
+		}
+		if (String.class == type) {
+			return PrimitiveTypeName.BINARY;
+		}
+		throw new IllegalArgumentException("Type " + type.getSimpleName() + " of " + mapping + " can't be written into Parquet");
+	}
+
+	private void write(RecordConsumer consumer, String name, Object value) {
+		if (value instanceof Integer) {
+			consumer.addInteger((Integer) value);
+		} else if (value instanceof Long) {
+			consumer.addLong((Long) value);
+		} else if (value instanceof String) {
+			consumer.addBinary(Binary.fromString((String) value));
+		} else if (value instanceof LocalDate) {
+			consumer.addInteger((int) ((LocalDate) value).toEpochDay());
+		} else if (value instanceof BigDecimal) {
+			BigDecimal decimal;
+			try {
+				decimal = ((BigDecimal) value).setScale(scale, rounding);
+			} catch (ArithmeticException e) {
+				decimal = null;
+			}
+			if (null == decimal || DECIMAL_PRECISION < decimal.precision()) {
+				throw new ArithmeticException("Value " + value + " of " + name + " does not fit DECIMAL(" + DECIMAL_PRECISION + ", " + scale + ")");
+			}
+			consumer.addLong(decimal.unscaledValue().longValue());
+		} else {
+			throw new IllegalArgumentException("Value " + value + " of " + name + " can't be written into Parquet");
+		}
+	}
+
+	private interface Values<T> {
+
+		Object get(T item, int index);
+
+		/**
+		 * @return Whether the value is integral one kept primitive, which is read by {@link #getLong(Object, int)} with no boxing
+		 */
+		default boolean isPrimitive(T item, int index) {
+			return false;
+		}
+
+		default long getLong(T item, int index) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Writes record by record into the consumer of writer, the field of {@code null} value is skipped.
+	 */
+	private class RecordWriteSupport extends WriteSupport<T> {
+
+		private final String[] names = mappings.stream().map(Binding.Mapping::toName).toArray(String[]::new);
+
+		/* whether the column is of INT64 or INT32 integral type, written from primitive value as it is */
+		private final boolean[] longs = new boolean[mappings.size()], ints = new boolean[mappings.size()];
+
+		private RecordConsumer consumer;
+
+		RecordWriteSupport() {
+			for (int i = 0; i < mappings.size(); i++) {
+				longs[i] = Long.class == mappings.get(i).type();
+				ints[i] = Integer.class == mappings.get(i).type();
+			}
+		}
+
+		@Override
+		public WriteContext init(Configuration configuration) {
+			return new WriteContext(schema(), Collections.emptyMap());
+		}
+
+		@Override
+		public void prepareForWrite(RecordConsumer consumer) {
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void write(T record) {
+			consumer.startMessage();
+			for (int i = 0; i < names.length; i++) {
+				if ((longs[i] || ints[i]) && values.isPrimitive(record, i)) {
+					consumer.startField(names[i], i);
+					if (longs[i]) {
+						consumer.addLong(values.getLong(record, i));
+					} else {
+						consumer.addInteger((int) values.getLong(record, i));
+					}
+					consumer.endField(names[i], i);
+					continue;
+				}
+				Object value = values.get(record, i);
+				if (null != value) {
+					consumer.startField(names[i], i);
+					ParquetSink.this.write(consumer, names[i], value);
+					consumer.endField(names[i], i);
+				}
+			}
+			consumer.endMessage();
+		}
+	}
+
+	private class WriterBuilder extends ParquetWriter.Builder<T, WriterBuilder> {
+
+		WriterBuilder() {
+			super(new org.apache.hadoop.fs.Path(file.toAbsolutePath().toUri()));
+		}
+
+		@Override
+		protected WriterBuilder self() {
+			return this;
+		}
+
+		@Override
+		protected WriteSupport<T> getWriteSupport(Configuration configuration) {
+			return new RecordWriteSupport();
+		}
+	}
+
+	private class Logic extends GraphStageLogic implements InHandler {
+
+		private final CompletableFuture<IOResult> result;
+
+		private ParquetWriter<T> writer;
+
+		Logic(CompletableFuture<IOResult> result) {
+			super(shape);
+			this.result = result;
+			setHandler(in, this);
+		}
+
+		@Override
+		public void preStart() {
+			try {
+				writer = open();
+				pull(in);
+			} catch (IOException | RuntimeException e) {
+				fail(e);
+			}
+		}
+
+		@Override
+		public void onPush() {
+			try {
+				writer.write(grab(in));
+				pull(in);
+			} catch (IOException | RuntimeException e) {
+				fail(e);
+			}
+		}
+
+		@Override
+		public void onUpstreamFinish() {
+			try {
+				writer.close();
+				writer = null;
+				result.complete(IOResult.createSuccessful(Files.size(file)));
+				completeStage();
+			} catch (IOException | RuntimeException e) {
+				fail(e);
+			}
+		}
+
+		@Override
+		public void onUpstreamFailure(Throwable e) {
+			fail(e);
+		}
+
+		@Override
+		public void postStop() {
+			if (null != writer) {
+				abort(new IOException("Parquet file " + file + " is not complete, the stage has stopped before upstream finished"));
+			}
+		}
+
+		private void fail(Throwable e) {
+			abort(e);
+			failStage(e);
+		}
+
+		/* closes the file written so far, so it is readable up to the last row group, and fails the result */
+		private void abort(Throwable e) {
+			if (null != writer) {
+				try {
+					writer.close();
+				} catch (IOException | RuntimeException x) {
+					e.addSuppressed(x);
+				}
+				writer = null;
+			}
+			long size;
+			try {
+				size = Files.size(file);
+			} catch (IOException x) {
+				size = 0;
+			}
+			result.complete(IOResult.createFailed(size, e));
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bound row of fixed schema.
+ * <p>
+ * Alternative to {@code Map<String, ?>} record: values are addressed by slot index resolved once from {@link Schema}, integral columns are kept
+ * in primitive slots, so bound row costs two arrays instead of a hash map with boxed values. Row failed on binding keeps raw cells as parsed in
+ * its slots and the list of failures in the extra trailing {@link #FAILURES} slot, the same way as failed map does.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-02-09 11:20
+ */
+public final class Row {
+
+	/** The name of slot with the list of failures */
+	public static final String FAILURES = "failures";
+
+	/* marks non null primitive slot */
+	private static final Object PRIMITIVE = new Object();
+
+	private static final long[] NO_PRIMITIVES = new long[0];
+
+	private final Schema schema;
+
+	private final long[] primitives;
+
+	private final Object[] references;
+
+	@SuppressWarnings("WeakerAccess")
+	public Row(Schema schema) {
+		this.schema = schema;
+		this.primitives = (0 < schema.primitives)? new long[schema.primitives]: NO_PRIMITIVES;
+		this.references = new Object[schema.size() + 1];
+	}
+
+	public Schema schema() {
+		return schema;
+	}
+
+	/**
+	 * @return The value of slot, primitive one is boxed into its type, so the serializers read those by {@link #getLong(int)}; {@code null} for
+	 * unknown (negative) slot
+	 */
+	public Object get(int slot) {
+		if (0 > slot) {
+			return null;
+		}
+		Object result = references[slot];
+		if (PRIMITIVE != result) {
+			return result;
+		}
+		long value = primitives[schema.slots[slot]];
+		return (schema.isLong[slot])? (Object) value: (Object) (int) value;
+	}
+
+	public boolean isNull(int slot) {
+		return null == references[slot];
+	}
+
+	/**
+	 * @return Whether the slot holds primitive value, which is read by {@link #getInt(int)} or {@link #getLong(int)}; primitive slot of failed
+	 * row holds the raw cell instead
+	 */
+	public boolean isPrimitive(int slot) {
+		return PRIMITIVE == references[slot];
+	}
+
+	public int getInt(int slot) {
+		return (int) primitives[schema.slots[slot]];
+	}
+
+	public long getLong(int slot) {
+		return primitives[schema.slots[slot]];
+	}
+
+	/**
+	 * Sets the value of slot, a number is unboxed if the slot is primitive.
+	 */
+	public Row set(int slot, Object value) {
+		if (value instanceof Number && 0 <= schema.slots[slot]) {
+			return setLong(slot, ((Number) value).longValue());
+		}
+		references[slot] = value;
+		return this;
+	}
+
+	public Row setLong(int slot, long value) {
+		primitives[schema.slots[slot]] = value;
+		references[slot] = PRIMITIVE;
+		return this;
+	}
+
+	public boolean isFailed() {
+		return null != references[schema.size()];
+	}
+
+	@SuppressWarnings("unchecked")
+	public List<String> failures() {
+		return (List<String>) references[schema.size()];
+	}
+
+	/**
+	 * Marks row as failed, its slots are expected to be set by {@link #raw(int, ByteString) raw values} then.
+	 */
+	Row fail(List<String> failures) {
+		references[schema.size()] = failures;
+		return this;
+	}
+
+	/**
+	 * Sets the raw value of slot regardless of slot type.
+	 */
+	Row raw(int slot, ByteString value) {
+		references[slot] = value;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder("Row {");
+		for (int i = 0; i < schema.size(); i++) {
+			result.append((0 == i)? "": ", ").append(schema.name(i)).append('=').append(get(i));
+		}
+		if (isFailed()) {
+			result.append(", ").append(FAILURES).append('=').append(failures());
+		}
+		return result.append('}').toString();
+	}
+
+	/**
+	 * Slot layout of rows derived from {@link Binding.Mapping mappings}: slot per mapping in the same order, named by its
+	 * {@link Binding.Mapping#toName() target name}. Mapping of {@code int} or {@code long} type gets the primitive slot.
+	 */
+	public static final class Schema {
+
+		private final String[] names;
+
+		/* index of primitive slot or -1 for reference one */
+		private final int[] slots;
+
+		private final boolean[] isLong;
+
+		private final int primitives;
+
+		private Schema(List<? extends Binding.Mapping<?, ?>> mappings) {
+			names = new String[mappings.size()];
+			slots = new int[mappings.size()];
+			isLong = new boolean[mappings.size()];
+			int count = 0;
+			for (int i = 0; i < mappings.size(); i++) {
+				Class<?> type = mappings.get(i).type();
+				names[i] = mappings.get(i).toName();
+				isLong[i] = Long.class == type || long.class == type;
+				slots[i] = (isLong[i] || Integer.class == type || int.class == type)? count++: -1;
+			}
+			primitives = count;
+		}
+
+		@SuppressWarnings("WeakerAccess")
+		public static Schema of(List<? extends Binding.Mapping<?, ?>> mappings) {
+			return new Schema(mappings);
+		}
+
+		/**
+		 * @return The number of value slots
+		 */
+		public int size() {
+			return names.length;
+		}
+
+		public String name(int slot) {
+			return names[slot];
+		}
+
+		public boolean isPrimitive(int slot) {
+			return 0 <= slots[slot];
+		}
+
+		/**
+		 * Resolves the slot by name, {@link #FAILURES} is resolved to the trailing slot of failures.
+		 * @return The slot index or {@code -1} if there is no such slot
+		 */
+		public int indexOf(String name) {
+			if (FAILURES.equals(name)) {
+				return names.length;
+			}
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equals(name)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public String toString() {
+			return "Schema " + Arrays.toString(names);
+		}
+	}
+}
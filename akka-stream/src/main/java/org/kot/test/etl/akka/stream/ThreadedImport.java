@@ -0,0 +1,545 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import com.typesafe.config.Config;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * CSV importer run by plain threads, the alternative to the Akka graph of {@link CSVImport} for one-shot imports, which saves the start of
+ * actor system and the hops between actors.
+ * <p>
+ * Files are taken one by one by {@code importer.concurrency} threads, every file is read, parsed by {@link CSVParser}, bound, deduplicated and
+ * routed by the same means the graph stages use, but called straight. Records routed are collected into batches, which are handed off to the
+ * writer of their output file through a bounded queue of {@code importer.output-buffer} batches, so the file threads are held once the writer
+ * is behind. Every output file is written by a thread of its own, which serializes the batches and writes them in blocks, compressed if
+ * configured so.
+ * <p>
+ * The threads of import form a single scope: the first failure of any of them cancels the others and fails the import, which returns once all
+ * of them are done. The same {@code importer.*} keys are taken and the same files are written as by the graph, though checkpoint and watch
+ * modes are not supported; metrics, ranges splitting and adaptive concurrency do not apply.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-05-25 11:10
+ */
+public class ThreadedImport {
+
+	private static final Logger logger = LoggerFactory.getLogger(ThreadedImport.class);
+
+	private static final int CHUNK_SIZE = 8192;
+
+	/* the interval thread blocked by the queue checks the scope for failure */
+	private static final long CHECK_INTERVAL = 100;
+
+	private final ImportSettings settings;
+
+	private ThreadedImport(Config config) {
+		this.settings = ImportSettings.of(config);
+		if (settings.checkpointing || settings.watching) {
+			throw new IllegalArgumentException("Checkpoint and watch modes are supported by the Akka engine only");
+		}
+	}
+
+	/**
+	 * Constructs importer of the {@code importer.*} keys of config.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static ThreadedImport of(Config config) {
+		return new ThreadedImport(config);
+	}
+
+	/**
+	 * Imports the files found in the import folder.
+	 * @return The number of bytes written to the output and error files
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public long importFromFiles() throws IOException, InterruptedException {
+		switch (settings.record) {
+			case "map":
+				Predicate<Map<String, ?>> failed = m -> m.containsKey("failures");
+				return importFromFiles(CSV2JavaStage.toMappings(Binding.inMappings()), failed, m -> m.get("id"),
+						settings.deduplication(m -> ((Number) m.get("id")).longValue(), failed, CSV2JavaStage::fail),
+						Java2CSVStage.toMapping(Binding.outMappings()), Java2CSVStage.toMapping(Binding.errorMappings()),
+						file -> ParquetSink.toMapping(file, Binding.inMappings()));
+			case "row":
+				Row.Schema schema = Row.Schema.of(Binding.inMappings());
+				int id = schema.indexOf("id");
+				return importFromFiles(CSV2JavaStage.toRows(Binding.inMappings()), Row::isFailed, r -> r.get(id),
+						settings.deduplication(r -> r.getLong(id), Row::isFailed, Row::fail),
+						Java2CSVStage.toMapping(schema, Binding.outMappings()), Java2CSVStage.toMapping(schema, Binding.errorMappings()),
+						file -> ParquetSink.toMapping(file, schema, Binding.inMappings()));
+			default:
+				throw new IllegalArgumentException("Unknown record type '" + settings.record + "'");
+		}
+	}
+
+	/**
+	 * Imports the files routing every record the same way the graph does: the failed ones to the error file, the others to one of output files
+	 * by hash of the key. Last-wins deduplication indexes all the files before the import.
+	 * @param dedup Deduplication of records or {@code null}, if it is disabled
+	 */
+	private <T> long importFromFiles(CSV2JavaStage<T> binding, Predicate<T> failed, Function<T, ?> key, Deduplication<T> dedup,
+	                                 Java2CSVStage<T> out, Java2CSVStage<T> err, Function<Path, ParquetSink<T>> parquet)
+			throws IOException, InterruptedException {
+		List<Path> files = settings.files();
+		logger.info("Starting import of {} files from {}", files.size(), settings.importDirectory);
+		long time = System.nanoTime();
+		ToIntFunction<T> route = Grapher.byFailure(failed, Grapher.byHash(key, settings.outputFiles));
+		CSVParsingStage parsing = settings.parsing(',', '"', '\\', 10240);
+		if (null != dedup && dedup.isIndexing()) {
+			index(files, parsing, binding, dedup);
+		}
+
+		Scope scope = new Scope();
+		List<Output<T>> outputs = new ArrayList<>();
+		try {
+			for (int t = 0; t <= settings.outputFiles; t++) {
+				Path file = settings.output(t, settings.outputFiles + 1);
+				if (0 != t && settings.parquetOutput) {
+					outputs.add(new ParquetOutput<>(scope, parquet.apply(file)
+							.withLayout(settings.rowGroupSize, settings.pageSize, settings.dictionaryPageSize)
+							.compressedBy(settings.parquetCodec)
+							.withDecimalScale(settings.decimalScale, settings.decimalRounding)));
+				} else {
+					outputs.add(new CSVOutput<>(scope, file, (0 == t)? err: out, 0 != t));
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			outputs.forEach(Output::abort);
+			throw e;
+		}
+		for (int t = 0; t < outputs.size(); t++) {
+			scope.fork("import-writer-" + t, outputs.get(t)::run);
+		}
+		Queue<Integer> pending = new ConcurrentLinkedQueue<>(indexes(files));
+		List<Thread> importers = new ArrayList<>();
+		for (int i = 0; i < Math.min(settings.concurrentFiles, files.size()); i++) {
+			importers.add(scope.fork("import-file-" + i, () -> {
+				for (Integer file = pending.poll(); null != file && !scope.isFailed(); file = pending.poll()) {
+					new FileImport<>(files.get(file), parsing.parser(), binding, (null == dedup)? UnaryOperator.identity(): dedup.of(file), route,
+							outputs).run();
+				}
+			}));
+		}
+		try {
+			for (Thread importer : importers) {
+				importer.join();
+			}
+			for (Output<T> output : outputs) {
+				output.finish();
+			}
+			scope.join();
+		} catch (CancellationException e) {
+			scope.join();
+		} catch (InterruptedException e) {
+			scope.fail(e);
+			scope.join();
+			throw e;
+		}
+		try {
+			scope.check();
+		} catch (IOException e) {
+			logger.error("Import failed", e);
+			throw e;
+		}
+		logger.info("Import finished in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time));
+		return outputs.stream().mapToLong(o -> o.size).sum();
+	}
+
+	/**
+	 * The first pass of last-wins deduplication, which reads the files by the threads the same way the import does, but passes the records to
+	 * the index of deduplication only.
+	 */
+	private <T> void index(List<Path> files, CSVParsingStage parsing, CSV2JavaStage<T> binding, Deduplication<T> dedup)
+			throws IOException, InterruptedException {
+		long time = System.nanoTime();
+		Scope scope = new Scope();
+		Queue<Integer> pending = new ConcurrentLinkedQueue<>(indexes(files));
+		for (int i = 0; i < Math.min(settings.concurrentFiles, files.size()); i++) {
+			scope.fork("import-index-" + i, () -> {
+				for (Integer file = pending.poll(); null != file && !scope.isFailed(); file = pending.poll()) {
+					new FileImport<>(files.get(file), parsing.parser(), binding, dedup.index(file), null, Collections.<Output<T>>emptyList()).run();
+				}
+			});
+		}
+		try {
+			scope.join();
+		} catch (InterruptedException e) {
+			scope.fail(e);
+			scope.join();
+			throw e;
+		}
+		scope.check();
+		logger.info("Indexed {} ids of {} files in {} ms", dedup.size(), files.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time));
+	}
+
+	private static List<Integer> indexes(List<Path> files) {
+		List<Integer> result = new ArrayList<>(files.size());
+		for (int i = 0; i < files.size(); i++) {
+			result.add(i);
+		}
+		return result;
+	}
+
+	/* gzip file is inflated as a single stream, members one by one */
+	private static InputStream open(Path file) throws IOException {
+		InputStream result = Files.newInputStream(file);
+		return GzipFlow.isCompressed(file)? new GZIPInputStream(result, CHUNK_SIZE): result;
+	}
+
+	/**
+	 * Task of the thread of scope.
+	 */
+	private interface Task {
+
+		void run() throws Exception;
+	}
+
+	/**
+	 * Threads of import, which all are cancelled by the first failure of any of them.
+	 */
+	private static final class Scope {
+
+		private final List<Thread> threads = new CopyOnWriteArrayList<>();
+
+		private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		Thread fork(String name, Task task) {
+			Thread result = new Thread(() -> {
+				try {
+					task.run();
+				} catch (Throwable e) {
+					fail(e);
+				}
+			}, name);
+			threads.add(result);
+			result.start();
+			return result;
+		}
+
+		/* the first failure cancels the others, the cancellation they fail by then is not a failure of its own */
+		void fail(Throwable e) {
+			if (failure.compareAndSet(null, e)) {
+				threads.forEach(Thread::interrupt);
+			} else if (!(e instanceof CancellationException || e instanceof InterruptedException)) {
+				failure.get().addSuppressed(e);
+			}
+		}
+
+		boolean isFailed() {
+			return null != failure.get();
+		}
+
+		/**
+		 * @throws CancellationException If the scope is failed
+		 */
+		void checkCancelled() {
+			if (isFailed()) {
+				throw new CancellationException("Import is cancelled by failure of " + failure.get());
+			}
+		}
+
+		void join() throws InterruptedException {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		}
+
+		void check() throws IOException {
+			Throwable e = failure.get();
+			if (null != e) {
+				throw (e instanceof IOException)? (IOException) e: new IOException("Import failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Import of a single file by the thread taken it: rows parsed are bound and routed into batches of outputs, every batch full is handed off to
+	 * its output. The import of no outputs binds the rows only, which is the way the files are indexed.
+	 */
+	private final class FileImport<T> {
+
+		private final Path file;
+
+		private final CSVParser parser;
+
+		private final CSV2JavaStage<T> binding;
+
+		private final UnaryOperator<T> dedup;
+
+		private final ToIntFunction<T> route;
+
+		private final List<Output<T>> outputs;
+
+		private final List<List<T>> batches;
+
+		/* whether the header is passed, the rows before it are skipped */
+		private boolean started;
+
+		FileImport(Path file, CSVParser parser, CSV2JavaStage<T> binding, UnaryOperator<T> dedup, ToIntFunction<T> route, List<Output<T>> outputs) {
+			this.file = file;
+			this.parser = parser;
+			this.binding = binding;
+			this.dedup = dedup;
+			this.route = route;
+			this.outputs = outputs;
+			this.batches = new ArrayList<>(outputs.size());
+			for (int i = 0; i < outputs.size(); i++) {
+				batches.add(new ArrayList<>());
+			}
+		}
+
+		void run() throws IOException, InterruptedException {
+			long time = System.nanoTime();
+			byte[] chunk = new byte[CHUNK_SIZE];
+			try (InputStream input = open(file)) {
+				for (int n = input.read(chunk); -1 != n; n = input.read(chunk)) {
+					parser.offer(ByteString.fromArray(chunk, 0, n));
+					bind(true);
+					if (0 == settings.batchSize) {
+						flush();
+					}
+				}
+			}
+			bind(false);
+			flush();
+			logger.debug("File {} imported in {} ms", file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - time));
+		}
+
+		private void bind(boolean requireLineFeed) throws InterruptedException {
+			for (List<ByteString> row = parser.poll(requireLineFeed); null != row; row = parser.poll(requireLineFeed)) {
+				if (!started) {
+					started = binding.isHeader(row);
+					continue;
+				}
+				T record = dedup.apply(binding.bind(row));
+				if (outputs.isEmpty()) {
+					continue;
+				}
+				int t = route.applyAsInt(record);
+				List<T> batch = batches.get(t);
+				batch.add(record);
+				if (0 < settings.batchSize && settings.batchSize <= batch.size()) {
+					outputs.get(t).handOff(batch);
+					batches.set(t, new ArrayList<>(settings.batchSize));
+				}
+			}
+		}
+
+		private void flush() throws InterruptedException {
+			for (int t = 0; t < batches.size(); t++) {
+				if (!batches.get(t).isEmpty()) {
+					outputs.get(t).handOff(batches.get(t));
+					batches.set(t, new ArrayList<>());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Output file written by a thread of its own from the queue of batches handed off to it.
+	 */
+	private abstract class Output<T> {
+
+		/* the end of batches, which is handed off once all the files are imported */
+		private final List<T> end = Collections.emptyList();
+
+		private final BlockingQueue<List<T>> queue = new ArrayBlockingQueue<>(Math.max(settings.outputBuffer, 1));
+
+		final Scope scope;
+
+		/* the size of file written, which is known once it is closed */
+		long size;
+
+		Output(Scope scope) {
+			this.scope = scope;
+		}
+
+		/**
+		 * Hands the batch off to the writer, waiting for room in the queue while the scope is not failed.
+		 */
+		void handOff(List<T> batch) throws InterruptedException {
+			while (!queue.offer(batch, CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+				scope.checkCancelled();
+			}
+		}
+
+		void finish() throws InterruptedException {
+			handOff(end);
+		}
+
+		/**
+		 * Writes the batches handed off until the end of them, the file is closed then.
+		 */
+		void run() throws IOException, InterruptedException {
+			try {
+				for (List<T> batch = take(); end != batch; batch = take()) {
+					write(batch);
+				}
+				size = close();
+			} finally {
+				abort();
+			}
+		}
+
+		private List<T> take() throws InterruptedException {
+			List<T> result = queue.poll(CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+			while (null == result) {
+				scope.checkCancelled();
+				result = queue.poll(CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+			}
+			return result;
+		}
+
+		abstract void write(List<T> batch) throws IOException;
+
+		/**
+		 * @return The size of file
+		 */
+		abstract long close() throws IOException;
+
+		/**
+		 * Closes the file, if it is still open, with no failure.
+		 */
+		abstract void abort();
+	}
+
+	/**
+	 * CSV file, which batches are serialized into blocks, every block full is written and compressed into gzip member first, if it is enabled.
+	 */
+	private final class CSVOutput<T> extends Output<T> {
+
+		private final FileChannel channel;
+
+		private final Java2CSVStage<T> serialization;
+
+		private final int blockSize;
+
+		/* compression level or -1 for no compression */
+		private final int level;
+
+		private final ByteStringBuilder block = ByteString.createBuilder();
+
+		private boolean started;
+
+		private long written;
+
+		CSVOutput(Scope scope, Path file, Java2CSVStage<T> serialization, boolean output) throws IOException {
+			super(scope);
+			this.serialization = serialization;
+			boolean compress = output? settings.compressOutput: settings.compressErrors;
+			this.blockSize = !compress? settings.outputBlockSize: output? settings.outputCompressionBlockSize: settings.errorCompressionBlockSize;
+			this.level = !compress? -1: output? settings.outputCompressionLevel: settings.errorCompressionLevel;
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		}
+
+		@Override
+		void write(List<T> batch) throws IOException {
+			block.append(serialization.toLines(batch, !started));
+			started = true;
+			if (blockSize <= block.length()) {
+				flush();
+			}
+		}
+
+		@Override
+		long close() throws IOException {
+			if (0 < block.length()) {
+				flush();
+			}
+			channel.close();
+			return written;
+		}
+
+		@Override
+		void abort() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.warn("Failed to close output file", e);
+			}
+		}
+
+		private void flush() throws IOException {
+			ByteString data = block.result();
+			block.clear();
+			if (0 <= level) {
+				data = GzipFlow.member(data, level);
+			}
+			for (ByteBuffer buffer : data.getByteBuffers()) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			written += data.size();
+		}
+	}
+
+	/**
+	 * Parquet file written by the writer of sink, record by record.
+	 */
+	private final class ParquetOutput<T> extends Output<T> {
+
+		private final Path file;
+
+		private ParquetWriter<T> writer;
+
+		ParquetOutput(Scope scope, ParquetSink<T> sink) throws IOException {
+			super(scope);
+			this.file = sink.file();
+			this.writer = sink.open();
+		}
+
+		@Override
+		void write(List<T> batch) throws IOException {
+			for (T record : batch) {
+				writer.write(record);
+			}
+		}
+
+		@Override
+		long close() throws IOException {
+			writer.close();
+			writer = null;
+			return Files.size(file);
+		}
+
+		@Override
+		void abort() {
+			if (null != writer) {
+				try {
+					writer.close();
+				} catch (IOException | RuntimeException e) {
+					logger.warn("Failed to close Parquet file " + file, e);
+				}
+				writer = null;
+			}
+		}
+	}
+}
@@ -50,6 +50,9 @@ public class BindingDataTest {
 				{"one", null, mappings.get("id")},
 				{"1", 1, mappings.get("id")},
 				{"1000000", 1_000_000, mappings.get("id")},
+				{"+1", 1, mappings.get("id")},
+				{"-0", 0, mappings.get("id")},
+				{"2147483648", null, mappings.get("id")},
 
 				{null, null, mappings.get("col1")},
 				{"", "", mappings.get("col1")},
@@ -63,6 +66,9 @@ public class BindingDataTest {
 				{"1/13/2018", null, mappings.get("col2")},
 				{"34/11/2018", null, mappings.get("col2")},
 				{"10/10/2018", LocalDate.of(2018, 10, 10), mappings.get("col2")},
+				{"010/010/2018", LocalDate.of(2018, 10, 10), mappings.get("col2")},
+				{"29/2/2018", null, mappings.get("col2")},
+				{"29/2/2016", LocalDate.of(2016, 2, 29), mappings.get("col2")},
 
 
 				{null, null, mappings.get("col3")},
@@ -76,6 +82,8 @@ public class BindingDataTest {
 				{"1000000", new BigDecimal("1000000"), mappings.get("col3")},
 				{"2000.10", new BigDecimal("2000.10"), mappings.get("col3")},
 				{"0.2222222", new BigDecimal("0.2222222"), mappings.get("col3")},
+				{"1.5e3", new BigDecimal("1.5e3"), mappings.get("col3")},
+				{"123456789012345678901234567890", new BigDecimal("123456789012345678901234567890"), mappings.get("col3")},
 
 				{null, null, mappings.get("col4")},
 				{"", null, mappings.get("col4")},
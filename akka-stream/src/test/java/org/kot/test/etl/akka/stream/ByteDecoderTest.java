@@ -0,0 +1,147 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test suite for byte level decoders, which have to accept and reject the same as JDK parsing does.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-02-23 15:20
+ */
+@RunWith(Parameterized.class)
+public class ByteDecoderTest {
+
+	private final String data;
+
+	@Parameterized.Parameters(name = "{index}: decode \"{0}\"")
+	public static Iterable<Object[]> cells() {
+		List<Object[]> result = new ArrayList<>();
+		for (String cell : Arrays.asList(
+				"", "0", "-0", "+0", "1", "+1", "-1", "-", "+", "+-1", "01", "1 ", " 1", "1a",
+				"2147483647", "2147483648", "-2147483648", "-2147483649", "99999999999",
+				"9223372036854775807", "9223372036854775808", "-9223372036854775808", "-9223372036854775809",
+				"\u0661\u0662", "1\u0662", "1.\u0662",
+				".", "1.", ".1", "+.1", "-.1", "1.2.3", "0.00", "-0.0", "2000.10", "0.2222222", ",0000", ".1.3.4",
+				"1e5", "1E+5", "1.5e-3", "1e", "1e+", "e5", ".e5", "1.e5", "1e0000000001", "1e99999999999",
+				"123456789012345678901234567890", "-123456789012345678901234567890.5",
+				"10/10/2018", "1/1/1", "1/13/2018", "34/11/2018", "29/2/2016", "29/2/2018", "29/2/2000", "29/2/1900",
+				"31/4/2018", "0/1/2018", "1/0/2018", "01/01/2018", "0010/010/2018", "1/1/0000", "1/1/-0000", "1/1/-0001",
+				"1/1/+2018", "1/1/+12018", "1/1/12018", "1/1/+0000012018", "1/1/+999999999", "1/1/+1000000000",
+				"1/1/-999999999", "1/1/018", "-1/1/2018", "+1/1/2018", "1/1/2018/", "1//2018", "/1/2018", "1/1/",
+				"0000000000000000001/1/2018", "00000000000000000001/1/2018", "1/1/2018 ")) {
+			result.add(new Object[] {cell});
+		}
+		return result;
+	}
+
+	public ByteDecoderTest(String data) {
+		this.data = data;
+	}
+
+	@Test
+	public void testInt() {
+		assertThat(decodeInt(data), is(parseInt(data)));
+	}
+
+	@Test
+	public void testLong() {
+		assertThat(decodeLong(data), is(parseLong(data)));
+	}
+
+	@Test
+	public void testDecimal() {
+		assertThat(decodeDecimal(data), is(parseDecimal(data)));
+	}
+
+	@Test
+	public void testDate() {
+		assertThat(decodeDate(data), is(parseDate(data)));
+	}
+
+	@Test
+	public void testRandom() {
+		Random random = new Random(data.hashCode());
+		char[] alphabet = "0123456789+-./eE".toCharArray();
+		for (int i = 0; i < 1000; i++) {
+			char[] cell = new char[1 + random.nextInt(12)];
+			for (int j = 0; j < cell.length; j++) {
+				cell[j] = alphabet[random.nextInt(alphabet.length)];
+			}
+			String value = new String(cell);
+			assertThat(value, decodeInt(value), is(parseInt(value)));
+			assertThat(value, decodeDecimal(value), is(parseDecimal(value)));
+			assertThat(value, decodeDate(value), is(parseDate(value)));
+		}
+	}
+
+	private static Object decodeInt(String value) {
+		ByteDecoder decoder = new ByteDecoder();
+		int code = decoder.decodeInt(ByteString.fromString(value));
+		return (ByteDecoder.NON_ASCII == code)? parseInt(value): (ByteDecoder.OK == code)? (Object) (int) decoder.value(): null;
+	}
+
+	private static Object decodeLong(String value) {
+		ByteDecoder decoder = new ByteDecoder();
+		int code = decoder.decodeLong(ByteString.fromString(value));
+		return (ByteDecoder.NON_ASCII == code)? parseLong(value): (ByteDecoder.OK == code)? (Object) decoder.value(): null;
+	}
+
+	private static Object decodeDecimal(String value) {
+		ByteDecoder decoder = new ByteDecoder();
+		int code = decoder.decodeDecimal(ByteString.fromString(value));
+		if (ByteDecoder.NON_ASCII == code || ByteDecoder.OUT_OF_RANGE == code) {
+			return parseDecimal(value);
+		}
+		return (ByteDecoder.OK == code)? BigDecimal.valueOf(decoder.value(), decoder.scale()): null;
+	}
+
+	private static Object decodeDate(String value) {
+		ByteDecoder decoder = new ByteDecoder();
+		return (ByteDecoder.OK == decoder.decodeDate(ByteString.fromString(value)))? LocalDate.ofEpochDay(decoder.value()): null;
+	}
+
+	private static Object parseInt(String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Object parseLong(String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Object parseDecimal(String value) {
+		try {
+			return new BigDecimal(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Object parseDate(String value) {
+		try {
+			return LocalDate.parse(value, Binding.DATE);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
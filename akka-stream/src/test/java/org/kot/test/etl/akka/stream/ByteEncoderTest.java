@@ -0,0 +1,73 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test suite for byte level encoders, which have to write the same as JDK formatting does.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-03-02 14:05
+ */
+@RunWith(Parameterized.class)
+public class ByteEncoderTest {
+
+	private final long seed;
+
+	@Parameterized.Parameters(name = "{index}: encode from seed {0}")
+	public static Iterable<Object[]> seeds() {
+		return Arrays.asList(new Object[][] {{0L}, {1L}, {20190302L}});
+	}
+
+	public ByteEncoderTest(long seed) {
+		this.seed = seed;
+	}
+
+	@Test
+	public void testLong() {
+		for (long value : new long[] {0, 1, -1, 9, 10, -10, 99, 100, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE}) {
+			assertThat(ByteEncoder.putLong(ByteString.createBuilder(), value).result().utf8String(), is(Long.toString(value)));
+		}
+		Random random = new Random(seed);
+		for (int i = 0; i < 10_000; i++) {
+			long value = random.nextLong() >> random.nextInt(64);
+			assertThat(ByteEncoder.putLong(ByteString.createBuilder(), value).result().utf8String(), is(Long.toString(value)));
+		}
+	}
+
+	@Test
+	public void testDate() {
+		for (LocalDate value : new LocalDate[] {LocalDate.of(2018, 10, 10), LocalDate.of(1, 1, 1), LocalDate.of(0, 1, 1), LocalDate.of(-1, 12, 31),
+				LocalDate.of(9999, 12, 31), LocalDate.of(10_000, 1, 1), LocalDate.MIN, LocalDate.MAX}) {
+			assertThat(ByteEncoder.putDate(ByteString.createBuilder(), value).result().utf8String(), is(Binding.DATE.format(value)));
+		}
+		Random random = new Random(seed);
+		for (int i = 0; i < 10_000; i++) {
+			LocalDate value = LocalDate.ofEpochDay(random.nextInt(5_000_000) - 2_500_000);
+			assertThat(ByteEncoder.putDate(ByteString.createBuilder(), value).result().utf8String(), is(Binding.DATE.format(value)));
+		}
+	}
+
+	@Test
+	public void testString() {
+		Random random = new Random(seed);
+		char[] alphabet = "abc,\"\\ é١€".toCharArray();
+		for (int i = 0; i < 1_000; i++) {
+			char[] text = new char[random.nextInt(16)];
+			for (int j = 0; j < text.length; j++) {
+				text[j] = alphabet[random.nextInt(alphabet.length)];
+			}
+			String value = new String(text);
+			assertThat(ByteEncoder.putString(ByteString.createBuilder(), value).result(), is(ByteString.fromString(value)));
+		}
+	}
+}
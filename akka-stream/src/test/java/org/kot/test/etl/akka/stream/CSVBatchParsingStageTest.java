@@ -0,0 +1,114 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test suite for batching of parsed rows: batch is completed when full, on flush of the incomplete one by timer and on finish of upstream,
+ * and with batch size of {@code 0} per incoming chunk.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-15 11:20
+ */
+@RunWith(Parameterized.class)
+public class CSVBatchParsingStageTest {
+
+	private final boolean inPlace;
+
+	@Parameterized.Parameters(name = "{index}: in place {0}")
+	public static Iterable<Object[]> modes() {
+		return Arrays.asList(new Object[][] {{false}, {true}});
+	}
+
+	public CSVBatchParsingStageTest(boolean inPlace) {
+		this.inPlace = inPlace;
+	}
+
+	@Test
+	public void testFull() throws IOException {
+		CSVBatchParsingStage.Batches batches = batches(2);
+
+		assertThat(batches.offer(ByteString.fromString("a\nb\nc\n")), is(true));
+		assertThat(drain(batches), is(Arrays.asList("a|b")));
+		assertThat(batches.pending(), is(true));
+
+		assertThat(batches.offer(ByteString.fromString("d\n")), is(true));
+		assertThat(drain(batches), is(Arrays.asList("c|d")));
+		assertThat(batches.pending(), is(false));
+	}
+
+	@Test
+	public void testFlush() throws IOException {
+		CSVBatchParsingStage.Batches batches = batches(3);
+
+		assertThat(batches.offer(ByteString.fromString("a\nb\nc")), is(false));
+		assertThat(drain(batches), is(empty()));
+		assertThat(batches.pending(), is(true));
+
+		batches.flush();
+		assertThat(drain(batches), is(Arrays.asList("a|b")));
+		assertThat(batches.pending(), is(false));
+
+		batches.flush();
+		assertThat(drain(batches), is(empty()));
+	}
+
+	@Test
+	public void testFinish() throws IOException {
+		CSVBatchParsingStage.Batches batches = batches(3);
+
+		batches.offer(ByteString.fromString("a\nb\nc\nd\ne"));
+		assertThat(drain(batches), is(Arrays.asList("a|b|c")));
+
+		batches.finish();
+		assertThat(drain(batches), is(Arrays.asList("d|e")));
+		assertThat(batches.pending(), is(false));
+	}
+
+	@Test
+	public void testPerChunk() throws IOException {
+		CSVBatchParsingStage.Batches batches = batches(0);
+
+		assertThat(batches.offer(ByteString.fromString("a\nb\nc\nd")), is(true));
+		assertThat(drain(batches), is(Arrays.asList("a|b|c")));
+		assertThat(batches.pending(), is(false));
+
+		assertThat(batches.offer(ByteString.fromString("e")), is(false));
+		assertThat(drain(batches), is(empty()));
+
+		assertThat(batches.offer(ByteString.fromString("\nf\n")), is(true));
+		assertThat(drain(batches), is(Arrays.asList("de|f")));
+
+		batches.finish();
+		assertThat(drain(batches), is(empty()));
+	}
+
+	private CSVBatchParsingStage.Batches batches(int size) {
+		CSVParsingStage parsing = inPlace?
+				CSVParsingStage.parseInPlace(',', '"', '\\', Integer.MAX_VALUE):
+				CSVParsingStage.parse(',', '"', '\\', Integer.MAX_VALUE);
+		return parsing.batched(size, Duration.ofMillis(100)).batches();
+	}
+
+	/* batches completed, the first cell of every row joined by '|' */
+	private static List<String> drain(CSVBatchParsingStage.Batches batches) {
+		List<String> result = new ArrayList<>();
+		for (List<List<ByteString>> batch = batches.poll(); null != batch; batch = batches.poll()) {
+			result.add(batch.stream().map(row -> row.get(0).utf8String()).collect(Collectors.joining("|")));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,180 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Attributes;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test suite for binding of fields as soon as they are parsed, which has to give the same records as binding the rows parsed and projected on
+ * the columns of mappings, however the data is chunked; and so has the stage materialized as the projected parsing and binding stages do, the
+ * last line with no line feed included, whether it is backpressured or not.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-01 15:10
+ */
+@RunWith(Parameterized.class)
+public class CSVBindingStageTest {
+
+	private static final long SEED = 20181215L;
+
+	private static ActorSystem system;
+
+	private static Materializer materializer;
+
+	private final String data;
+
+	private final String mode;
+
+	private final String record;
+
+	@Parameterized.Parameters(name = "{index}: bind {2} from \"{0}\" in {1} mode")
+	public static Iterable<Object[]> files() {
+		CSVGenerator.Rows generator = new CSVGenerator.Rows(new SplittableRandom(SEED), 0.1, 20);
+		StringBuilder generated = new StringBuilder(generator.header().utf8String());
+		for (int i = 1; i <= 50; i++) {
+			generated.append(generator.row(i).utf8String());
+		}
+		List<Object[]> result = new ArrayList<>();
+		for (String data : Arrays.asList(
+				"id,col1,col2,col3,col4\n1,a,1/2/2019,1.5,3\n2,b,31/12/2018,,\n",
+				"x,col4,col3,col2,col1,id\r\nq,4,2.25,5/6/2019,\"a,b\",7\r\n,,,,,\r\nz,1,1,1/1/2019,c,8",
+				"junk\nid,col1\n1,a\nid,col1,col2,col3,col4,id\nx,a,1/2/2019,1,2,9\n3,b\n\n4,c,30/2/2019,q,r,\n",
+				"col1,col2\na,b\n",
+				generated.toString())) {
+			for (String mode : Arrays.asList("rope", "in-place", "swar")) {
+				for (String record : Arrays.asList("map", "row")) {
+					result.add(new Object[] {data, mode, record});
+				}
+			}
+		}
+		return result;
+	}
+
+	public CSVBindingStageTest(String data, String mode, String record) {
+		this.data = data;
+		this.mode = mode;
+		this.record = record;
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+		system = ActorSystem.create("binding-test");
+		materializer = ActorMaterializer.create(system);
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+		system.terminate();
+	}
+
+	@Test
+	public void test() throws IOException {
+		CSVParsingStage parsing = parsing();
+		CSV2JavaStage<?> binding = "map".equals(record)?
+				CSV2JavaStage.toMappings(Binding.inMappings()):
+				CSV2JavaStage.toRows(Binding.inMappings());
+		List<String> expected = bindRows(parsing, binding);
+		for (int chunk = 1; chunk <= data.length(); chunk += (100 < data.length())? 97: 1) {
+			assertThat("chunk " + chunk, bindFields(parsing, binding, chunk), is(expected));
+		}
+	}
+
+	@Test
+	public void testStage() throws Exception {
+		CSVParsingStage parsing = parsing();
+		CSVParsingStage projected = parsing.project(Binding.inMappings().stream().map(Binding.Mapping::fromName).collect(Collectors.toList()));
+		CSV2JavaStage<?> binding = "map".equals(record)?
+				CSV2JavaStage.toMappings(Binding.inMappings()):
+				CSV2JavaStage.toRows(Binding.inMappings());
+		for (int chunk : Arrays.asList(1, 7, 64, data.length())) {
+			List<ByteString> chunks = chunks(chunk);
+			List<String> expected = run(Source.from(chunks).via(projected).via(binding));
+			assertThat("chunk " + chunk, run(Source.from(chunks).via(parsing.bind(binding))), is(expected));
+			// a record at a time, so the stage is backpressured and ends the stream with the rest pending
+			assertThat("chunk " + chunk, run(Source.from(chunks).via(parsing.bind(binding)).async().withAttributes(Attributes.inputBuffer(1, 1))),
+					is(expected));
+		}
+	}
+
+	private CSVParsingStage parsing() {
+		switch (mode) {
+			case "rope":
+				return CSVParsingStage.parse(',', '"', '\\', Integer.MAX_VALUE);
+			case "in-place":
+				return CSVParsingStage.parseInPlace(',', '"', '\\', Integer.MAX_VALUE);
+			default:
+				return CSVParsingStage.parseInPlace(',', '"', '\\', Integer.MAX_VALUE, CSVScanner.of(mode, ',', '"', '\\'));
+		}
+	}
+
+	/* parses the rows projected on the columns of mappings completely and binds the ones after header */
+	private <T> List<String> bindRows(CSVParsingStage parsing, CSV2JavaStage<T> binding) throws IOException {
+		CSVParser parser = parsing.parser();
+		parser.project(Binding.inMappings().stream().map(m -> ByteString.fromString(m.fromName())).collect(Collectors.toList()));
+		parser.offer(ByteString.fromString(data));
+		List<String> result = new ArrayList<>();
+		boolean started = false;
+		for (List<ByteString> row = parser.poll(false); null != row; row = parser.poll(false)) {
+			if (started) {
+				result.add(binding.bind(row).toString());
+			} else {
+				started = binding.isHeader(row);
+			}
+		}
+		return result;
+	}
+
+	/* the data split into chunks of the size, the last one may be smaller */
+	private List<ByteString> chunks(int size) {
+		ByteString bytes = ByteString.fromString(data);
+		List<ByteString> result = new ArrayList<>();
+		for (int i = 0; i < bytes.size(); i += size) {
+			result.add(bytes.slice(i, i + size));
+		}
+		return result;
+	}
+
+	private static List<String> run(Source<?, ?> records) throws InterruptedException, ExecutionException {
+		return records
+				.map(Object::toString)
+				.runWith(Sink.seq(), materializer)
+				.toCompletableFuture()
+				.get();
+	}
+
+	private <T> List<String> bindFields(CSVParsingStage parsing, CSV2JavaStage<T> binding, int chunk) throws IOException {
+		CSVBindingStage.Binder<T> binder = parsing.bind(binding).binder();
+		ByteString bytes = ByteString.fromString(data);
+		List<String> result = new ArrayList<>();
+		for (int i = 0; i < bytes.size(); i += chunk) {
+			binder.offer(bytes.slice(i, i + chunk));
+			for (T next = binder.poll(true); null != next; next = binder.poll(true)) {
+				result.add(next.toString());
+			}
+		}
+		for (T next = binder.poll(false); null != next; next = binder.poll(false)) {
+			result.add(next.toString());
+		}
+		return result;
+	}
+}
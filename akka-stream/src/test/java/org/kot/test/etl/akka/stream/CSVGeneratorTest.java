@@ -0,0 +1,135 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * Test suite for rows generator, which files have to end by the number of rows or the size given, be the same for the same seed and bind with
+ * no failure, if no cell is screwed, and keep the values of column of bounded cardinality within its cardinality.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-05-11 15:40
+ */
+@RunWith(Parameterized.class)
+public class CSVGeneratorTest {
+
+	private static final long SEED = 20181215L;
+
+	private final long rows;
+
+	private final long size;
+
+	private final int chunkSize;
+
+	private final long cardinality;
+
+	private final double skew;
+
+	@Parameterized.Parameters(name = "{index}: {0} rows or {1} bytes in chunks of {2}, ids of cardinality {3} and skew {4}")
+	public static Iterable<Object[]> files() {
+		return Arrays.asList(new Object[][] {
+				{1, 0, 16, 0, 0},
+				{1000, 0, 64, 0, 0},
+				{1000, 0, 64 * 1024, 0, 0},
+				{0, 100_000, 4 * 1024, 0, 0},
+				{500, 10_000, 1024, 0, 0},
+				{5000, 0, 1024, 100, 0},
+				{5000, 0, 1024, 100, 1},
+				{5000, 0, 1024, 1000, 1.5},
+				{5000, 0, 1024, 10, 0.5}
+		});
+	}
+
+	public CSVGeneratorTest(long rows, long size, int chunkSize, long cardinality, double skew) {
+		this.rows = rows;
+		this.size = size;
+		this.chunkSize = chunkSize;
+		this.cardinality = cardinality;
+		this.skew = skew;
+	}
+
+	@Test
+	public void testBounds() {
+		List<ByteString> chunks = generate(0.005);
+		ByteString file = ByteString.empty();
+		for (ByteString chunk : chunks.subList(0, chunks.size() - 1)) {
+			assertThat(chunk.size(), greaterThanOrEqualTo(chunkSize));
+			file = file.concat(chunk);
+		}
+		file = file.concat(chunks.get(chunks.size() - 1));
+		String[] lines = file.utf8String().split("\n", -1);
+		assertThat(lines[lines.length - 1], is(""));
+		long count = lines.length - 2;
+		if (0 < rows) {
+			assertThat(count, lessThanOrEqualTo(rows));
+		}
+		if (0 < size) {
+			assertThat((long) file.size() - lines[lines.length - 2].length() - 1, lessThan(size));
+		}
+		if (0 == size || file.size() < size) {
+			assertThat(count, is(rows));
+		}
+	}
+
+	@Test
+	public void testReproducible() {
+		assertThat(generate(0.005), is(generate(0.005)));
+	}
+
+	@Test
+	public void testBinding() throws IOException {
+		CSVParser parser = new CSVParser(',', '"', '\\', Integer.MAX_VALUE);
+		CSV2JavaStage<Row> binding = CSV2JavaStage.toRows(Binding.inMappings());
+		Row.Schema schema = Row.Schema.of(Binding.inMappings());
+		Set<Long> ids = new HashSet<>();
+		boolean header = true;
+		for (ByteString chunk : generate(0)) {
+			parser.offer(chunk);
+			for (List<ByteString> cells = parser.poll(true); null != cells; cells = parser.poll(true)) {
+				if (header) {
+					header = false;
+					continue;
+				}
+				Row row = binding.bind(cells);
+				assertThat(row.toString(), row.isFailed(), is(false));
+				ids.add(row.getLong(schema.indexOf("id")));
+			}
+		}
+		if (0 < cardinality) {
+			assertThat((long) ids.size(), lessThanOrEqualTo(cardinality));
+			for (long id : ids) {
+				assertThat(id, greaterThanOrEqualTo(1L));
+				assertThat(id, lessThanOrEqualTo(cardinality));
+			}
+		}
+	}
+
+	private List<ByteString> generate(double invalidLineProbability) {
+		Map<String, CSVGenerator.Column> columns = Collections.singletonMap("id", CSVGenerator.Column.of(cardinality, skew));
+		CSVGenerator.Rows generator = new CSVGenerator.Rows(new SplittableRandom(SEED), invalidLineProbability, 100, columns, 0, 1);
+		List<ByteString> result = new ArrayList<>();
+		for (Iterator<ByteString> chunks = generator.chunks(rows, size, chunkSize); chunks.hasNext(); ) {
+			result.add(chunks.next());
+		}
+		return result;
+	}
+}
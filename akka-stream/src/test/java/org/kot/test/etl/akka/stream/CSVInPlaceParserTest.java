@@ -0,0 +1,152 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.iterableWithSize;
+
+/**
+ * Test suite for in place parsing, which has to give the same rows as parsing over the rope, however the data is fragmented, including the
+ * chunk which is a rope of fragments itself.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-15 10:10
+ */
+@RunWith(Parameterized.class)
+public class CSVInPlaceParserTest {
+
+	private final int row;
+
+	private final int col;
+
+	private final ByteString data;
+
+	@Parameterized.Parameters(name = "{index}: {0} x {1} from \"{2}\"")
+	public static Iterable<Object[]> lines() {
+		return Arrays.asList(new Object[][] {
+				{1, 3, "col1,col2,col3"},
+				{1, 3, "col1,col2,col3\n"},
+				{1, 3, "col1,col2,col3\r\n"},
+				{1, 3, "\"col,with,commas\",col\\\"with\\\"quotas,\"col\nwith\nlf\""},
+				{1, 3, "\"col,with,commas\",col\\\"with\\\"quotas,\"col\nwith\nlf\"\n"}
+		});
+	}
+
+	public CSVInPlaceParserTest(int row, int col, String data) {
+		this.row = row;
+		this.col = col;
+		this.data = ByteString.fromString(data);
+	}
+
+	@Test
+	public void test() throws IOException {
+		CSVParser parser = new CSVParser(',', '"', '\\', 1024, true);
+
+		List<List<ByteString>> lines = new ArrayList<>();
+		parser.offer(data);
+		drainTo(parser, lines);
+
+		assertThat(lines, iterableWithSize(row));
+		assertThat(lines, hasItem(iterableWithSize(col)));
+	}
+
+	@Test
+	public void testDouble() throws IOException {
+		CSVParser parser = new CSVParser(',', '"', '\\', 1024, true);
+
+		List<List<ByteString>> lines = new ArrayList<>();
+		parser.offer(doubled());
+		drainTo(parser, lines);
+
+		assertThat(lines, iterableWithSize(row * 2));
+		assertThat(lines, hasItem(iterableWithSize(col)));
+	}
+
+	@Test
+	public void testFragmented() throws IOException {
+		ByteString doubled = doubled();
+		CSVParser parser = new CSVParser(',', '"', '\\', 1024);
+
+		List<List<ByteString>> expected = new ArrayList<>();
+		parser.offer(doubled);
+		drainTo(parser, expected);
+
+		assertThat(parseByteByByte(new CSVParser(',', '"', '\\', 1024, true), doubled), is(expected));
+	}
+
+	@Test
+	public void testManyFragments() throws IOException {
+		StringBuilder repeated = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			repeated.append(data.utf8String()).append(('\n' != data.last())? "\n": "");
+		}
+		ByteString many = ByteString.fromString(repeated.toString());
+		CSVParser parser = new CSVParser(',', '"', '\\', Integer.MAX_VALUE);
+
+		List<List<ByteString>> expected = new ArrayList<>();
+		parser.offer(many);
+		drainTo(parser, expected);
+
+		assertThat(expected, iterableWithSize(row * 500));
+		assertThat(parseByteByByte(new CSVParser(',', '"', '\\', Integer.MAX_VALUE, true), many), is(expected));
+	}
+
+	@Test
+	public void testRopeOfFragments() throws IOException {
+		ByteString doubled = doubled();
+		ByteString rope = ByteString.empty();
+		for (int i = 0; i < doubled.size(); i += 3) {
+			rope = rope.concat(doubled.slice(i, i + 3));
+		}
+		CSVParser parser = new CSVParser(',', '"', '\\', 1024);
+
+		List<List<ByteString>> expected = new ArrayList<>();
+		parser.offer(doubled);
+		drainTo(parser, expected);
+
+		for (CSVParser inPlace : Arrays.asList(new CSVParser(',', '"', '\\', 1024, true),
+				new CSVParser(',', '"', '\\', 1024, CSVScanner.swar(',', '"', '\\')))) {
+			List<List<ByteString>> lines = new ArrayList<>();
+			inPlace.offer(rope);
+			drainTo(inPlace, lines);
+			assertThat(lines, is(expected));
+		}
+	}
+
+	private ByteString doubled() {
+		return ('\n' != data.last())? data.concat(ByteString.fromString("\n")).concat(data): data.concat(data);
+	}
+
+	private static List<List<ByteString>> parseByteByByte(CSVParser parser, ByteString data) throws IOException {
+		List<List<ByteString>> lines = new ArrayList<>();
+		for (int i = 0; i < data.size(); i++) {
+			parser.offer(data.slice(i, i + 1));
+			for (List<ByteString> line = parser.poll(true); null != line; line = parser.poll(true)) {
+				lines.add(line);
+			}
+		}
+		drainTo(parser, lines);
+		return lines;
+	}
+
+	private static void drainTo(CSVParser parser, List<List<ByteString>> lines) {
+		List<ByteString> line;
+		for (line = parser.poll(true); null != line; line = parser.poll(true)) {
+			lines.add(line);
+		}
+		line = parser.poll(false);
+		if (null != line) {
+			lines.add(line);
+		}
+	}
+}
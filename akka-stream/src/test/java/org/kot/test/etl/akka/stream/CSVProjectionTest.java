@@ -0,0 +1,111 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test suite for projection of rows on the columns resolved from header, which has to give the same cells as picking them from the rows parsed
+ * completely, however the data is chunked.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-03-30 11:20
+ */
+@RunWith(Parameterized.class)
+public class CSVProjectionTest {
+
+	private static final List<ByteString> COLUMNS = Arrays.asList(ByteString.fromString("id"), ByteString.fromString("col2"),
+			ByteString.fromString("col1"));
+
+	private final String data;
+
+	private final String mode;
+
+	@Parameterized.Parameters(name = "{index}: project \"{0}\" in {1} mode")
+	public static Iterable<Object[]> files() {
+		List<Object[]> result = new ArrayList<>();
+		for (String data : Arrays.asList(
+				"id,col1,col2\n1,a,b\n2,c,d\n",
+				"col2,x,id,y,col1\nb,\"x,\ny\",1,,a\r\nd,,2,\"\",c",
+				"junk\nid,col1\n1,a\ncol1,x,col2,id\na,\"q\",b,1\na,\"q\"\nc,\"z\",d,2,extra,\"\",\n",
+				"id,col1,col2,id\n1,a,b,3\n,,,\n\n",
+				"col1,col2\na,b\n")) {
+			for (String mode : Arrays.asList("rope", "in-place", "swar")) {
+				result.add(new Object[] {data, mode});
+			}
+		}
+		return result;
+	}
+
+	public CSVProjectionTest(String data, String mode) {
+		this.data = data;
+		this.mode = mode;
+	}
+
+	@Test
+	public void test() throws IOException {
+		List<List<ByteString>> expected = project(parse(false, data.length()));
+		for (int chunk = 1; chunk <= data.length(); chunk++) {
+			assertThat("chunk " + chunk, parse(true, chunk), is(expected));
+		}
+	}
+
+	private List<List<ByteString>> parse(boolean projected, int chunk) throws IOException {
+		CSVParser parser;
+		switch (mode) {
+			case "rope":
+				parser = new CSVParser(',', '"', '\\', Integer.MAX_VALUE);
+				break;
+			case "in-place":
+				parser = new CSVParser(',', '"', '\\', Integer.MAX_VALUE, true);
+				break;
+			default:
+				parser = new CSVParser(',', '"', '\\', Integer.MAX_VALUE, CSVScanner.of(mode, ',', '"', '\\'));
+		}
+		if (projected) {
+			parser.project(COLUMNS);
+		}
+		ByteString bytes = ByteString.fromString(data);
+		List<List<ByteString>> result = new ArrayList<>();
+		for (int i = 0; i < bytes.size(); i += chunk) {
+			parser.offer(bytes.slice(i, i + chunk));
+			for (List<ByteString> row = parser.poll(true); null != row; row = parser.poll(true)) {
+				result.add(row);
+			}
+		}
+		for (List<ByteString> row = parser.poll(false); null != row; row = parser.poll(false)) {
+			result.add(row);
+		}
+		return result;
+	}
+
+	/* picks the cells of columns from the rows after header */
+	private static List<List<ByteString>> project(List<List<ByteString>> rows) {
+		List<List<ByteString>> result = new ArrayList<>();
+		List<ByteString> header = null;
+		for (List<ByteString> row : rows) {
+			if (null != header) {
+				result.add(COLUMNS.stream()
+						.map(header::indexOf)
+						.map(i -> (i < row.size())? row.get(i): null)
+						.collect(Collectors.toList()));
+			} else if (row.containsAll(COLUMNS)) {
+				header = row;
+				result.add(COLUMNS);
+			} else {
+				result.add(row);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,99 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test suite for structural characters scanners.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-01-12 16:45
+ */
+@RunWith(Parameterized.class)
+public class CSVScannerTest {
+
+	private final String data;
+
+	@Parameterized.Parameters(name = "{index}: scan \"{0}\"")
+	public static Iterable<Object[]> lines() {
+		return Arrays.asList(new Object[][] {
+				{""},
+				{"col1"},
+				{"col1,col2,col3\n"},
+				{"col1,col2,col3\r\n1,,3\r\n"},
+				{"\"col,with,commas\",col\\\"with\\\"quotas,\"col\nwith\nlf\"\n"},
+				{"1,ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ,10/10/2018,2000.10,-1\n"}
+		});
+	}
+
+	public CSVScannerTest(String data) {
+		this.data = data;
+	}
+
+	@Test
+	public void testBitmap() {
+		ByteBuffer buffer = ByteString.fromString(data).asByteBuffer().slice();
+
+		long[] expected = new long[(data.length() + 63) >>> 6];
+		for (int i = 0; i < data.length(); i++) {
+			if (0 <= ",\"\\\r\n".indexOf(data.charAt(i))) {
+				expected[i >>> 6] |= 1L << i;
+			}
+		}
+		long[] swar = CSVScanner.swar(',', '"', '\\').scan(buffer);
+
+		assertThat(swar, is(expected));
+	}
+
+	@Test
+	public void testStructuralPositions() {
+		ByteBuffer buffer = ByteString.fromString(data).asByteBuffer().slice();
+		long[] bitmap = CSVScanner.swar(',', '"', '\\').scan(buffer);
+
+		List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < data.length(); i++) {
+			if (0 <= ",\"\\\r\n".indexOf(data.charAt(i))) {
+				expected.add(i);
+			}
+		}
+		List<Integer> actual = new ArrayList<>();
+		for (int i = CSVScanner.next(bitmap, 0, data.length()); 0 <= i; i = CSVScanner.next(bitmap, i + 1, data.length())) {
+			actual.add(i);
+		}
+
+		assertThat(actual, is(expected));
+	}
+
+	@Test
+	public void testParseSameAsRope() throws IOException {
+		ByteString bytes = ByteString.fromString(data);
+
+		assertThat(parse(new CSVParser(',', '"', '\\', 1024, CSVScanner.swar(',', '"', '\\')), bytes),
+				is(parse(new CSVParser(',', '"', '\\', 1024), bytes)));
+	}
+
+	private static List<List<ByteString>> parse(CSVParser parser, ByteString data) throws IOException {
+		List<List<ByteString>> lines = new ArrayList<>();
+		for (int i = 0; i < data.size(); i += 7) {
+			parser.offer(data.slice(i, i + 7));
+			for (List<ByteString> line = parser.poll(true); null != line; line = parser.poll(true)) {
+				lines.add(line);
+			}
+		}
+		for (List<ByteString> line = parser.poll(false); null != line; line = parser.poll(false)) {
+			lines.add(line);
+		}
+		return lines;
+	}
+}
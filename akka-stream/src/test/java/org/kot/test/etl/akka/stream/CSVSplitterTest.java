@@ -0,0 +1,97 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test suite for splitting of file into ranges, which have to be parsed into the same rows as the whole file.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-03-16 12:40
+ */
+@RunWith(Parameterized.class)
+public class CSVSplitterTest {
+
+	private final String data;
+
+	private Path file;
+
+	@Parameterized.Parameters(name = "{index}: split \"{0}\"")
+	public static Iterable<Object[]> files() {
+		return Arrays.asList(new Object[][] {
+				{""},
+				{"id,col1\n"},
+				{"id,col1"},
+				{"id,col1\n1,a\n2,b\n3,c\n"},
+				{"id,col1\r\n1,a\r\n2,b\r\n3,c"},
+				{"id,col1\n1,\"a\nb\nc\"\n2,\"x,\ny\"\n3,\"\"\n"},
+				{"id,col1\n1,\"a\\\"\n\\\"b\"\n2,a\"b\nc\n3,\"\n\n\n\"\n"},
+				{"id,col1\n\"1\n\",\"a\",\"b\n\"\n\"\n2\",\"\n\"\n"}
+		});
+	}
+
+	public CSVSplitterTest(String data) {
+		this.data = data;
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		file = Files.createTempFile("splitter", ".csv");
+		Files.write(file, data.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.delete(file);
+	}
+
+	@Test
+	public void testRanges() throws IOException {
+		List<List<ByteString>> expected = parse(ByteString.fromString(data));
+		CSVSplitter splitter = new CSVSplitter(',', '"', '\\');
+		for (int size = 1; size <= data.length() + 1; size++) {
+			List<List<ByteString>> actual = new ArrayList<>();
+			long position = 0;
+			for (Iterator<CSVSplitter.Range> ranges = splitter.split(file, size); ranges.hasNext(); ) {
+				CSVSplitter.Range range = ranges.next();
+				assertThat(range.from(), is(position));
+				position = range.to();
+				actual.addAll(parse(ByteString.fromString(data).slice((int) range.from(), (int) range.to())));
+			}
+			assertThat(position, is((long) data.length()));
+			assertThat(actual, is(expected));
+		}
+	}
+
+	@Test
+	public void testHeader() throws IOException {
+		int end = data.indexOf('\n') + 1;
+		assertThat(new CSVSplitter(',', '"', '\\').header(file).utf8String(), is(data.substring(0, (0 < end)? end: data.length())));
+	}
+
+	private static List<List<ByteString>> parse(ByteString data) throws IOException {
+		CSVParser parser = new CSVParser(',', '"', '\\', Integer.MAX_VALUE);
+		List<List<ByteString>> result = new ArrayList<>();
+		parser.offer(data);
+		for (List<ByteString> row = parser.poll(false); null != row; row = parser.poll(false)) {
+			result.add(row);
+		}
+		return result;
+	}
+}
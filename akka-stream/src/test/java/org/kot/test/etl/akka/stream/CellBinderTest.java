@@ -0,0 +1,101 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Test suite for binder of mappings, which has to fail the row of any cell failed, and bind the row of wide schema, which repeats the mappings,
+ * into the values and failures of narrow one bound part by part, missing cells included.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-08 14:30
+ */
+@RunWith(Parameterized.class)
+public class CellBinderTest {
+
+	private final List<ByteString> cells;
+
+	private final int columns;
+
+	private final boolean valid;
+
+	@Parameterized.Parameters(name = "{index}: bind {0} repeated into {1} columns")
+	public static Iterable<Object[]> rows() {
+		List<Object[]> result = new ArrayList<>();
+		for (Object[] line : new Object[][] {
+				{"1,text,10/10/2018,2000.10,-1", true},
+				{"1000000,,1/1/2019,,", true},
+				{"-1,text,10/10/2018,2000.10,-1", false},
+				{"1,text,34/11/2018,2000.10,-1", false},
+				{"1,text,10/10/2018,one,1.0", false},
+				{"-1,text", false}}) {
+			for (int columns : new int[] {5, 50, 4100}) {
+				result.add(new Object[] {line[0], columns, line[1]});
+			}
+		}
+		return result;
+	}
+
+	public CellBinderTest(String line, int columns, boolean valid) {
+		List<ByteString> cells = Arrays.stream(line.split(",", -1)).map(ByteString::fromString).collect(Collectors.toList());
+		this.cells = new ArrayList<>();
+		// row missing cells is not repeated, so the tail of wide schema is missing
+		for (int i = 0; i < ((5 == cells.size())? columns: 1); i += 5) {
+			this.cells.addAll(cells);
+		}
+		this.columns = columns;
+		this.valid = valid;
+	}
+
+	@Test
+	public void testFailures() {
+		List<String> failures = CellBinder.of(mappings()).bind(cells, new Object[columns]);
+
+		if (valid) {
+			assertThat(failures, is(nullValue()));
+		} else {
+			assertThat(failures, is(not(empty())));
+		}
+	}
+
+	@Test
+	public void testByParts() {
+		int width = Binding.inMappings().size();
+		CellBinder narrow = CellBinder.of(Binding.inMappings());
+		Object[] values = new Object[columns], part = new Object[width];
+		List<String> failures = null;
+		for (int i = 0; i < columns; i += width) {
+			List<String> errors = narrow.bind(cells.subList(Math.min(i, cells.size()), Math.min(i + width, cells.size())), part);
+			if (null != errors) {
+				failures = (null != failures)? failures: new ArrayList<>();
+				failures.addAll(errors);
+			}
+			System.arraycopy(part, 0, values, i, width);
+		}
+		Object[] wide = new Object[columns];
+
+		assertThat(CellBinder.of(mappings()).bind(cells, wide), is(failures));
+		assertThat(Arrays.asList(wide), is(Arrays.asList(values)));
+	}
+
+	private List<Binding.Mapping<ByteString, ?>> mappings() {
+		List<Binding.Mapping<ByteString, ?>> result = new ArrayList<>();
+		while (result.size() < columns) {
+			result.addAll(Binding.inMappings());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,116 @@
+package org.kot.test.etl.akka.stream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test suite for decisions of the adaptive limit: a worker is added while workers are busy and it gains throughput, workers are cut by a
+ * quarter while output is backpressured, and the limit never goes below the least number of workers nor above the largest one.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-15 17:10
+ */
+@RunWith(Parameterized.class)
+public class ConcurrencyLimitTest {
+
+	private static final double BUSY = 0.01, IDLE = 0.5, BACKPRESSURED = 0.9, FREE = 0.1;
+
+	private final int min;
+
+	private final int max;
+
+	private final ConcurrencyLimit limit;
+
+	@Parameterized.Parameters(name = "{index}: {0}-{1} workers")
+	public static Iterable<Object[]> ranges() {
+		return Arrays.asList(new Object[][] {{1, 1}, {1, 4}, {2, 8}, {1, 32}});
+	}
+
+	public ConcurrencyLimitTest(int min, int max) {
+		this.min = min;
+		this.max = max;
+		this.limit = ConcurrencyLimit.of(min, min, max, Duration.ofSeconds(5), 0.5, 0.1, 0.1);
+	}
+
+	@Test
+	public void testIncrease() {
+		ConcurrencyLimit.Decision decision = start(min);
+
+		for (int active = min; active < max; active++) {
+			decision = limit.decide(decision, gaining(active), FREE, BUSY);
+
+			assertThat(decision.reason, decision.limit, is(active + 1));
+		}
+		decision = limit.decide(decision, gaining(max + 1), FREE, BUSY);
+
+		assertThat("ceiling", decision.limit, is(max));
+	}
+
+	@Test
+	public void testDecrease() {
+		ConcurrencyLimit.Decision decision = start(max);
+
+		for (int active = max; active > min; active = decision.limit) {
+			decision = limit.decide(decision, 1000, BACKPRESSURED, BUSY);
+
+			assertThat(decision.reason, decision.limit, is(Math.max(min, Math.min(active - 1, active * 3 / 4))));
+		}
+		decision = limit.decide(decision, 1000, BACKPRESSURED, BUSY);
+
+		assertThat("floor", decision.limit, is(min));
+	}
+
+	@Test
+	public void testNoGain() {
+		ConcurrencyLimit.Decision decision = limit.decide(start(min), 1000, FREE, BUSY);
+		if (min == max) {
+			assertThat("ceiling", decision.limit, is(max));
+			return;
+		}
+		assertThat(decision.reason, decision.limit, is(min + 1));
+
+		decision = limit.decide(decision, 1050, FREE, BUSY);
+
+		assertThat(decision.reason, decision.limit, is(min));
+
+		for (int i = 1; i < 5; i++) {
+			decision = limit.decide(decision, 1000, FREE, BUSY);
+
+			assertThat("backing off", decision.limit, is(min));
+		}
+		decision = limit.decide(decision, 1000, FREE, BUSY);
+
+		assertThat(decision.reason, decision.limit, is(min));
+		decision = limit.decide(decision, 1000, FREE, BUSY);
+
+		assertThat(decision.reason, decision.limit, is(min + 1));
+	}
+
+	@Test
+	public void testKept() {
+		int active = (min + max) / 2;
+		ConcurrencyLimit.Decision decision = start(active);
+
+		for (int i = 0; i < 3; i++) {
+			decision = limit.decide(decision, 1000, FREE, IDLE);
+
+			assertThat(decision.reason, decision.limit, is(active));
+		}
+	}
+
+	/* throughput doubled by every worker added */
+	private static double gaining(int active) {
+		return 1000 * Math.pow(2, active);
+	}
+
+	private static ConcurrencyLimit.Decision start(int active) {
+		return new ConcurrencyLimit.Decision(active, active, 0, 0, "start");
+	}
+}
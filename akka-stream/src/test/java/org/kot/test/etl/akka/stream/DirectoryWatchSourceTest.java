@@ -0,0 +1,157 @@
+package org.kot.test.etl.akka.stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test suite for the files arriving into directory, every one of them has to be passed once it is complete, either stable or marked, and only
+ * once, however many times it is found by watch events and listing, while file deleted before it is complete is not passed at all.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-15 15:30
+ */
+@RunWith(Parameterized.class)
+public class DirectoryWatchSourceTest {
+
+	private static final Duration STABLE = Duration.ofSeconds(5);
+
+	private final String marker;
+
+	private Path directory;
+
+	private DirectoryWatchSource.Arrivals arrivals;
+
+	@Parameterized.Parameters(name = "{index}: marker \"{0}\"")
+	public static Iterable<Object[]> markers() {
+		return Arrays.asList(new Object[][] {{""}, {".done"}});
+	}
+
+	public DirectoryWatchSourceTest(String marker) {
+		this.marker = marker;
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("watch");
+		arrivals = DirectoryWatchSource.of(directory, "**/*.{csv,csv.gz}", marker, STABLE, Duration.ofSeconds(1), Duration.ofMinutes(1))
+				.arrivals();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	@Test
+	public void testExactlyOnce() throws IOException {
+		Path first = write("first.csv", "a,b\n");
+		Path second = write("second.csv.gz", "a,b\n");
+		write("ignored.txt", "a,b\n");
+
+		arrivals.scan();
+		arrivals.candidate(first);
+		arrivals.check(0);
+		arrivals.candidate(first);
+		arrivals.candidate(second);
+		complete(first);
+		complete(second);
+		arrivals.check(STABLE.toNanos());
+
+		assertThat(drain(), is(Arrays.asList(first, second)));
+
+		write("first.csv", "c,d\n");
+		arrivals.candidate(first);
+		arrivals.scan();
+		arrivals.check(STABLE.toNanos() * 2);
+		arrivals.check(STABLE.toNanos() * 4);
+
+		assertThat(drain(), is(empty()));
+	}
+
+	@Test
+	public void testCompletion() throws IOException {
+		Path file = write("file.csv", "a,b\n");
+
+		arrivals.scan();
+		arrivals.check(0);
+		write("file.csv", "c,d\n");
+		arrivals.check(STABLE.toNanos());
+		arrivals.check(STABLE.toNanos() * 2 - 1);
+
+		assertThat(drain(), is(empty()));
+
+		if (!marker.isEmpty()) {
+			arrivals.check(STABLE.toNanos() * 10);
+			assertThat(drain(), is(empty()));
+			write(file.getFileName() + marker, "");
+		}
+		arrivals.check(STABLE.toNanos() * 10);
+
+		assertThat(drain(), is(Arrays.asList(file)));
+	}
+
+	@Test
+	public void testDeleted() throws IOException {
+		Path file = write("file.csv", "a,b\n");
+
+		arrivals.scan();
+		arrivals.check(0);
+		complete(file);
+		Files.delete(file);
+		arrivals.check(STABLE.toNanos());
+		arrivals.scan();
+		arrivals.check(STABLE.toNanos() * 2);
+
+		assertThat(drain(), is(empty()));
+
+		write("file.csv", "a,b\n");
+		arrivals.scan();
+		arrivals.check(STABLE.toNanos() * 3);
+		arrivals.check(STABLE.toNanos() * 4);
+
+		assertThat(drain(), is(Arrays.asList(file)));
+	}
+
+	/* writes the marker file if there is marker, otherwise the file is complete once it is stable */
+	private void complete(Path file) throws IOException {
+		if (!marker.isEmpty()) {
+			write(file.getFileName() + marker, "");
+		}
+	}
+
+	private Path write(String name, String content) throws IOException {
+		return Files.write(directory.resolve(name), content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	private List<Path> drain() {
+		List<Path> result = new ArrayList<>();
+		for (Path file = arrivals.poll(); null != file; file = arrivals.poll()) {
+			result.add(file);
+		}
+		result.sort(null);
+		return result;
+	}
+}
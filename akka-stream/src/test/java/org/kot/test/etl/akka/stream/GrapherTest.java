@@ -0,0 +1,145 @@
+package org.kot.test.etl.akka.stream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+
+/**
+ * Test suite for routing of records among the tails: every record has to reach exactly one tail, the failed ones the error tail and the others
+ * the same output tail for the same key, whether routed one by one or split in batches.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-15 14:40
+ */
+@RunWith(Parameterized.class)
+public class GrapherTest {
+
+	private static final int RECORDS = 10_000;
+
+	private final int outputs;
+
+	private final List<Record> records = new ArrayList<>();
+
+	@Parameterized.Parameters(name = "{index}: into {0} outputs")
+	public static Iterable<Object[]> outputs() {
+		return Arrays.asList(new Object[][] {{1}, {2}, {3}, {7}});
+	}
+
+	public GrapherTest(int outputs) {
+		this.outputs = outputs;
+		Random random = new Random(outputs);
+		for (int i = 0; i < RECORDS; i++) {
+			Long id = (0 == random.nextInt(100))? null: (long) random.nextInt(RECORDS / 2) - RECORDS / 4;
+			records.add(new Record(i, id, 0 == random.nextInt(10)));
+		}
+	}
+
+	@Test
+	public void testRoute() {
+		ToIntFunction<Record> route = route();
+		Map<Long, Integer> tails = new HashMap<>();
+
+		for (Record record : records) {
+			int tail = route.applyAsInt(record);
+
+			assertThat(tail, is(route.applyAsInt(record)));
+			if (record.failed) {
+				assertThat(tail, is(0));
+				continue;
+			}
+			assertThat(tail, is(greaterThan(0)));
+			assertThat(tail, is(lessThan(outputs + 1)));
+			assertThat(tail, is(tails.computeIfAbsent(record.id, id -> tail)));
+		}
+		if (1 < outputs) {
+			assertThat(new ArrayList<>(tails.values()), not(everyItem(is(tails.values().iterator().next()))));
+		}
+	}
+
+	@Test
+	public void testPartition() {
+		ToIntFunction<Record> route = route();
+
+		List<List<Record>> tails = Grapher.partition(records, route, outputs + 1);
+
+		assertThat(tails, hasSize(outputs + 1));
+		assertExactlyOnce(tails, route);
+		for (int t = 0; t <= outputs; t++) {
+			for (Record record : tails.get(t)) {
+				assertThat(route.applyAsInt(record), is(t));
+			}
+		}
+		assertThat(tails.stream().mapToInt(List::size).sum(), is(RECORDS));
+		assertThat(Grapher.partition(new ArrayList<>(), route, outputs + 1), everyItem(is(empty())));
+	}
+
+	@Test
+	public void testSplit() {
+		ToIntFunction<Record> route = route();
+
+		for (int from = 0; from < RECORDS; from += 100) {
+			List<Record> batch = records.subList(from, from + 100);
+			List<List<Record>> batches = Grapher.split(batch, route, outputs + 1);
+
+			assertThat(batches, everyItem(not(empty())));
+			assertExactlyOnce(batches, route);
+			List<Record> all = new ArrayList<>();
+			batches.forEach(all::addAll);
+			all.sort(Comparator.comparingInt(r -> r.index));
+			assertThat(all, is(batch));
+		}
+	}
+
+	private ToIntFunction<Record> route() {
+		return Grapher.byFailure(r -> r.failed, Grapher.byHash(r -> r.id, outputs));
+	}
+
+	/* every record is in one batch only, all the records of batch are of the same route */
+	private void assertExactlyOnce(List<List<Record>> batches, ToIntFunction<Record> route) {
+		int[] seen = new int[RECORDS];
+		for (List<Record> batch : batches) {
+			for (Record record : batch) {
+				seen[record.index]++;
+				assertThat(route.applyAsInt(record), is(route.applyAsInt(batch.get(0))));
+			}
+		}
+		for (List<Record> batch : batches) {
+			for (Record record : batch) {
+				assertThat(seen[record.index], is(1));
+			}
+		}
+	}
+
+	private static final class Record {
+
+		private final int index;
+
+		private final Long id;
+
+		private final boolean failed;
+
+		Record(int index, Long id, boolean failed) {
+			this.index = index;
+			this.id = id;
+			this.failed = failed;
+		}
+	}
+}
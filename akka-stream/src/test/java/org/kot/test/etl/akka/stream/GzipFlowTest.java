@@ -0,0 +1,107 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * Test suite for gzip members, which concatenated by blocks have to be decompressed by the standard gzip stream into the original content, and
+ * every member has to be inflated on its own by the size in its header.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-04-06 11:05
+ */
+@RunWith(Parameterized.class)
+public class GzipFlowTest {
+
+	private final int size;
+
+	private final int blockSize;
+
+	private final int level;
+
+	@Parameterized.Parameters(name = "{index}: {0} bytes in blocks of {1} at level {2}")
+	public static Iterable<Object[]> blocks() {
+		List<Object[]> result = new ArrayList<>();
+		for (int[] sizes : new int[][] {{0, 1}, {1, 1}, {100, 1}, {100, 7}, {100, 100}, {200_000, 1000}, {200_000, 65536}, {200_000, 200_000}}) {
+			for (int level : Arrays.asList(0, 1, 6, 9, -1)) {
+				result.add(new Object[] {sizes[0], sizes[1], level});
+			}
+		}
+		return result;
+	}
+
+	public GzipFlowTest(int size, int blockSize, int level) {
+		this.size = size;
+		this.blockSize = blockSize;
+		this.level = level;
+	}
+
+	@Test
+	public void testMembers() throws IOException {
+		ByteString data = data(size);
+		ByteString compressed = ByteString.empty();
+		for (int i = 0; i < size; i += blockSize) {
+			ByteString block = data.slice(i, i + blockSize);
+			ByteString member = GzipFlow.member(block, level);
+			assertThat(decompress(member), is(block));
+			compressed = compressed.concat(member);
+		}
+		assertThat(decompress(compressed), is(data));
+	}
+
+	@Test
+	public void testInflate() throws IOException {
+		ByteString data = data(size);
+		for (int i = 0; i < size; i += blockSize) {
+			ByteString block = data.slice(i, i + blockSize);
+			ByteString member = GzipFlow.member(block, level);
+			assertThat(GzipFlow.memberSize(member.take(15)), is(-1L));
+			assertThat(GzipFlow.memberSize(member.concat(member)), is((long) member.size()));
+			List<ByteString> chunks = GzipFlow.inflate(member);
+			assertThat(chunks.stream().reduce(ByteString.empty(), ByteString::concat), is(block));
+			assertThat(chunks.stream().mapToInt(ByteString::size).max().orElse(0), is(lessThanOrEqualTo(8192)));
+		}
+	}
+
+	private static ByteString data(int size) {
+		Random random = new Random(size);
+		StringBuilder result = new StringBuilder(size);
+		while (result.length() < size) {
+			result.append(random.nextInt(1000)).append(",text ").append(random.nextInt(10)).append(",1/13/2018\n");
+		}
+		return ByteString.fromString(result.substring(0, size));
+	}
+
+	private static ByteString decompress(ByteString data) throws IOException {
+		if (data.isEmpty()) {
+			return data;
+		}
+		byte[] bytes = new byte[data.size()];
+		data.copyToBuffer(ByteBuffer.wrap(bytes));
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+			byte[] buffer = new byte[4096];
+			for (int n = in.read(buffer); 0 <= n; n = in.read(buffer)) {
+				result.write(buffer, 0, n);
+			}
+		}
+		return ByteString.fromArray(result.toByteArray());
+	}
+}
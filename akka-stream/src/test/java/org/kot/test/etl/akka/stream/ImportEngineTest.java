@@ -0,0 +1,283 @@
+package org.kot.test.etl.akka.stream;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+/**
+ * Test suite for the engines of import, the Akka graph and the plain threads have to write the same output and error files, holding the same
+ * rows, of the same input, plain or gzip, whatever the number of output files is, and so has the graph passing rows in batches; while the
+ * first failure of a thread of import has to cancel the others and fail the import. Files parsed by ranges in order have to give their rows
+ * in the order of the file. Import failed partway through with checkpoint has to be resumed into the same files as the one never failed. Last-wins
+ * deduplication has to pass a record per id, the one of the last file of it, by both engines.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-15 18:30
+ */
+@RunWith(Parameterized.class)
+public class ImportEngineTest {
+
+	private static final long SEED = 20181215L;
+
+	private static final int FILES = 6;
+
+	private static final int ROWS = 2000;
+
+	private final boolean compressed;
+
+	private final int outputFiles;
+
+	private Path directory;
+
+	@Parameterized.Parameters(name = "{index}: gzip {0}, {1} output files")
+	public static Iterable<Object[]> imports() {
+		return Arrays.asList(new Object[][] {{false, 1}, {true, 1}, {false, 3}, {true, 3}});
+	}
+
+	public ImportEngineTest(boolean compressed, int outputFiles) {
+		this.compressed = compressed;
+		this.outputFiles = outputFiles;
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("import");
+		Files.createDirectories(directory.resolve("in"));
+		SplittableRandom random = new SplittableRandom(SEED);
+		for (int i = 0; i < FILES; i++) {
+			CSVGenerator.Rows rows = new CSVGenerator.Rows(random.split(), 0.01, 100);
+			Path file = directory.resolve("in").resolve("file-" + i + (compressed? ".csv.gz": ".csv"));
+			try (OutputStream output = compressed? new GZIPOutputStream(Files.newOutputStream(file)): Files.newOutputStream(file)) {
+				output.write(rows.header().utf8String().getBytes(StandardCharsets.UTF_8));
+				for (int pos = 1; pos <= ROWS; pos++) {
+					output.write(rows.row(pos).utf8String().getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Test(timeout = 60_000)
+	public void testSameOutput() throws Exception {
+		Map<String, List<String>> akka = run("akka");
+		Map<String, List<String>> threads = run("threads");
+
+		assertThat(threads.keySet(), is(akka.keySet()));
+		assertThat(akka.size(), is(outputFiles + 1));
+		for (Map.Entry<String, List<String>> file : akka.entrySet()) {
+			assertThat(file.getKey(), file.getValue(), is(not(empty())));
+			assertThat(file.getKey(), threads.get(file.getKey()), is(file.getValue()));
+		}
+	}
+
+	@Test(timeout = 60_000)
+	public void testSameOutputInBatches() throws Exception {
+		Map<String, List<String>> rows = run("akka");
+		Map<String, List<String>> batches = run("batches", config("akka", "batches", Collections.singletonMap("importer.batch.enabled", true)),
+				true);
+
+		assertThat(batches.keySet(), is(rows.keySet()));
+		for (Map.Entry<String, List<String>> file : rows.entrySet()) {
+			assertThat(file.getKey(), batches.get(file.getKey()), is(file.getValue()));
+		}
+	}
+
+	@Test(timeout = 60_000)
+	public void testSplitInOrder() throws Exception {
+		Map<String, Object> split = new HashMap<>();
+		split.put("importer.concurrency", 1);
+		split.put("importer.split.enabled", true);
+		split.put("importer.split.range-size", "16KiB");
+		split.put("importer.split.range-buffer", 16);
+		Map<String, List<String>> whole = run("whole", config("akka", "whole", Collections.singletonMap("importer.concurrency", 1)), false);
+		Map<String, List<String>> ranges = run("ranges", config("akka", "ranges", split), false);
+
+		assertThat(ranges.keySet(), is(whole.keySet()));
+		for (Map.Entry<String, List<String>> file : whole.entrySet()) {
+			assertThat(file.getKey(), ranges.get(file.getKey()), is(file.getValue()));
+		}
+	}
+
+	@Test(timeout = 60_000)
+	public void testResume() throws Exception {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		CSVGenerator.Rows rows = new CSVGenerator.Rows(new SplittableRandom(SEED + FILES), 0.01, 100);
+		content.write(rows.header().toArray());
+		for (int pos = 1; pos <= ROWS; pos++) {
+			content.write(rows.row(pos).toArray());
+		}
+		// the line longer than parser takes fails the last unit of file, after the ones before it may be written and committed
+		Path broken = directory.resolve("in").resolve(compressed? "broken.csv.gz": "broken.csv");
+		ByteArrayOutputStream failing = new ByteArrayOutputStream();
+		failing.write(content.toByteArray());
+		failing.write((String.join("", Collections.nCopies(20_000, "x")) + "\n").getBytes(StandardCharsets.US_ASCII));
+		write(broken, failing.toByteArray());
+		Map<String, Object> checkpoint = new HashMap<>();
+		checkpoint.put("importer.checkpoint.enabled", true);
+		checkpoint.put("importer.checkpoint.journal", directory.resolve("import.journal").toString());
+		checkpoint.put("importer.checkpoint.unit-size", "16KiB");
+		checkpoint.put("importer.checkpoint.unit-rows", 100);
+		try {
+			CSVImport.importFromFiles(config("akka", "resumed", checkpoint));
+			throw new AssertionError("Import has to fail");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			while (cause instanceof CompletionException) {
+				cause = cause.getCause();
+			}
+			assertThat(cause, is(instanceOf(IOException.class)));
+			assertThat(Files.exists(directory.resolve("import.journal")), is(true));
+		}
+
+		write(broken, content.toByteArray());
+		Map<String, List<String>> resumed = run("resumed", config("akka", "resumed", checkpoint), true);
+		Map<String, List<String>> whole = run("akka");
+
+		assertThat(resumed.keySet(), is(whole.keySet()));
+		for (Map.Entry<String, List<String>> file : whole.entrySet()) {
+			assertThat(file.getKey(), resumed.get(file.getKey()), is(file.getValue()));
+		}
+	}
+
+	@Test(timeout = 60_000)
+	public void testLastWins() throws Exception {
+		// every file has the same ids, the last file passes all its valid records
+		Map<String, Object> dedup = new HashMap<>();
+		dedup.put("importer.dedup.enabled", true);
+		dedup.put("importer.dedup.policy", Deduplication.LAST_WINS);
+		Map<String, List<String>> akka = run("akka", config("akka", "akka", dedup), true);
+		Map<String, List<String>> threads = run("threads", config("threads", "threads", dedup), true);
+		dedup.put("importer.dedup.policy", Deduplication.FIRST_WINS);
+		Map<String, List<String>> first = run("first", config("akka", "first", dedup), true);
+		Map<String, List<String>> last = run("last", config("akka", "last",
+				Collections.singletonMap("importer.file-pattern", "**/file-" + (FILES - 1) + ".{csv,csv.gz}")), true);
+
+		assertThat(threads, is(akka));
+		assertThat(akka.keySet(), is(first.keySet()));
+		for (Map.Entry<String, List<String>> file : akka.entrySet()) {
+			if (file.getKey().startsWith("error")) {
+				assertThat(file.getValue().stream().anyMatch(l -> l.contains("Duplicate id")), is(true));
+			} else {
+				assertThat(file.getKey(), file.getValue().size(), is(first.get(file.getKey()).size()));
+				assertThat(file.getKey(), file.getValue().containsAll(last.get(file.getKey())), is(true));
+				assertThat(file.getKey(), file.getValue(), is(not(first.get(file.getKey()))));
+			}
+		}
+	}
+
+	@Test(timeout = 60_000)
+	public void testFailure() throws Exception {
+		Files.createDirectories(directory.resolve("in").resolve(compressed? "broken.csv.gz": "broken.csv"));
+		try {
+			CSVImport.importFromFiles(config("threads"));
+		} catch (IOException e) {
+			assertThat(threads(), is(empty()));
+			return;
+		}
+		throw new AssertionError("Import has to fail");
+	}
+
+	/* runs the import by the engine into folders of its own, and gives the rows of every file written, sorted as threads interleave them */
+	private Map<String, List<String>> run(String engine) throws Exception {
+		return run(engine, config(engine), true);
+	}
+
+	private Map<String, List<String>> run(String engine, Config config, boolean sorted) throws Exception {
+		CSVImport.importFromFiles(config);
+
+		Map<String, List<String>> result = new TreeMap<>();
+		for (String folder : Arrays.asList("importer.folder-processed", "importer.folder-failed")) {
+			try (Stream<Path> files = Files.list(directory.resolve(config.getString(folder)))) {
+				for (Path file : (Iterable<Path>) files::iterator) {
+					result.put(file.getFileName().toString(), read(file, sorted));
+				}
+			}
+		}
+		return result;
+	}
+
+	private Config config(String engine) {
+		return config(engine, engine, Collections.emptyMap());
+	}
+
+	private Config config(String engine, String folder, Map<String, Object> settings) {
+		Map<String, Object> overrides = new HashMap<>();
+		overrides.put("importer.folder", directory.resolve("in").toString());
+		overrides.put("importer.folder-processed", directory.resolve(folder).resolve("done").toString());
+		overrides.put("importer.folder-failed", directory.resolve(folder).resolve("fail").toString());
+		overrides.put("importer.engine", engine);
+		overrides.put("importer.concurrency", 3);
+		overrides.put("importer.output-files", outputFiles);
+		overrides.put("importer.compression.output.enabled", compressed);
+		overrides.put("importer.compression.error.enabled", compressed);
+		overrides.putAll(settings);
+		return ConfigFactory.parseMap(overrides).withFallback(ConfigFactory.load());
+	}
+
+	private void write(Path file, byte[] content) throws IOException {
+		try (OutputStream output = compressed? new GZIPOutputStream(Files.newOutputStream(file)): Files.newOutputStream(file)) {
+			output.write(content);
+		}
+	}
+
+	private static List<String> read(Path file, boolean sorted) throws IOException {
+		InputStream input = Files.newInputStream(file);
+		if (GzipFlow.isCompressed(file)) {
+			input = new GZIPInputStream(input);
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+			return (sorted? reader.lines().sorted(): reader.lines()).collect(Collectors.toList());
+		}
+	}
+
+	/* the threads of import still alive */
+	private static List<String> threads() {
+		return Thread.getAllStackTraces().keySet().stream()
+				.filter(Thread::isAlive)
+				.map(Thread::getName)
+				.filter(n -> n.startsWith("import-"))
+				.collect(Collectors.toList());
+	}
+}
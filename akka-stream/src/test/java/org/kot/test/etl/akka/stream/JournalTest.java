@@ -0,0 +1,96 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test suite for journal of import, which resumed after the units are committed and some more are written has to give the output of the units
+ * committed and the progress of input at the end of the last of them.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-04-20 16:30
+ */
+@RunWith(Parameterized.class)
+public class JournalTest {
+
+	private static final int UNITS = 4;
+
+	private final int committed;
+
+	private Path directory;
+
+	@Parameterized.Parameters(name = "{index}: {0} of " + UNITS + " units committed")
+	public static Iterable<Object[]> units() {
+		List<Object[]> result = new ArrayList<>();
+		for (int committed = 0; committed <= UNITS; committed++) {
+			result.add(new Object[] {committed});
+		}
+		return result;
+	}
+
+	public JournalTest(int committed) {
+		this.committed = committed;
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("journal");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	@Test
+	public void testResume() throws IOException {
+		Path input = directory.resolve("input.csv"), success = directory.resolve("success.csv"), error = directory.resolve("error.csv");
+		StringBuilder expected = new StringBuilder();
+		try (Journal journal = Journal.open(directory.resolve("import.journal"), Duration.ZERO)) {
+			Journal.Output[] outputs = {journal.output(success), journal.output(error)};
+			for (int unit = 0; unit < UNITS; unit++) {
+				String line = "row " + unit + "\n";
+				long[] sizes = new long[outputs.length];
+				for (int i = 0; i < outputs.length; i++) {
+					sizes[i] = outputs[i].append(ByteString.fromString((outputs[i].header(true)? "header\n": "") + line));
+				}
+				if (unit < committed) {
+					expected.append((0 == unit)? "header\n": "").append(line);
+					journal.commit(input, (unit + 1) * 10, 2, UNITS == unit + 1, outputs, sizes);
+				}
+			}
+		}
+		try (Journal journal = Journal.open(directory.resolve("import.journal"), Duration.ofDays(1))) {
+			Journal.Progress progress = journal.progress(input);
+			assertThat(progress.end(), is(committed * 10L));
+			assertThat(progress.rows(), is(committed * 2L));
+			assertThat(progress.isDone(), is(UNITS == committed));
+			for (Path file : new Path[] {success, error}) {
+				Journal.Output output = journal.output(file);
+				assertThat(output.header(true), is(0 == committed));
+				assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), is(expected.toString()));
+			}
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package org.kot.test.etl.akka.stream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test suite for off heap set of keys, which has to take every key once whatever the number of segments and the size it is allocated for,
+ * including the set growing far beyond its initial size and the one shared by concurrent writers; the set with values has to keep the largest
+ * value of every key.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-05-04 12:10
+ */
+@RunWith(Parameterized.class)
+public class LongHashSetTest {
+
+	private static final int KEYS = 100_000;
+
+	private static final int THREADS = 4;
+
+	private final int segments;
+
+	private final long expected;
+
+	@Parameterized.Parameters(name = "{index}: {0} segments for {1} keys")
+	public static Iterable<Object[]> sizes() {
+		return Arrays.asList(new Object[][] {
+				{1, 16},
+				{1, KEYS},
+				{7, 100},
+				{64, KEYS},
+				{64, 10 * KEYS}
+		});
+	}
+
+	public LongHashSetTest(int segments, long expected) {
+		this.segments = segments;
+		this.expected = expected;
+	}
+
+	@Test
+	public void testAdd() {
+		LongHashSet set = LongHashSet.of(segments, expected);
+		for (long key = -KEYS / 2; key < KEYS / 2; key++) {
+			assertThat("key " + key, set.add(key), is(true));
+		}
+		for (long key = -KEYS / 2; key < KEYS / 2; key++) {
+			assertThat("key " + key, set.add(key), is(false));
+		}
+		assertThat(set.size(), is((long) KEYS));
+	}
+
+	@Test
+	public void testContains() {
+		LongHashSet set = LongHashSet.of(segments, expected);
+		for (long key = 0; key < KEYS; key += 2) {
+			set.add(key * 0x9e3779b97f4a7c15L);
+		}
+		for (long key = 0; key < KEYS; key++) {
+			assertThat("key " + key, set.contains(key * 0x9e3779b97f4a7c15L), is(0 == key % 2));
+		}
+		assertThat(set.contains(Long.MIN_VALUE), is(false));
+		assertThat(set.contains(Long.MAX_VALUE), is(false));
+	}
+
+	@Test
+	public void testPutMax() {
+		LongHashSet set = LongHashSet.withValues(segments, expected);
+		for (long key = -KEYS / 2; key < KEYS / 2; key++) {
+			set.putMax(key, key + KEYS);
+			set.putMax(key, key + KEYS / 2);
+		}
+		for (long key = -KEYS / 2; key < KEYS / 2; key++) {
+			assertThat("key " + key, set.get(key), is(key + KEYS));
+		}
+		set.putMax(0, 2L * KEYS);
+		assertThat(set.get(0), is(2L * KEYS));
+		assertThat(set.get(KEYS), is(-1L));
+		assertThat(set.size(), is((long) KEYS));
+	}
+
+	@Test
+	public void testConcurrentAdd() throws Exception {
+		LongHashSet set = LongHashSet.of(segments, expected);
+		AtomicLong added = new AtomicLong();
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			Future<?>[] writers = new Future<?>[THREADS];
+			for (int i = 0; i < THREADS; i++) {
+				// every thread adds all the keys, only one of threads is to find a key new
+				writers[i] = pool.submit(() -> {
+					for (long key = 0; key < KEYS; key++) {
+						if (set.add(key)) {
+							added.incrementAndGet();
+						}
+					}
+				});
+			}
+			for (Future<?> writer : writers) {
+				writer.get(1, TimeUnit.MINUTES);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		assertThat(added.get(), is((long) KEYS));
+		assertThat(set.size(), is((long) KEYS));
+	}
+}
@@ -0,0 +1,102 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.util.ByteString;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * Test suite for memory mapped source, which has to pass the content of file or of its range as it is, in chunks of at most the size given,
+ * whatever the window size is.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-16 10:20
+ */
+@RunWith(Parameterized.class)
+public class MappedFileSourceTest {
+
+	private static final int SIZE = 100_000;
+
+	private static ActorSystem system;
+
+	private static Materializer materializer;
+
+	private static Path file;
+
+	private static ByteString content;
+
+	private final int windowSize;
+
+	private final int chunkSize;
+
+	private final long from;
+
+	private final long to;
+
+	@Parameterized.Parameters(name = "{index}: range [{2}, {3}) in windows of {0} by chunks of {1}")
+	public static Iterable<Object[]> windows() {
+		return Arrays.asList(new Object[][] {
+				{8192, 8192, 0, Long.MAX_VALUE},
+				{65536, 8192, 0, Long.MAX_VALUE},
+				{10000, 3000, 0, Long.MAX_VALUE},
+				{1 << 20, 8192, 0, Long.MAX_VALUE},
+				{10000, 3000, 12345, 67890},
+				{4096, 1, 99_990, SIZE},
+				{4096, 1024, SIZE, Long.MAX_VALUE}
+		});
+	}
+
+	public MappedFileSourceTest(int windowSize, int chunkSize, long from, long to) {
+		this.windowSize = windowSize;
+		this.chunkSize = chunkSize;
+		this.from = from;
+		this.to = to;
+	}
+
+	@BeforeClass
+	public static void setUpClass() throws IOException {
+		byte[] bytes = new byte[SIZE];
+		new Random(SIZE).nextBytes(bytes);
+		content = ByteString.fromArray(bytes);
+		file = Files.write(Files.createTempFile("mapped", ".csv"), bytes);
+		system = ActorSystem.create("mapped-test");
+		materializer = ActorMaterializer.create(system);
+	}
+
+	@AfterClass
+	public static void tearDownClass() throws IOException {
+		system.terminate();
+		Files.delete(file);
+	}
+
+	@Test
+	public void testContent() throws InterruptedException, ExecutionException {
+		List<ByteString> chunks = MappedFileSource.of(file, from, to, windowSize, chunkSize)
+				.runWith(Sink.seq(), materializer)
+				.toCompletableFuture()
+				.get();
+
+		assertThat(chunks.stream().reduce(ByteString.empty(), ByteString::concat), is(content.slice((int) from, (int) Math.min(to, SIZE))));
+		for (ByteString chunk : chunks) {
+			assertThat(chunk.size(), is(lessThanOrEqualTo(chunkSize)));
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Test suite for metering of stages, which counts every element, row and byte passed by the time the stream is completed, however many of them
+ * are counted by the stage before they are added to the shared metrics; while disabled metrics meter nothing.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-22 11:20
+ */
+@RunWith(Parameterized.class)
+public class MetricsTest {
+
+	private static ActorSystem system;
+
+	private static Materializer materializer;
+
+	private final int elements;
+
+	@Parameterized.Parameters(name = "{index}: {0} elements")
+	public static Iterable<Object[]> sizes() {
+		return Arrays.asList(new Object[][] {{0}, {1}, {1023}, {1024}, {1025}, {5000}});
+	}
+
+	public MetricsTest(int elements) {
+		this.elements = elements;
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+		system = ActorSystem.create("metrics-test");
+		materializer = ActorMaterializer.create(system);
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+		system.terminate();
+	}
+
+	@Test
+	public void testCounts() throws Exception {
+		Metrics metrics = Metrics.enabled(false);
+		pass(metrics.meter("stage", Flow.<Integer>create(), e -> 2, e -> e));
+
+		Metrics.Stage stage = metrics.stage("stage");
+		assertThat(stage.getElements(), is((long) elements));
+		assertThat(stage.getRows(), is(2L * elements));
+		assertThat(stage.getBytes(), is((long) elements * (elements - 1) / 2));
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		Metrics metrics = Metrics.disabled();
+		pass(metrics.meter("stage", Flow.<Integer>create(), e -> 2, e -> e));
+
+		assertThat(metrics.stage("stage"), is(nullValue()));
+	}
+
+	private void pass(Flow<Integer, Integer, ?> metered) throws Exception {
+		assertThat(Source.range(0, elements - 1)
+				.via(metered)
+				.runWith(Sink.seq(), materializer)
+				.toCompletableFuture()
+				.get(), is(IntStream.range(0, elements).boxed().collect(Collectors.toList())));
+	}
+}
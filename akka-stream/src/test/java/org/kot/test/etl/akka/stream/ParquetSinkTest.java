@@ -0,0 +1,211 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test suite for Parquet file written by the sink and read back by parquet-hadoop, which has to give the columns of the types mapped, required
+ * or optional as the mappings are, decimals rounded to the scale and row groups of the size set.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-06-15 16:20
+ */
+@RunWith(Parameterized.class)
+public class ParquetSinkTest {
+
+	private static final int ROWS = 20_000;
+
+	private static final String[] LINES = {
+			"1,text,10/10/2018,2000.10,-1",
+			"2,,1/1/2019,,",
+			"3,text,10/10/2018,2000.125,7",
+			"4,text,10/10/2018,-0.005,1",
+			"5,another text,28/2/2019,12345678901234.5,0"
+	};
+
+	private final String record;
+
+	private final Function<Path, ParquetSink<?>> sink;
+
+	private final CSV2JavaStage<?> binding;
+
+	private Path directory;
+
+	@Parameterized.Parameters(name = "{index}: {0}")
+	public static Iterable<Object[]> records() {
+		return Arrays.asList(new Object[][] {{"map"}, {"row"}});
+	}
+
+	public ParquetSinkTest(String record) {
+		this.record = record;
+		if ("map".equals(record)) {
+			this.binding = CSV2JavaStage.toMappings(Binding.inMappings());
+			this.sink = file -> ParquetSink.toMapping(file, Binding.inMappings());
+		} else {
+			Row.Schema schema = Row.Schema.of(Binding.inMappings());
+			this.binding = CSV2JavaStage.toRows(Binding.inMappings());
+			this.sink = file -> ParquetSink.toMapping(file, schema, Binding.inMappings());
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("parquet");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	@Test
+	public void testSchema() throws IOException {
+		Path file = write(sink.apply(directory.resolve(record + ".parquet")).withDecimalScale(3, "half-up"), LINES.length);
+
+		MessageType schema = footer(file).getFileMetaData().getSchema();
+
+		assertThat(schema.getFieldCount(), is(Binding.inMappings().size()));
+		assertColumn(schema.getType("id"), Type.Repetition.REQUIRED, PrimitiveType.PrimitiveTypeName.INT32, null);
+		assertColumn(schema.getType("col1"), Type.Repetition.OPTIONAL, PrimitiveType.PrimitiveTypeName.BINARY, OriginalType.UTF8);
+		assertColumn(schema.getType("col2"), Type.Repetition.REQUIRED, PrimitiveType.PrimitiveTypeName.INT32, OriginalType.DATE);
+		assertColumn(schema.getType("col3"), Type.Repetition.OPTIONAL, PrimitiveType.PrimitiveTypeName.INT64, OriginalType.DECIMAL);
+		assertColumn(schema.getType("col4"), Type.Repetition.OPTIONAL, PrimitiveType.PrimitiveTypeName.INT32, null);
+		assertThat(schema.getType("col3").asPrimitiveType().getDecimalMetadata().getPrecision(), is(18));
+		assertThat(schema.getType("col3").asPrimitiveType().getDecimalMetadata().getScale(), is(3));
+	}
+
+	@Test
+	public void testValues() throws IOException {
+		Path file = write(sink.apply(directory.resolve(record + ".parquet")), LINES.length);
+
+		List<Group> groups = read(file);
+
+		assertThat(groups.size(), is(LINES.length));
+		for (int i = 0; i < LINES.length; i++) {
+			String[] cells = LINES[i].split(",", -1);
+			Group group = groups.get(i);
+
+			assertThat(group.getInteger("id", 0), is(Integer.parseInt(cells[0])));
+			assertThat(value(group, "col1", () -> group.getString("col1", 0)), is(cells[1]));
+			assertThat(LocalDate.ofEpochDay(group.getInteger("col2", 0)), is(date(cells[2])));
+			assertThat(value(group, "col3", () -> new BigDecimal(BigInteger.valueOf(group.getLong("col3", 0)), 2)),
+					is(cells[3].isEmpty()? null: new BigDecimal(cells[3]).setScale(2, RoundingMode.HALF_UP)));
+			assertThat(value(group, "col4", () -> group.getInteger("col4", 0)), is(cells[4].isEmpty()? null: Integer.parseInt(cells[4])));
+		}
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testUnnecessaryRounding() throws IOException {
+		write(sink.apply(directory.resolve(record + ".parquet")).withDecimalScale(2, "unnecessary"), LINES.length);
+	}
+
+	@Test
+	public void testRowGroupSize() throws IOException {
+		Path single = write(sink.apply(directory.resolve(record + "-single.parquet")), ROWS);
+		Path small = write(sink.apply(directory.resolve(record + "-small.parquet"))
+				.withLayout(64 * 1024, 8 * 1024, 8 * 1024), ROWS);
+
+		ParquetMetadata footer = footer(small);
+
+		assertThat(footer(single).getBlocks().size(), is(1));
+		assertThat(footer.getBlocks().size(), is(greaterThan(1)));
+		assertThat(footer.getBlocks().stream().mapToLong(b -> b.getRowCount()).sum(), is((long) ROWS));
+		assertThat(read(small).size(), is(ROWS));
+	}
+
+	/* writes the lines repeated up to the number of rows, id is the number of row */
+	@SuppressWarnings("unchecked")
+	private <T> Path write(ParquetSink<T> sink, int rows) throws IOException {
+		try (ParquetWriter<T> writer = sink.open()) {
+			for (int i = 0; i < rows; i++) {
+				String line = LINES[i % LINES.length];
+				line = (i + 1) + line.substring(line.indexOf(','));
+				List<ByteString> row = Arrays.stream(line.split(",", -1)).map(ByteString::fromString).collect(Collectors.toList());
+				writer.write(((CSV2JavaStage<T>) binding).bind(row));
+			}
+		}
+		return sink.file();
+	}
+
+	private static ParquetMetadata footer(Path file) throws IOException {
+		try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(path(file), configuration()))) {
+			return reader.getFooter();
+		}
+	}
+
+	private static List<Group> read(Path file) throws IOException {
+		List<Group> result = new ArrayList<>();
+		try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(), path(file)).withConf(configuration()).build()) {
+			for (Group group = reader.read(); null != group; group = reader.read()) {
+				result.add(group);
+			}
+		}
+		return result;
+	}
+
+	private static <V> V value(Group group, String field, Supplier<V> value) {
+		return (0 == group.getFieldRepetitionCount(field))? null: value.get();
+	}
+
+	private static LocalDate date(String cell) {
+		String[] parts = cell.split("/");
+		return LocalDate.of(Integer.parseInt(parts[2]), Integer.parseInt(parts[1]), Integer.parseInt(parts[0]));
+	}
+
+	private static void assertColumn(Type column, Type.Repetition repetition, PrimitiveType.PrimitiveTypeName type, OriginalType original) {
+		assertThat(column.getRepetition(), is(repetition));
+		assertThat(column.asPrimitiveType().getPrimitiveTypeName(), is(type));
+		assertThat(column.getOriginalType(), is(original));
+	}
+
+	private static org.apache.hadoop.fs.Path path(Path file) {
+		return new org.apache.hadoop.fs.Path(file.toAbsolutePath().toUri());
+	}
+
+	private static Configuration configuration() {
+		Configuration result = new Configuration();
+		result.set("fs.file.impl", "org.apache.hadoop.fs.RawLocalFileSystem");
+		result.setBoolean("fs.file.impl.disable.cache", true);
+		return result;
+	}
+}
@@ -0,0 +1,113 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
+/**
+ * Test suite for binding into rows of fixed schema vs. into maps.
+ *
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-02-09 14:05
+ */
+@RunWith(Parameterized.class)
+public class RowTest {
+
+	private final List<ByteString> cells;
+
+	private final boolean failed;
+
+	@Parameterized.Parameters(name = "{index}: bind {0}")
+	public static Iterable<Object[]> rows() {
+		return Arrays.asList(new Object[][] {
+				{"1,text,10/10/2018,2000.10,-1", false},
+				{"1000000,,1/1/2019,,", false},
+				{"2147483647,text,10/10/2018,0.2222222,-2147483648", false},
+				{"-1,text,10/10/2018,2000.10,-1", true},
+				{"1,text,34/11/2018,2000.10,-1", true},
+				{"1,text,10/10/2018,one,1.0", false},
+				{"-1,text", true},
+				{"-1,text,1/13/2018,,", true},
+		});
+	}
+
+	public RowTest(String line, boolean failed) {
+		this.cells = Arrays.stream(line.split(",", -1)).map(ByteString::fromString).collect(Collectors.toList());
+		this.failed = failed;
+	}
+
+	@Test
+	public void testSameAsMap() {
+		Row.Schema schema = Row.Schema.of(Binding.inMappings());
+		Row row = CSV2JavaStage.toRows(Binding.inMappings()).bind(cells);
+		Map<String, ?> map = CSV2JavaStage.toMappings(Binding.inMappings()).bind(cells);
+
+		assertThat(row.isFailed(), is(failed));
+		assertThat(row.isFailed(), is(map.containsKey(Row.FAILURES)));
+		for (int i = 0; i < schema.size(); i++) {
+			assertThat(schema.name(i), row.get(i), is(map.get(schema.name(i))));
+		}
+		assertThat(row.failures(), is(map.get(Row.FAILURES)));
+	}
+
+	@Test
+	public void testSameLine() {
+		Row.Schema schema = Row.Schema.of(Binding.inMappings());
+		Row row = CSV2JavaStage.toRows(Binding.inMappings()).bind(cells);
+		Map<String, ?> map = CSV2JavaStage.toMappings(Binding.inMappings()).bind(cells);
+		List<Binding.Mapping<?, ByteString>> mappings = failed? Binding.errorMappings(): Binding.outMappings();
+
+		assertThat(Java2CSVStage.toMapping(schema, mappings).toLine(row), is(Java2CSVStage.toMapping(mappings).toLine(map)));
+	}
+
+	@Test
+	public void testRawCells() {
+		Row.Schema schema = Row.Schema.of(Binding.inMappings());
+		Row row = CSV2JavaStage.toRows(Binding.inMappings()).bind(cells);
+		String line = cells.stream().map(ByteString::utf8String).collect(Collectors.joining(","));
+		String padding = String.join("", Collections.nCopies(schema.size() - cells.size(), ","));
+
+		if (failed) {
+			assertThat(Java2CSVStage.toMapping(schema, Binding.errorMappings()).toLine(row).utf8String(), startsWith(line + padding + ",\""));
+		}
+	}
+
+	@Test
+	public void testPrimitiveValues() {
+		Row.Schema schema = Row.Schema.of(Binding.inMappings());
+		Row row = CSV2JavaStage.toRows(Binding.inMappings()).bind(cells);
+		Map<String, ?> map = CSV2JavaStage.toMappings(Binding.inMappings()).bind(cells);
+
+		for (int i = 0; i < schema.size(); i++) {
+			Object value = map.get(schema.name(i));
+			assertThat(schema.name(i), row.isPrimitive(i), is(!failed && schema.isPrimitive(i) && null != value));
+			if (row.isPrimitive(i)) {
+				assertThat(schema.name(i), row.getLong(i), is(((Number) value).longValue()));
+			}
+		}
+	}
+
+	@Test
+	public void testPrimitiveSlots() {
+		Row.Schema schema = Row.Schema.of(Binding.inMappings());
+
+		assertThat(schema.isPrimitive(schema.indexOf("id")), is(true));
+		assertThat(schema.isPrimitive(schema.indexOf("col1")), is(false));
+		assertThat(schema.isPrimitive(schema.indexOf("col2")), is(false));
+		assertThat(schema.isPrimitive(schema.indexOf("col3")), is(false));
+		assertThat(schema.isPrimitive(schema.indexOf("col4")), is(true));
+		assertThat(schema.indexOf(Row.FAILURES), is(schema.size()));
+		assertThat(schema.indexOf("unknown"), is(-1));
+	}
+}
@@ -0,0 +1,126 @@
+package org.kot.mapping;
+
+import org.kot.test.etl.akka.stream.Binding;
+import org.kot.test.etl.akka.stream.Dataset;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Benchmark of generated {@link FileMapping} binders and serializers.
+ * <p>
+ * Records are taken from the same data set as for {@code akka-stream} benchmarks, so figures are comparable with hand written binding. Single
+ * operation is a binding (or serialization) of the next record.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-07-20 14:10
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MappingBenchmark {
+
+	@Param({"10000"})
+	public int rows;
+
+	@Param({"0.005", "0.1"})
+	public double invalidLineProbability;
+
+	@Param({"100"})
+	public int maxTextLength;
+
+	private FileMapping mapping;
+
+	private List<Map<String, String>> raw;
+
+	private List<Map<String, Object>> bound;
+
+	private int next;
+
+	@Setup
+	public void setUp() {
+		mapping = FileMapping.load();
+		if (null == mapping) {
+			throw new IllegalStateException("No generated file mapping found");
+		}
+		raw = new ArrayList<>(rows);
+		bound = new ArrayList<>(rows);
+		for (String line : Dataset.lines(rows, invalidLineProbability, maxTextLength).subList(1, rows + 1)) {
+			String[] values = line.trim().split(",", -1);
+			Map<String, String> record = new HashMap<>();
+			record.put("id", values[0]);
+			record.put("name", values[1]);
+			record.put("date", reformat(values[2]));
+			record.put("amount", values[3]);
+			raw.add(record);
+			Map<String, Object> result = bind(record);
+			if (null != result) {
+				bound.add(result);
+			}
+		}
+	}
+
+	@Benchmark
+	public Map<String, Object> bindRecord() {
+		if (raw.size() <= next) {
+			next = 0;
+		}
+		return bind(raw.get(next++));
+	}
+
+	@Benchmark
+	public List<String> serializeRecord() {
+		if (bound.size() <= next) {
+			next = 0;
+		}
+		return serialize(bound.get(next++));
+	}
+
+	private Map<String, Object> bind(Map<String, String> record) {
+		Map<String, Function<String, ?>> binders = mapping.binders();
+		Map<String, Object> result = new HashMap<>();
+		try {
+			for (Map.Entry<String, String> e : record.entrySet()) {
+				result.put(e.getKey(), binders.get(e.getKey()).apply(e.getValue()));
+			}
+		} catch (RuntimeException e) {
+			return null;
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<String> serialize(Map<String, Object> record) {
+		Map<String, Function<?, String>> serializers = mapping.serializers();
+		List<String> result = new ArrayList<>(record.size());
+		for (Map.Entry<String, Object> e : record.entrySet()) {
+			result.add(((Function<Object, String>) serializers.get(e.getKey())).apply(e.getValue()));
+		}
+		return result;
+	}
+
+	/* generated data has dates in d/M/uuuu, mapping expects dd/MM/uuuu */
+	private static String reformat(String date) {
+		try {
+			return Converters.fromDate(LocalDate.parse(date, Binding.DATE));
+		} catch (DateTimeParseException e) {
+			return date;
+		}
+	}
+}
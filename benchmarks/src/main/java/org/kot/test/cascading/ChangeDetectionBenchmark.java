@@ -0,0 +1,102 @@
+package org.kot.test.cascading;
+
+import cascading.flow.FlowDef;
+import cascading.flow.local.LocalFlowConnector;
+import cascading.pipe.Pipe;
+import cascading.scheme.local.TextDelimited;
+import cascading.tap.SinkMode;
+import cascading.tap.local.FileTap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark of change detection assemblies on local platform.
+ * <p>
+ * Single operation is a complete flow over generated history and main stream files, where given ratio of records is changed since history.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-02-02 15:00
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ChangeDetectionBenchmark {
+
+	private static final String DELIMITER = ":";
+
+	@Param({"dumb", "merge", "join"})
+	public String assembly;
+
+	@Param({"100000"})
+	public int records;
+
+	@Param({"0.1"})
+	public double changeRatio;
+
+	private Path folder;
+
+	@Setup
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("change-detection");
+		Random random = new Random(20150404L);
+		try (BufferedWriter history = Files.newBufferedWriter(folder.resolve("history.csv"));
+		     BufferedWriter main = Files.newBufferedWriter(folder.resolve("main.csv"))) {
+			String header = "id" + DELIMITER + "name" + DELIMITER + "timestamp" + DELIMITER + "text\n";
+			history.write(header);
+			main.write(header);
+			for (int i = 0; i < records; i++) {
+				String text = Long.toHexString(random.nextLong());
+				history.write(i + DELIMITER + "name" + i + DELIMITER + 1L + DELIMITER + text + "\n");
+				if (random.nextDouble() < changeRatio) {
+					text = Long.toHexString(random.nextLong());
+				}
+				main.write(i + DELIMITER + "name" + i + DELIMITER + 2L + DELIMITER + text + "\n");
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(folder)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public void detect() {
+		Pipe data = new Pipe("data");
+		Pipe history = new Pipe("history");
+		Pipe[] tails = new CDRunner.AssemblyParamConverter().convert(assembly)
+				.the(history).mergeWith(data, CDRunner.KEY).compare("text").getTails();
+
+		TextDelimited scheme = new TextDelimited(CDRunner.FIELDS, true, DELIMITER);
+		FlowDef flowDef = FlowDef.flowDef()
+				.setName("change-detector")
+				.addSource(data, new FileTap(scheme, folder.resolve("main.csv").toString()))
+				.addSource(history, new FileTap(scheme, folder.resolve("history.csv").toString()))
+				.addTailSink(tails[0], new FileTap(scheme, folder.resolve("next.csv").toString(), SinkMode.REPLACE))
+				.addTailSink(tails[1], new FileTap(scheme, folder.resolve("out.csv").toString(), SinkMode.REPLACE));
+		new LocalFlowConnector().connect(flowDef).complete();
+	}
+}
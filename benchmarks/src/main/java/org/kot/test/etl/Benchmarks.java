@@ -0,0 +1,31 @@
+package org.kot.test.etl;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmarks runner.
+ * <p>
+ * Runs benchmarks selected by JMH command line options, by default measures throughput and sample time (percentiles) per operation with GC
+ * profiler attached.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-02-02 12:05
+ */
+public class Benchmarks {
+
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		CommandLineOptions cli = new CommandLineOptions(args);
+		OptionsBuilder options = new OptionsBuilder();
+		options.parent(cli);
+		if (cli.getBenchModes().isEmpty()) {
+			options.mode(Mode.Throughput).mode(Mode.SampleTime);
+		}
+		options.addProfiler(GCProfiler.class);
+		new Runner(options.build()).run();
+	}
+}
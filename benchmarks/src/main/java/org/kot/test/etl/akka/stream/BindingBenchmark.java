@@ -0,0 +1,90 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of binding by {@link Binding#inMappings()} as {@link CSV2JavaStage} does.
+ * <p>
+ * Single operation is a binding of the next parsed row, either into map or into row of fixed schema. Wide schema repeats the mappings, along
+ * with the cells of rows, to the number of columns.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-02-02 13:10
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BindingBenchmark {
+
+	@Param({"10000"})
+	public int rows;
+
+	@Param({"0.005", "0.1"})
+	public double invalidLineProbability;
+
+	@Param({"100"})
+	public int maxTextLength;
+
+	@Param({"5", "50"})
+	public int columns;
+
+	private List<List<ByteString>> cells;
+
+	private CSV2JavaStage<Map<String, ?>> mapBinding;
+
+	private CSV2JavaStage<Row> rowBinding;
+
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		cells = new ArrayList<>();
+		for (List<ByteString> row : Dataset.cells(Dataset.lines(rows, invalidLineProbability, maxTextLength))) {
+			cells.add(repeat(row));
+		}
+		List<Binding.Mapping<ByteString, ?>> mappings = repeat(Binding.inMappings());
+		mapBinding = CSV2JavaStage.toMappings(mappings);
+		rowBinding = CSV2JavaStage.toRows(mappings);
+	}
+
+	@Benchmark
+	public Map<String, ?> bindMap() {
+		return mapBinding.bind(nextCells());
+	}
+
+	@Benchmark
+	public Row bindRow() {
+		return rowBinding.bind(nextCells());
+	}
+
+	private <T> List<T> repeat(List<T> items) {
+		List<T> result = new ArrayList<>(columns);
+		for (int i = 0; i < columns / Binding.inMappings().size(); i++) {
+			result.addAll(items);
+		}
+		return result;
+	}
+
+	private List<ByteString> nextCells() {
+		if (cells.size() <= next) {
+			next = 0;
+		}
+		return cells.get(next++);
+	}
+}
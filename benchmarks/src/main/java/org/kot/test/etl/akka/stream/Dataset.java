@@ -0,0 +1,110 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic data sets for benchmarks.
+ * <p>
+ * Data is produced by {@link CSVGenerator.Rows} with a fixed seed, so the same parameters give the same data on every run.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-02-02 12:20
+ */
+public final class Dataset {
+
+	private static final long SEED = 20181215L;
+
+	private Dataset() {
+	}
+
+	/**
+	 * Generates CSV lines, header included.
+	 * @param rows The number of rows (header excluded)
+	 * @param invalidLineProbability The probability of line to be rejected on binding
+	 * @param maxTextLength The upper bound of text column length
+	 * @return The lines terminated by LF
+	 */
+	public static List<String> lines(int rows, double invalidLineProbability, int maxTextLength) {
+		CSVGenerator.Rows generator = new CSVGenerator.Rows(new SplittableRandom(SEED), invalidLineProbability, maxTextLength);
+		List<String> result = new ArrayList<>(rows + 1);
+		result.add(generator.header().utf8String());
+		for (int i = 1; i <= rows; i++) {
+			result.add(generator.row(i).utf8String());
+		}
+		return result;
+	}
+
+	/**
+	 * Widens the lines by the columns no mapping is bound from, put in front of the others.
+	 * @param lines The lines, header included
+	 * @param columns The number of columns to add
+	 */
+	public static List<String> widen(List<String> lines, int columns) {
+		StringBuilder header = new StringBuilder(), values = new StringBuilder();
+		for (int i = 0; i < columns; i++) {
+			header.append("extra").append(i).append(',');
+			values.append("value of ").append(i).append(',');
+		}
+		List<String> result = new ArrayList<>(lines.size());
+		for (String line : lines) {
+			result.add(((result.isEmpty())? header: values) + line);
+		}
+		return result;
+	}
+
+	/**
+	 * Cuts the lines into chunks of given size, as file source does.
+	 */
+	public static List<ByteString> chunks(List<String> lines, int chunkSize) {
+		ByteString data = ByteString.fromString(String.join("", lines));
+		List<ByteString> result = new ArrayList<>(data.size() / chunkSize + 1);
+		for (int i = 0; i < data.size(); i += chunkSize) {
+			result.add(data.slice(i, i + chunkSize).compact());
+		}
+		return result;
+	}
+
+	/**
+	 * Parses the lines into cells, header excluded.
+	 */
+	public static List<List<ByteString>> cells(List<String> lines) throws IOException {
+		CSVParser parser = new CSVParser(',', '"', '\\', Integer.MAX_VALUE);
+		List<List<ByteString>> result = new ArrayList<>(lines.size());
+		for (String line : lines.subList(1, lines.size())) {
+			parser.offer(ByteString.fromString(line));
+			for (List<ByteString> row = parser.poll(true); null != row; row = parser.poll(true)) {
+				result.add(row);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Binds the lines as {@link CSV2JavaStage} does, header excluded.
+	 */
+	public static List<Map<String, ?>> bound(List<String> lines) throws IOException {
+		CSV2JavaStage<Map<String, ?>> stage = CSV2JavaStage.toMappings(Binding.inMappings());
+		List<Map<String, ?>> result = new ArrayList<>(lines.size());
+		for (List<ByteString> row : cells(lines)) {
+			result.add(stage.bind(row));
+		}
+		return result;
+	}
+
+	/**
+	 * Binds the lines into rows as {@link CSV2JavaStage#toRows(List)} does, header excluded.
+	 */
+	public static List<Row> rows(List<String> lines) throws IOException {
+		CSV2JavaStage<Row> stage = CSV2JavaStage.toRows(Binding.inMappings());
+		List<Row> result = new ArrayList<>(lines.size());
+		for (List<ByteString> row : cells(lines)) {
+			result.add(stage.bind(row));
+		}
+		return result;
+	}
+}
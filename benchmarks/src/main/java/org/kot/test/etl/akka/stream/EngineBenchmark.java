@@ -0,0 +1,91 @@
+package org.kot.test.etl.akka.stream;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark of import engines head to head, {@link CSVImport Akka graph} against {@link ThreadedImport plain threads}.
+ * <p>
+ * Single operation is the whole import of data set by the default configuration, start and stop of actor system included, as it is the cost
+ * of short imports. Data set is either a few small files, where the start dominates, or many large files.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-05-25 15:30
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EngineBenchmark {
+
+	/** files x rows per file */
+	@Param({"4x1000", "20x100000"})
+	public String layout;
+
+	@Param({"akka", "threads"})
+	public String engine;
+
+	private Path directory;
+
+	private Config config;
+
+	@Setup
+	public void setUp() throws IOException {
+		String[] dimensions = layout.split("x");
+		List<String> lines = Dataset.lines(Integer.parseInt(dimensions[1]), 0.005, 100);
+		directory = Files.createTempDirectory("engine-benchmark");
+		for (int i = 0; i < Integer.parseInt(dimensions[0]); i++) {
+			try (Writer writer = Files.newBufferedWriter(directory.resolve("file" + i + ".csv"), StandardCharsets.UTF_8)) {
+				for (String line : lines) {
+					writer.write(line);
+				}
+			}
+		}
+		Map<String, Object> overrides = new HashMap<>();
+		overrides.put("importer.folder", directory.toString());
+		overrides.put("importer.folder-processed", directory.resolve("done").toString());
+		overrides.put("importer.folder-failed", directory.resolve("fail").toString());
+		overrides.put("importer.engine", engine);
+		config = ConfigFactory.parseMap(overrides).withFallback(ConfigFactory.load());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Benchmark
+	public long importFiles() throws IOException, InterruptedException, ExecutionException {
+		return CSVImport.importFromFiles(config);
+	}
+}
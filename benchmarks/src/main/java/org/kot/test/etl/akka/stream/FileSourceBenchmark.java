@@ -0,0 +1,124 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.FileIO;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark of file sources of import, {@link StreamConverters#fromInputStream input stream} and {@link FileIO#fromPath(Path, int) file channel}
+ * against {@link MappedFileSource memory mapped}.
+ * <p>
+ * Single operation is reading and in place parsing of all the files of data set, which is either the one of generator defaults (10 files of
+ * 10000 rows) or a single large file.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-03-09 12:10
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileSourceBenchmark {
+
+	/** files x rows per file */
+	@Param({"10x10000", "1x1000000"})
+	public String layout;
+
+	@Param({"stream", "file-io", "mapped"})
+	public String source;
+
+	@Param({"4194304"})
+	public int windowSize;
+
+	@Param({"8192"})
+	public int chunkSize;
+
+	private Path directory;
+
+	private List<Path> files;
+
+	private ActorSystem system;
+
+	private Materializer materializer;
+
+	@Setup
+	public void setUp() throws IOException {
+		String[] dimensions = layout.split("x");
+		List<String> lines = Dataset.lines(Integer.parseInt(dimensions[1]), 0.005, 100);
+		directory = Files.createTempDirectory("source-benchmark");
+		files = new ArrayList<>();
+		for (int i = 0; i < Integer.parseInt(dimensions[0]); i++) {
+			Path file = directory.resolve("file" + i + ".csv");
+			try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+				for (String line : lines) {
+					writer.write(line);
+				}
+			}
+			files.add(file);
+		}
+		system = ActorSystem.create("source-benchmark");
+		materializer = ActorMaterializer.create(system);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		system.terminate();
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Benchmark
+	public long readFiles() throws ExecutionException, InterruptedException {
+		CSVParsingStage parsing = CSVParsingStage.parseInPlace(',', '"', '\\', 10240, CSVScanner.of("swar", ',', '"', '\\'));
+		return Source.from(files)
+				.flatMapConcat(file -> read(file).via(parsing))
+				.runFold(0L, (count, row) -> count + 1, materializer)
+				.toCompletableFuture()
+				.get();
+	}
+
+	private Source<ByteString, ?> read(Path file) throws IOException {
+		switch (source) {
+			case "mapped":
+				return MappedFileSource.of(file, windowSize, chunkSize);
+			case "file-io":
+				return FileIO.fromPath(file, chunkSize);
+		}
+		InputStream inputStream = Files.newInputStream(file);
+		return StreamConverters.fromInputStream(() -> inputStream, chunkSize);
+	}
+}
@@ -0,0 +1,91 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of overhead of {@link Metrics}: parsed rows pass through three metered points, as they do from parsing to serialization in import.
+ * <p>
+ * Single operation is a pass of the whole data set, so the difference between {@code disabled} and the others is the cost of metering of
+ * {@code 3 x rows} elements; {@code histogram} records the latency of every element through the stages as well. {@code none} passes the rows
+ * through the same flows not metered at all, which is the baseline of {@code disabled}.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-03-23 15:30
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MetricsBenchmark {
+
+	@Param({"100000"})
+	public int rows;
+
+	@Param({"none", "disabled", "enabled", "histogram"})
+	public String metrics;
+
+	private List<List<ByteString>> cells;
+
+	private Flow<List<ByteString>, List<ByteString>, NotUsed> metered;
+
+	private ActorSystem system;
+
+	private Materializer materializer;
+
+	@Setup
+	public void setUp() throws IOException {
+		cells = Dataset.cells(Dataset.lines(rows, 0.005, 16));
+		if ("none".equals(metrics)) {
+			metered = Flow.<List<ByteString>>create()
+					.via(Flow.<List<ByteString>>create())
+					.via(Flow.<List<ByteString>>create())
+					.via(Flow.<List<ByteString>>create());
+		} else {
+			Metrics meters = "disabled".equals(metrics)? Metrics.disabled(): Metrics.enabled("histogram".equals(metrics));
+			metered = Flow.<List<ByteString>>create()
+					.via(meters.meter("parsing", Flow.<List<ByteString>>create(), r -> 1, r -> 0))
+					.via(meters.meter("binding", Flow.<List<ByteString>>create(), r -> 1, r -> 0))
+					.via(meters.meter("filter", Flow.<List<ByteString>>create(), r -> 1, r -> 0));
+		}
+		system = ActorSystem.create("metrics-benchmark");
+		materializer = ActorMaterializer.create(system);
+	}
+
+	@TearDown
+	public void tearDown() {
+		system.terminate();
+	}
+
+	@Benchmark
+	public long passRows() throws ExecutionException, InterruptedException {
+		return Source.from(cells)
+				.via(metered)
+				.runFold(0L, (count, row) -> count + row.size(), materializer)
+				.toCompletableFuture()
+				.get();
+	}
+}
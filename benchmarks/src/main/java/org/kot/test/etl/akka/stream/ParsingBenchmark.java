@@ -0,0 +1,98 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of {@link CSVParser#offer(ByteString)} / {@link CSVParser#poll(boolean)}.
+ * <p>
+ * Single operation is a parsing of the next row; data set is offered by chunks of given size and parsing starts over once it is exhausted.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-02-02 12:40
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParsingBenchmark {
+
+	@Param({"10000"})
+	public int rows;
+
+	@Param({"0.005"})
+	public double invalidLineProbability;
+
+	/** 16 for narrow rows and 256 for wide ones (text column is 128 characters long on average) */
+	@Param({"16", "256"})
+	public int maxTextLength;
+
+	@Param({"8192"})
+	public int chunkSize;
+
+	@Param({"rope", "in-place", "swar"})
+	public String mode;
+
+	/** columns no mapping is bound from, e.g. 40 for wide files */
+	@Param({"0"})
+	public int extraColumns;
+
+	/** whether rows are projected on the columns mappings are bound from */
+	@Param({"false"})
+	public boolean projection;
+
+	private List<ByteString> chunks;
+
+	private CSVParser parser;
+
+	private int next;
+
+	@Setup
+	public void setUp() {
+		chunks = Dataset.chunks(Dataset.widen(Dataset.lines(rows, invalidLineProbability, maxTextLength), extraColumns), chunkSize);
+		reset();
+	}
+
+	@Benchmark
+	public List<ByteString> parseRow() throws IOException {
+		List<ByteString> row = parser.poll(true);
+		while (null == row) {
+			if (chunks.size() <= next) {
+				reset();
+			}
+			parser.offer(chunks.get(next++));
+			row = parser.poll(true);
+		}
+		return row;
+	}
+
+	private void reset() {
+		next = 0;
+		switch (mode) {
+			case "rope":
+				parser = new CSVParser(',', '"', '\\', 10240);
+				break;
+			case "in-place":
+				parser = new CSVParser(',', '"', '\\', 10240, true);
+				break;
+			default:
+				parser = new CSVParser(',', '"', '\\', 10240, CSVScanner.of(mode, ',', '"', '\\'));
+		}
+		if (projection) {
+			parser.project(Binding.inMappings().stream().map(m -> ByteString.fromString(m.fromName())).collect(Collectors.toList()));
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package org.kot.test.etl.akka.stream;
+
+import akka.util.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of serialization of bound rows by {@link Java2CSVStage}, either into success or error output like import does.
+ * <p>
+ * Single operation is a serialization of the next bound map or row of fixed schema.
+ * @author <a href=mailto:striped@gmail.com>striped</a>
+ * @created 2019-02-02 13:30
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+	@Param({"10000"})
+	public int rows;
+
+	@Param({"0.005", "0.1"})
+	public double invalidLineProbability;
+
+	@Param({"100"})
+	public int maxTextLength;
+
+	private List<Map<String, ?>> boundMaps;
+
+	private List<Row> boundRows;
+
+	private Java2CSVStage<Map<String, ?>> mapOut, mapErr;
+
+	private Java2CSVStage<Row> rowOut, rowErr;
+
+	private int nextRow;
+
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		List<String> lines = Dataset.lines(rows, invalidLineProbability, maxTextLength);
+		boundMaps = Dataset.bound(lines);
+		boundRows = Dataset.rows(lines);
+		Row.Schema schema = Row.Schema.of(Binding.inMappings());
+		mapOut = Java2CSVStage.toMapping(Binding.outMappings());
+		mapErr = Java2CSVStage.toMapping(Binding.errorMappings());
+		rowOut = Java2CSVStage.toMapping(schema, Binding.outMappings());
+		rowErr = Java2CSVStage.toMapping(schema, Binding.errorMappings());
+	}
+
+	@Benchmark
+	public ByteString serializeMap() {
+		if (boundMaps.size() <= next) {
+			next = 0;
+		}
+		Map<String, ?> map = boundMaps.get(next++);
+		return (map.containsKey("failures")? mapErr: mapOut).toLine(map);
+	}
+
+	@Benchmark
+	public ByteString serializeRow() {
+		if (boundRows.size() <= nextRow) {
+			nextRow = 0;
+		}
+		Row row = boundRows.get(nextRow++);
+		return (row.isFailed()? rowErr: rowOut).toLine(row);
+	}
+}